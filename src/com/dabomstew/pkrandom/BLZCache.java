@@ -0,0 +1,191 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  BLZCache.java - on-disk cache of what BLZCoder makes of               --*/
+/*--                  the ARM9, overlays and .code                          --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import cuecompressors.BLZCoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Adler32;
+
+/**
+ * Remembers what BLZCoder made of a given input, so loading the same game again does not have to decompress its
+ * ARM9/overlays/.code, and saving code that came out the same as in an earlier run does not have to compress it
+ * again.
+ * <p>
+ * Entries live in the cache folder, named after the CRC32 and length of the input and the coder settings. Each
+ * also holds an Adler-32 of the input and the CRC32 of the output, which are checked before an entry is used.
+ * Anything wrong with the cache just means running BLZCoder as usual. The folder is kept under a size limit by
+ * prune, which the DS and 3DS handlers call once after loading or saving a ROM.
+ */
+public class BLZCache {
+
+    private static final int cache_magic = 0x5550525A; // "UPRZ"
+    // Bump this whenever the entry layout or BLZCoder's output changes
+    private static final int cache_version = 1;
+    private static final int header_size = 24;
+    // Decompressed entries only grow with the number of different games; compressed ones with every patched
+    // .code, so less room is kept for those
+    private static final long max_decoded_bytes = 128L * 1024 * 1024;
+    private static final long max_encoded_bytes = 32L * 1024 * 1024;
+    private static final String cache_folder = SysConstants.cachePath + "blz" + File.separator;
+
+    // Whether an entry was written since the last prune, which has nothing to do otherwise
+    private static final AtomicBoolean entriesWritten = new AtomicBoolean();
+
+    public static byte[] decode(byte[] data, String reference) {
+        String name = "dec_" + key(data);
+        byte[] cached = read(name, data);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] result = new BLZCoder(null).BLZ_DecodePub(data, reference);
+        write(name, data, result);
+        return result;
+    }
+
+    public static byte[] encode(byte[] data, boolean arm9, boolean best, String reference) {
+        String name = "enc_" + (arm9 ? "arm9_" : "") + (best ? "best_" : "") + key(data);
+        byte[] cached = read(name, data);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] result = new BLZCoder(null).BLZ_EncodePub(data, arm9, best, reference);
+        write(name, data, result);
+        return result;
+    }
+
+    private static String key(byte[] data) {
+        return String.format("%08X_%d", FileFunctions.getCRC32(data), data.length);
+    }
+
+    private static int adler32(byte[] data) {
+        Adler32 checksum = new Adler32();
+        checksum.update(data, 0, data.length);
+        return (int) checksum.getValue();
+    }
+
+    private static byte[] read(String name, byte[] input) {
+        File cacheFile = new File(cache_folder + name + ".bin");
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(cacheFile.toPath()));
+            if (buf.remaining() < header_size || buf.getInt() != cache_magic || buf.getInt() != cache_version
+                    || buf.getInt() != adler32(input)) {
+                return null;
+            }
+            int length = buf.getInt();
+            long crc = buf.getLong();
+            if (length != buf.remaining()) {
+                return null;
+            }
+            byte[] output = new byte[length];
+            buf.get(output);
+            if (FileFunctions.getCRC32(output) != crc) {
+                return null;
+            }
+            // so the entries used most recently are the ones kept
+            cacheFile.setLastModified(System.currentTimeMillis());
+            return output;
+        } catch (IOException | RuntimeException e) {
+            // a truncated or otherwise damaged entry; it gets written again
+            return null;
+        }
+    }
+
+    private static void write(String name, byte[] input, byte[] output) {
+        if (output == null) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(header_size + output.length);
+        buf.putInt(cache_magic);
+        buf.putInt(cache_version);
+        buf.putInt(adler32(input));
+        buf.putInt(output.length);
+        buf.putLong(FileFunctions.getCRC32(output));
+        buf.put(output);
+
+        try {
+            // Write to a temporary file first, so a randomizer running at the same time never reads a
+            // half-written entry
+            File cacheFolder = new File(cache_folder);
+            if (!cacheFolder.isDirectory() && !cacheFolder.mkdirs()) {
+                return;
+            }
+            File tmp = File.createTempFile(name, ".tmp", cacheFolder);
+            try {
+                FileFunctions.writeBytesToFile(tmp.getAbsolutePath(), buf.array());
+                File cacheFile = new File(cache_folder + name + ".bin");
+                try {
+                    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                tmp.delete();
+            }
+            entriesWritten.set(true);
+        } catch (IOException | RuntimeException e) {
+            // Not being able to cache just means running BLZCoder again next time
+        }
+    }
+
+    // Deletes the least recently used entries of each kind that go over its size limit
+    public static void prune() {
+        if (!entriesWritten.getAndSet(false)) {
+            return;
+        }
+        File cacheFolder = new File(cache_folder);
+        prune(cacheFolder, "dec_", max_decoded_bytes);
+        prune(cacheFolder, "enc_", max_encoded_bytes);
+    }
+
+    private static void prune(File cacheFolder, String prefix, long maxBytes) {
+        File[] entries = cacheFolder.listFiles((dir, fileName) -> fileName.startsWith(prefix)
+                && fileName.endsWith(".bin"));
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified).reversed());
+        long totalBytes = 0;
+        for (File entry : entries) {
+            totalBytes += entry.length();
+            if (totalBytes > maxBytes) {
+                entry.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  BatchRandomizer.java - randomizes many seeds of one source ROM        --*/
+/*--                         on a pool of worker threads, reporting         --*/
+/*--                         timings for each seed.                         --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.dabomstew.pkrandom.romhandlers.RomHandler;
+import com.dabomstew.pkrandom.romhandlers.RomSnapshot;
+
+public class BatchRandomizer {
+
+    private final Settings settings;
+    private final RomSnapshot snapshot;
+    private final ResourceBundle bundle;
+    private final boolean saveAsDirectory;
+    private final int threads;
+
+    public BatchRandomizer(Settings settings, RomSnapshot snapshot, ResourceBundle bundle, boolean saveAsDirectory,
+                           int threads) {
+        this.settings = settings;
+        this.snapshot = snapshot;
+        this.bundle = bundle;
+        this.saveAsDirectory = saveAsDirectory;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Randomizes one new seed per output filename. Results are returned in the same order as the filenames;
+     * a seed that failed has its exception set instead of aborting the whole batch.
+     */
+    public List<SeedResult> randomize(List<String> filenames, boolean saveLogs, PrintStream progress)
+            throws InterruptedException {
+        if (filenames.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final long batchStart = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, filenames.size()));
+        List<Future<SeedResult>> futures = new ArrayList<>();
+        try {
+            for (String filename : filenames) {
+                final long seed = RandomSource.pickSeed();
+                futures.add(pool.submit(() -> {
+                    SeedResult result = randomizeSeed(filename, seed, saveLogs);
+                    synchronized (progress) {
+                        progress.println(result);
+                    }
+                    return result;
+                }));
+            }
+            List<SeedResult> results = new ArrayList<>();
+            for (Future<SeedResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    // randomizeSeed catches everything itself, so this should not happen
+                    throw new RuntimeException(ex.getCause());
+                }
+            }
+            printSummary(results, System.nanoTime() - batchStart, progress);
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private SeedResult randomizeSeed(String filename, long seed, boolean saveLog) {
+        SeedResult result = new SeedResult(filename, seed);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream log;
+        try {
+            log = new PrintStream(baos, false, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            log = new PrintStream(baos);
+        }
+
+        long start = System.nanoTime();
+        RomHandler romHandler = null;
+        try {
+            RandomSource randomSource = new RandomSource();
+            long loadStart = System.nanoTime();
+            romHandler = snapshot.fork(randomSource.instance(), log);
+            result.loadTime = System.nanoTime() - loadStart;
+
+            long randomizeStart = System.nanoTime();
+            Randomizer randomizer = new Randomizer(settings, romHandler, randomSource, bundle, saveAsDirectory);
+            result.checkValue = randomizer.randomize(filename, log, seed);
+            result.randomizeTime = System.nanoTime() - randomizeStart;
+            log.close();
+            if (saveLog) {
+                writeLog(filename, baos.toByteArray());
+            }
+        } catch (Exception ex) {
+            result.exception = ex;
+        } finally {
+            release(romHandler);
+            result.totalTime = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    private static void writeLog(String filename, byte[] out) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(filename + ".log")) {
+            fos.write(0xEF);
+            fos.write(0xBB);
+            fos.write(0xBF);
+            fos.write(out);
+        }
+    }
+
+    private void release(RomHandler romHandler) {
+        if (romHandler == null) {
+            return;
+        }
+        try {
+            snapshot.release(romHandler);
+        } catch (IOException ex) {
+            // the output has already been written at this point, nothing more to do
+        }
+    }
+
+    private static void printSummary(List<SeedResult> results, long batchTime, PrintStream progress) {
+        long[] latencies = results.stream().filter(r -> r.exception == null).mapToLong(r -> r.totalTime).sorted()
+                .toArray();
+        int failed = results.size() - latencies.length;
+        double seconds = batchTime / 1e9;
+        progress.printf("Randomized %d seed(s) in %.2f s (%.2f seeds/s)%s%n", latencies.length, seconds,
+                latencies.length / seconds, failed > 0 ? ", " + failed + " failed" : "");
+        if (latencies.length > 0) {
+            progress.printf("Seed latency: min %d ms, median %d ms, p95 %d ms, max %d ms%n",
+                    millis(latencies[0]), millis(latencies[latencies.length / 2]),
+                    millis(latencies[(int) Math.ceil(latencies.length * 0.95) - 1]),
+                    millis(latencies[latencies.length - 1]));
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public static class SeedResult {
+        public final String filename;
+        public final long seed;
+        public int checkValue;
+        public long loadTime;
+        public long randomizeTime;
+        public long totalTime;
+        public Exception exception;
+
+        private SeedResult(String filename, long seed) {
+            this.filename = filename;
+            this.seed = seed;
+        }
+
+        @Override
+        public String toString() {
+            if (exception != null) {
+                return String.format("%s: seed %d FAILED (%s)", filename, seed, exception);
+            }
+            return String.format("%s: seed %d, check value %08X, load %d ms, randomize %d ms, total %d ms",
+                    filename, seed, checkValue, millis(loadTime), millis(randomizeTime), millis(totalTime));
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.io.*;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -196,6 +197,28 @@ public class FileFunctions {
         return readFullInt(buf, 0);
     }
 
+    // Copies length bytes from one file to another with channel-to-channel transfers, so the data
+    // never has to pass through a buffer on the Java heap.
+    public static void transferBetweenFiles(FileChannel from, long fromOffset, long length, FileChannel to,
+                                            long toOffset) throws IOException {
+        long done = 0;
+        while (done < length) {
+            to.position(toOffset + done);
+            long transferred = from.transferTo(fromOffset + done, length - done, to);
+            if (transferred <= 0) {
+                throw new EOFException("Could not copy " + length + " bytes from offset " + fromOffset);
+            }
+            done += transferred;
+        }
+    }
+
+    public static void writeBytesToChannel(FileChannel to, long offset, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            offset += to.write(buf, offset);
+        }
+    }
+
     public static void writeBytesToFile(String filename, byte[] data) throws IOException {
         FileOutputStream fos = new FileOutputStream(filename);
         fos.write(data);
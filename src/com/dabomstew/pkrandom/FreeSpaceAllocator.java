@@ -0,0 +1,271 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  FreeSpaceAllocator.java - hands out free space in a ROM,              --*/
+/*--                            keeping track of what's left.               --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Gives out the same offsets RomFunctions.freeSpaceFinder would, but from an index of the runs of free bytes in
+ * the ROM instead of searching it again each time. The index is built from the lowest offset asked for onwards
+ * the first time it's needed.
+ *
+ * Space handed out is taken out of the index, then looked at again before the next allocation, since whatever
+ * was written there can itself end in free bytes (like a string's FF terminator). Runs in the index are also
+ * checked against the ROM before they're used, so other writes into free space are noticed. The one thing that
+ * isn't picked up is free space made by writing over data outside of an allocation.
+ */
+public class FreeSpaceAllocator {
+
+    // Every allocation needs at least 1 byte plus 2 spare, so shorter runs are never any use
+    private static final int MIN_RUN = 3;
+
+    // The longest run starting in each block of the ROM is kept in a max tree, so the first run that's long
+    // enough can be found without going through all the shorter ones before it
+    private static final int BLOCK_BITS = 12;
+
+    private final byte[] rom;
+    private final byte freeSpace;
+
+    // start -> end (exclusive) of each run of at least MIN_RUN free bytes
+    private final TreeMap<Integer, Integer> runs = new TreeMap<>();
+    private final int[] longestRuns;
+    private final int leaves;
+    private int indexedFrom = -1;
+
+    // the last space handed out, to look at again next time
+    private int pendingStart, pendingEnd;
+
+    private int allocations;
+    private long bytesAllocated;
+
+    public FreeSpaceAllocator(byte[] rom, byte freeSpace) {
+        this.rom = rom;
+        this.freeSpace = freeSpace;
+        int blocks = (rom.length >> BLOCK_BITS) + 1;
+        int size = 1;
+        while (size < blocks) {
+            size *= 2;
+        }
+        leaves = size;
+        longestRuns = new int[size * 2];
+    }
+
+    public int allocate(int amount, int offset) {
+        // by default align to 4 bytes to make sure things don't break
+        return allocate(amount, offset, true);
+    }
+
+    /**
+     * Finds space for amount bytes at or after offset, as RomFunctions.freeSpaceFinder does: 2 free bytes are
+     * left in front of it (5 if it has to be 4-aligned) to keep things like FF terminators intact. If there's
+     * no room, the result is less than offset.
+     */
+    public int allocate(int amount, int offset, boolean longAligned) {
+        int spare = longAligned ? 5 : 2;
+        int needed = amount + spare;
+        if (offset < 0 || offset >= rom.length) {
+            return longAligned ? 4 : 1;
+        }
+        index(offset);
+        if (pendingEnd > pendingStart) {
+            reindex(pendingStart, pendingEnd);
+            pendingStart = pendingEnd = 0;
+        }
+
+        Map.Entry<Integer, Integer> run;
+        while ((run = firstFit(offset, needed)) != null) {
+            int start = Math.max(run.getKey(), offset);
+            if (stillFree(start, start + needed)) {
+                int result = longAligned ? (start + 5) & ~3 : start + 2;
+                take(result, result + amount);
+                allocations++;
+                bytesAllocated += amount;
+                return result;
+            }
+            // something got written here, so find out what's really left and look again
+            reindex(run.getKey(), run.getValue());
+        }
+        // same as what freeSpaceFinder gives when it finds nothing
+        return longAligned ? 4 : 1;
+    }
+
+    // The first run with at least needed bytes from offset onwards
+    private Map.Entry<Integer, Integer> firstFit(int offset, int needed) {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(offset);
+        if (run != null && run.getValue() - offset >= needed) {
+            return run;
+        }
+        int block = offset >> BLOCK_BITS;
+        run = firstFitInBlock(block, offset + 1, needed);
+        if (run != null) {
+            return run;
+        }
+        block = firstBlock(1, 0, leaves, block + 1, needed);
+        return block == -1 ? null : firstFitInBlock(block, block << BLOCK_BITS, needed);
+    }
+
+    private Map.Entry<Integer, Integer> firstFitInBlock(int block, int from, int needed) {
+        for (Map.Entry<Integer, Integer> run : runs.subMap(from, (block + 1) << BLOCK_BITS).entrySet()) {
+            if (run.getValue() - run.getKey() >= needed) {
+                return run;
+            }
+        }
+        return null;
+    }
+
+    // The first block from fromBlock onwards with a run of at least needed bytes starting in it, or -1
+    private int firstBlock(int node, int nodeStart, int nodeEnd, int fromBlock, int needed) {
+        if (nodeEnd <= fromBlock || longestRuns[node] < needed) {
+            return -1;
+        }
+        if (node >= leaves) {
+            return nodeStart;
+        }
+        int middle = (nodeStart + nodeEnd) / 2;
+        int block = firstBlock(node * 2, nodeStart, middle, fromBlock, needed);
+        return block != -1 ? block : firstBlock(node * 2 + 1, middle, nodeEnd, fromBlock, needed);
+    }
+
+    private void updateBlock(int block) {
+        int longest = 0;
+        for (Map.Entry<Integer, Integer> run : runs.subMap(block << BLOCK_BITS, (block + 1) << BLOCK_BITS)
+                .entrySet()) {
+            longest = Math.max(longest, run.getValue() - run.getKey());
+        }
+        int node = leaves + block;
+        longestRuns[node] = longest;
+        for (node /= 2; node > 0; node /= 2) {
+            longestRuns[node] = Math.max(longestRuns[node * 2], longestRuns[node * 2 + 1]);
+        }
+    }
+
+    public String getStatistics() {
+        if (allocations == 0) {
+            return "Free space: nothing allocated";
+        }
+        if (pendingEnd > pendingStart) {
+            reindex(pendingStart, pendingEnd);
+            pendingStart = pendingEnd = 0;
+        }
+        long free = 0;
+        int largest = 0;
+        for (Map.Entry<Integer, Integer> run : runs.entrySet()) {
+            int length = run.getValue() - run.getKey();
+            free += length;
+            largest = Math.max(largest, length);
+        }
+        double fragmentation = free == 0 ? 0 : 100.0 * (free - largest) / free;
+        return String.format("Free space: %d bytes in %d allocations, %d bytes left after 0x%X in %d runs "
+                        + "(largest %d bytes, %.1f%% fragmented)", bytesAllocated, allocations, free, indexedFrom,
+                runs.size(), largest, fragmentation);
+    }
+
+    // Makes sure everything from offset onwards is in the index
+    private void index(int offset) {
+        if (indexedFrom == -1) {
+            indexedFrom = rom.length;
+        }
+        if (offset < indexedFrom) {
+            int oldFrom = indexedFrom;
+            indexedFrom = offset;
+            reindex(offset, oldFrom);
+        }
+    }
+
+    // Throws away what the index says about lo up to hi and reads it from the ROM again, along with any free
+    // bytes touching it either side
+    private void reindex(int lo, int hi) {
+        while (lo > indexedFrom && rom[lo - 1] == freeSpace) {
+            lo--;
+        }
+        while (hi < rom.length && rom[hi] == freeSpace) {
+            hi++;
+        }
+        Map.Entry<Integer, Integer> before = runs.floorEntry(lo);
+        if (before != null && before.getValue() > lo) {
+            lo = before.getKey();
+        }
+        Integer key = runs.ceilingKey(lo);
+        while (key != null && key < hi) {
+            hi = Math.max(hi, runs.remove(key));
+            key = runs.higherKey(key);
+        }
+
+        int runStart = -1;
+        for (int i = lo; i < hi; i++) {
+            if (rom[i] == freeSpace) {
+                if (runStart == -1) {
+                    runStart = i;
+                }
+            } else if (runStart != -1) {
+                putRun(runStart, i);
+                runStart = -1;
+            }
+        }
+        if (runStart != -1) {
+            putRun(runStart, hi);
+        }
+        for (int block = lo >> BLOCK_BITS; block <= (hi - 1) >> BLOCK_BITS; block++) {
+            updateBlock(block);
+        }
+    }
+
+    private void addRun(int start, int end) {
+        if (putRun(start, end)) {
+            updateBlock(start >> BLOCK_BITS);
+        }
+    }
+
+    // Without updating the tree
+    private boolean putRun(int start, int end) {
+        if (end - start >= MIN_RUN) {
+            runs.put(start, end);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean stillFree(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (rom[i] != freeSpace) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Takes start up to end out of the run it's in
+    private void take(int start, int end) {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(start);
+        runs.remove(run.getKey());
+        updateBlock(run.getKey() >> BLOCK_BITS);
+        addRun(run.getKey(), start);
+        addRun(end, run.getValue());
+        pendingStart = start;
+        pendingEnd = end;
+    }
+}
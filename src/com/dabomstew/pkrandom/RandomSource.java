@@ -29,75 +29,70 @@ package com.dabomstew.pkrandom;
 import java.security.SecureRandom;
 import java.util.Random;
 
+// One RandomSource is used per randomization run, so that several runs can happen in the same JVM
+// without drawing from each other's seed stream.
 public class RandomSource {
 
-    private static Random source = new Random();
-    private static Random cosmeticSource = new Random();
-    private static int calls = 0;
-    private static int cosmeticCalls = 0;
-    private static Random instance = new RandomSourceInstance();
-    private static Random cosmeticInstance = new CosmeticRandomSourceInstance();
+    private final Random source = new Random();
+    private final Random cosmeticSource = new Random();
+    private int calls = 0;
+    private int cosmeticCalls = 0;
+    private final Random instance = new RandomSourceInstance();
+    private final Random cosmeticInstance = new CosmeticRandomSourceInstance();
 
-    public static void reset() {
-        source = new Random();
-        cosmeticSource = new Random();
-        calls = 0;
-        cosmeticCalls = 0;
-    }
-
-    public static void seed(long seed) {
+    public void seed(long seed) {
         source.setSeed(seed);
         cosmeticSource.setSeed(seed);
         calls = 0;
         cosmeticCalls = 0;
     }
 
-    public static double random() {
+    public double random() {
         calls++;
         return source.nextDouble();
     }
 
-    public static int nextInt(int size) {
+    public int nextInt(int size) {
         calls++;
         return source.nextInt(size);
     }
 
-    public static int nextIntCosmetic(int size) {
+    public int nextIntCosmetic(int size) {
         cosmeticCalls++;
         return cosmeticSource.nextInt(size);
     }
 
-    public static void nextBytes(byte[] bytes) {
+    public void nextBytes(byte[] bytes) {
         calls++;
         source.nextBytes(bytes);
     }
 
-    public static int nextInt() {
+    public int nextInt() {
         calls++;
         return source.nextInt();
     }
 
-    public static long nextLong() {
+    public long nextLong() {
         calls++;
         return source.nextLong();
     }
 
-    public static boolean nextBoolean() {
+    public boolean nextBoolean() {
         calls++;
         return source.nextBoolean();
     }
 
-    public static float nextFloat() {
+    public float nextFloat() {
         calls++;
         return source.nextFloat();
     }
 
-    public static double nextDouble() {
+    public double nextDouble() {
         calls++;
         return source.nextDouble();
     }
 
-    public static synchronized double nextGaussian() {
+    public synchronized double nextGaussian() {
         calls++;
         return source.nextGaussian();
     }
@@ -111,77 +106,92 @@ public class RandomSource {
         return value;
     }
 
-    public static Random instance() {
+    public Random instance() {
         return instance;
     }
 
-    public static Random cosmeticInstance() {
+    public Random cosmeticInstance() {
         return cosmeticInstance;
     }
 
-    public static int callsSinceSeed() {
+    public int callsSinceSeed() {
         return calls + cosmeticCalls;
     }
 
-    private static class RandomSourceInstance extends Random {
+    /**
+     * Returns the RandomSource that the given Random was handed out by through instance(),
+     * or null if it is some other Random.
+     */
+    public static RandomSource of(Random random) {
+        if (random instanceof RandomSourceInstance) {
+            return ((RandomSourceInstance) random).owner();
+        }
+        return null;
+    }
+
+    private class RandomSourceInstance extends Random {
 
         /**
          * 
          */
         private static final long serialVersionUID = -4876737183441746322L;
 
+        private RandomSource owner() {
+            return RandomSource.this;
+        }
+
         @Override
         public synchronized void setSeed(long seed) {
-            RandomSource.seed(seed);
+            RandomSource.this.seed(seed);
         }
 
         @Override
         public void nextBytes(byte[] bytes) {
-            RandomSource.nextBytes(bytes);
+            RandomSource.this.nextBytes(bytes);
         }
 
         @Override
         public int nextInt() {
-            return RandomSource.nextInt();
+            return RandomSource.this.nextInt();
         }
 
         @Override
         public int nextInt(int n) {
-            return RandomSource.nextInt(n);
+            return RandomSource.this.nextInt(n);
         }
 
         @Override
         public long nextLong() {
-            return RandomSource.nextLong();
+            return RandomSource.this.nextLong();
         }
 
         @Override
         public boolean nextBoolean() {
-            return RandomSource.nextBoolean();
+            return RandomSource.this.nextBoolean();
         }
 
         @Override
         public float nextFloat() {
-            return RandomSource.nextFloat();
+            return RandomSource.this.nextFloat();
         }
 
         @Override
         public double nextDouble() {
-            return RandomSource.nextDouble();
+            return RandomSource.this.nextDouble();
         }
 
         @Override
         public synchronized double nextGaussian() {
-            return RandomSource.nextGaussian();
+            return RandomSource.this.nextGaussian();
         }
 
     }
 
-    private static class CosmeticRandomSourceInstance extends Random {
+    private class CosmeticRandomSourceInstance extends Random {
 
         @Override
         public synchronized void setSeed(long seed) {
-            RandomSource.seed(seed);
+            RandomSource.this.seed(seed);
         }
 
         @Override
@@ -198,7 +208,7 @@ public class RandomSource {
 
         @Override
         public int nextInt(int n) {
-            return RandomSource.nextIntCosmetic(n);
+            return RandomSource.this.nextIntCosmetic(n);
         }
 
         @Override
@@ -40,12 +40,16 @@ public class Randomizer {
 
     private final Settings settings;
     private final RomHandler romHandler;
+    private final RandomSource randomSource;
     private final ResourceBundle bundle;
     private final boolean saveAsDirectory;
 
-    public Randomizer(Settings settings, RomHandler romHandler, ResourceBundle bundle, boolean saveAsDirectory) {
+    // randomSource must be the one whose instance() the RomHandler was created with
+    public Randomizer(Settings settings, RomHandler romHandler, RandomSource randomSource, ResourceBundle bundle,
+                      boolean saveAsDirectory) {
         this.settings = settings;
         this.romHandler = romHandler;
+        this.randomSource = randomSource;
         this.bundle = bundle;
         this.saveAsDirectory = saveAsDirectory;
     }
@@ -67,7 +71,7 @@ public class Randomizer {
     public int randomize(final String filename, final PrintStream log, long seed) {
 
         final long startTime = System.currentTimeMillis();
-        RandomSource.seed(seed);
+        randomSource.seed(seed);
 
         int checkValue = 0;
 
@@ -688,7 +692,7 @@ public class Randomizer {
         log.println("------------------------------------------------------------------");
         log.println("Randomization of " + gameName + " completed.");
         log.println("Time elapsed: " + (System.currentTimeMillis() - startTime) + "ms");
-        log.println("RNG Calls: " + RandomSource.callsSinceSeed());
+        log.println("RNG Calls: " + randomSource.callsSinceSeed());
         log.println("------------------------------------------------------------------");
         log.println();
 
@@ -208,6 +208,8 @@ public class Settings {
     private boolean randomizeWildPokemonHeldItems;
     private boolean banBadRandomWildPokemonHeldItems;
     private boolean balanceShakingGrass;
+    // Settings strings from before this existed leave the bit unset, so their seeds keep the old picks
+    private boolean fastWildPokemonSampling = true;
     private boolean wildLevelsModified;
     private int wildLevelModifier = 0;
     private boolean allowWildAltFormes;
@@ -424,7 +426,7 @@ public class Settings {
         // 16 wild pokemon 2
         out.write(makeByteSelected(useMinimumCatchRate, blockWildLegendaries,
                 wildPokemonRestrictionMod == WildPokemonRestrictionMod.SIMILAR_STRENGTH, randomizeWildPokemonHeldItems,
-                banBadRandomWildPokemonHeldItems, false, false, balanceShakingGrass));
+                banBadRandomWildPokemonHeldItems, fastWildPokemonSampling, false, balanceShakingGrass));
 
         // 17 static pokemon
         out.write(makeByteSelected(staticPokemonMod == StaticPokemonMod.UNCHANGED,
@@ -701,6 +703,7 @@ public class Settings {
         settings.setRandomizeWildPokemonHeldItems(restoreState(data[16], 3));
         settings.setBanBadRandomWildPokemonHeldItems(restoreState(data[16], 4));
         settings.setBalanceShakingGrass(restoreState(data[16], 7));
+        settings.setFastWildPokemonSampling(restoreState(data[16], 5));
 
         settings.setStaticPokemonMod(restoreEnum(StaticPokemonMod.class, data[17], 0, // UNCHANGED
                 1, // RANDOM_MATCHING
@@ -1846,6 +1849,14 @@ public class Settings {
         this.balanceShakingGrass = balanceShakingGrass;
     }
 
+    public boolean isFastWildPokemonSampling() {
+        return fastWildPokemonSampling;
+    }
+
+    public void setFastWildPokemonSampling(boolean fastWildPokemonSampling) {
+        this.fastWildPokemonSampling = fastWildPokemonSampling;
+    }
+
     public boolean isWildLevelsModified() {
         return wildLevelsModified;
     }
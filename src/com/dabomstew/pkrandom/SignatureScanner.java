@@ -0,0 +1,243 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  SignatureScanner.java - finds many byte signatures in one pass        --*/
+/*--                          over a ROM.                                   --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Looks for a fixed set of hex signatures all at once, using an Aho-Corasick automaton built when the scanner is
+ * made. The matches for each signature are the same ones RomFunctions.search would give: from the start of the
+ * data, each match that doesn't overlap the one before it.
+ */
+public class SignatureScanner {
+
+    // Below this size splitting the scan up between threads isn't worth it
+    private static final int PARALLEL_THRESHOLD = 0x400000;
+
+    private final List<String> signatures;
+    private final int[] lengths;
+    private final int maxLength;
+
+    // transitions[state * 256 + b] is the state after reading byte b
+    private final int[] transitions;
+    // the signatures ending at each state, or null
+    private final int[][] outputs;
+
+    public SignatureScanner(String... hexSignatures) {
+        signatures = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(hexSignatures)));
+        lengths = new int[signatures.size()];
+
+        // Build the trie
+        int[] trie = new int[256];
+        Arrays.fill(trie, -1);
+        List<List<Integer>> ends = new ArrayList<>();
+        ends.add(new ArrayList<>());
+        int states = 1;
+        int longest = 0;
+        for (int id = 0; id < signatures.size(); id++) {
+            byte[] signature = parse(signatures.get(id));
+            lengths[id] = signature.length;
+            longest = Math.max(longest, signature.length);
+            int state = 0;
+            for (byte b : signature) {
+                int slot = state * 256 + (b & 0xFF);
+                if (trie[slot] == -1) {
+                    if ((states + 1) * 256 > trie.length) {
+                        int oldLength = trie.length;
+                        trie = Arrays.copyOf(trie, oldLength * 2);
+                        Arrays.fill(trie, oldLength, trie.length, -1);
+                    }
+                    ends.add(new ArrayList<>());
+                    trie[slot] = states++;
+                }
+                state = trie[slot];
+            }
+            ends.get(state).add(id);
+        }
+        maxLength = longest;
+
+        // Fill in the missing transitions from the failure links, going through the states by depth
+        transitions = Arrays.copyOf(trie, states * 256);
+        outputs = new int[states][];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (int b = 0; b < 256; b++) {
+            if (transitions[b] == -1) {
+                transitions[b] = 0;
+            } else {
+                queue[tail++] = transitions[b];
+            }
+        }
+        outputs[0] = toArray(ends.get(0));
+        while (head < tail) {
+            int state = queue[head++];
+            List<Integer> ending = new ArrayList<>(ends.get(state));
+            if (outputs[fail[state]] != null) {
+                for (int id : outputs[fail[state]]) {
+                    ending.add(id);
+                }
+            }
+            outputs[state] = toArray(ending);
+            for (int b = 0; b < 256; b++) {
+                int slot = state * 256 + b;
+                int failNext = transitions[fail[state] * 256 + b];
+                if (transitions[slot] == -1) {
+                    transitions[slot] = failNext;
+                } else {
+                    fail[transitions[slot]] = failNext;
+                    queue[tail++] = transitions[slot];
+                }
+            }
+        }
+    }
+
+    public Matches scan(byte[] data) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunks = data.length >= PARALLEL_THRESHOLD && threads > 1 ? threads : 1;
+        int chunkSize = (data.length + chunks - 1) / chunks;
+
+        IntStream chunkIndexes = IntStream.range(0, chunks);
+        if (chunks > 1) {
+            chunkIndexes = chunkIndexes.parallel();
+        }
+        List<List<List<Integer>>> chunkMatches = chunkIndexes
+                .mapToObj(c -> scanRange(data, c * chunkSize, Math.min((c + 1) * chunkSize, data.length)))
+                .collect(Collectors.toList());
+
+        Map<String, List<Integer>> matches = new HashMap<>();
+        for (int id = 0; id < signatures.size(); id++) {
+            List<Integer> offsets = new ArrayList<>();
+            int nextAllowed = 0;
+            for (List<List<Integer>> chunk : chunkMatches) {
+                for (int offset : chunk.get(id)) {
+                    if (offset >= nextAllowed) {
+                        offsets.add(offset);
+                        nextAllowed = offset + lengths[id];
+                    }
+                }
+            }
+            matches.put(signatures.get(id), offsets);
+        }
+        return new Matches(matches);
+    }
+
+    // Every match (overlapping ones too) that starts from start up to end, in order, for each signature
+    private List<List<Integer>> scanRange(byte[] data, int start, int end) {
+        List<List<Integer>> found = new ArrayList<>();
+        for (int id = 0; id < signatures.size(); id++) {
+            found.add(new ArrayList<>());
+        }
+        if (maxLength == 0) {
+            return found;
+        }
+        int stop = (int) Math.min((long) end + maxLength - 1, data.length);
+        int state = 0;
+        for (int i = start; i < stop; i++) {
+            state = transitions[state * 256 + (data[i] & 0xFF)];
+            int[] ending = outputs[state];
+            if (ending != null) {
+                for (int id : ending) {
+                    int offset = i - lengths[id] + 1;
+                    if (offset >= start && offset < end) {
+                        found.get(id).add(offset);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static byte[] parse(String hexString) {
+        if (hexString.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd-length hex signature: " + hexString);
+        }
+        byte[] bytes = new byte[hexString.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hexString.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    public static class Matches {
+        private final Map<String, List<Integer>> matches;
+
+        private Matches(Map<String, List<Integer>> matches) {
+            this.matches = matches;
+        }
+
+        /**
+         * The matches for hexString found by the scan, as long as the data still has the signature at each of
+         * them. If it doesn't, or the signature wasn't part of the scan, data is searched again instead.
+         * Matches that only came about after the scan aren't picked up.
+         */
+        public List<Integer> search(byte[] data, String hexString) {
+            List<Integer> offsets = matches.get(hexString);
+            if (offsets != null) {
+                byte[] signature = parse(hexString);
+                boolean intact = true;
+                for (int offset : offsets) {
+                    if (!matchesAt(data, offset, signature)) {
+                        intact = false;
+                        break;
+                    }
+                }
+                if (intact) {
+                    return new ArrayList<>(offsets);
+                }
+            }
+            if (hexString.length() % 2 != 0) {
+                return new ArrayList<>();
+            }
+            return RomFunctions.search(data, parse(hexString));
+        }
+
+        private static boolean matchesAt(byte[] data, int offset, byte[] signature) {
+            if (offset + signature.length > data.length) {
+                return false;
+            }
+            for (int i = 0; i < signature.length; i++) {
+                if (data[offset + i] != signature[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.dabomstew.pkrandom.cli;
 
+import com.dabomstew.pkrandom.BatchRandomizer;
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.RandomSource;
 import com.dabomstew.pkrandom.Randomizer;
@@ -16,30 +17,37 @@ public class CliRandomizer {
 
     private final static ResourceBundle bundle = java.util.ResourceBundle.getBundle("com/dabomstew/pkrandom/newgui/Bundle");
 
-    private static boolean performDirectRandomization(String settingsFilePath, String sourceRomFilePath,
-                                                      String destinationRomFilePath, boolean saveAsDirectory,
-                                                      String updateFilePath, boolean saveLog) {
-        // borrowed directly from NewRandomizerGUI()
-        RomHandler.Factory[] checkHandlers = new RomHandler.Factory[] {
-                new Gen1RomHandler.Factory(),
-                new Gen2RomHandler.Factory(),
-                new Gen3RomHandler.Factory(),
-                new Gen4RomHandler.Factory(),
-                new Gen5RomHandler.Factory(),
-                new Gen6RomHandler.Factory(),
-                new Gen7RomHandler.Factory()
-        };
-
-        Settings settings;
+    // borrowed directly from NewRandomizerGUI()
+    private final static RomHandler.Factory[] checkHandlers = new RomHandler.Factory[] {
+            new Gen1RomHandler.Factory(),
+            new Gen2RomHandler.Factory(),
+            new Gen3RomHandler.Factory(),
+            new Gen4RomHandler.Factory(),
+            new Gen5RomHandler.Factory(),
+            new Gen6RomHandler.Factory(),
+            new Gen7RomHandler.Factory()
+    };
+
+    private static Settings readSettings(String settingsFilePath) {
         try {
             File fh = new File(settingsFilePath);
             FileInputStream fis = new FileInputStream(fh);
-            settings = Settings.read(fis);
+            Settings settings = Settings.read(fis);
             // taken from com.dabomstew.pkrandom.newgui.NewRandomizerGUI.saveROM, set distinctly from all other settings
             settings.setCustomNames(FileFunctions.getCustomNames());
             fis.close();
+            return settings;
         } catch (UnsupportedOperationException | IllegalArgumentException | IOException ex) {
             ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean performDirectRandomization(String settingsFilePath, String sourceRomFilePath,
+                                                      String destinationRomFilePath, boolean saveAsDirectory,
+                                                      String updateFilePath, boolean saveLog) {
+        Settings settings = readSettings(settingsFilePath);
+        if (settings == null) {
             return false;
         }
 
@@ -56,10 +64,11 @@ public class CliRandomizer {
         try {
             File romFileHandler = new File(sourceRomFilePath);
             RomHandler romHandler;
+            RandomSource randomSource = new RandomSource();
 
             for (RomHandler.Factory rhf : checkHandlers) {
                 if (rhf.isLoadable(romFileHandler.getAbsolutePath())) {
-                    romHandler = rhf.create(RandomSource.instance());
+                    romHandler = rhf.create(randomSource.instance());
                     romHandler.loadRom(romFileHandler.getAbsolutePath());
                     if (updateFilePath != null && (romHandler.generationOfPokemon() == 6 || romHandler.generationOfPokemon() == 7)) {
                         romHandler.loadGameUpdate(updateFilePath);
@@ -92,7 +101,7 @@ public class CliRandomizer {
 
                     String filename = fh.getAbsolutePath();
 
-                    Randomizer randomizer = new Randomizer(settings, romHandler, bundle, saveAsDirectory);
+                    Randomizer randomizer = new Randomizer(settings, romHandler, randomSource, bundle, saveAsDirectory);
                     randomizer.randomize(filename, verboseLog);
                     verboseLog.close();
                     byte[] out = baos.toByteArray();
@@ -121,6 +130,79 @@ public class CliRandomizer {
         return false;
     }
 
+    private static boolean performBatchRandomization(String settingsFilePath, String sourceRomFilePath,
+                                                     String destinationRomFilePath, boolean saveAsDirectory,
+                                                     String updateFilePath, boolean saveLog,
+                                                     int numberOfSeeds, int threads) {
+        Settings settings = readSettings(settingsFilePath);
+        if (settings == null) {
+            return false;
+        }
+
+        try {
+            File romFileHandler = new File(sourceRomFilePath);
+            RomSnapshot snapshot = RomSnapshot.load(checkHandlers, romFileHandler.getAbsolutePath(), updateFilePath);
+            if (snapshot == null) {
+                System.err.printf(bundle.getString("GUI.unsupportedRom") + "%n", romFileHandler.getName());
+                return false;
+            }
+
+            // Load one copy up front so that settings can be checked against the game before starting
+            RomHandler romHandler = snapshot.fork(null, null);
+            if (updateFilePath != null && (romHandler.generationOfPokemon() == 6 || romHandler.generationOfPokemon() == 7)) {
+                if (!saveAsDirectory) {
+                    printWarning("Forcing save as directory since a game update was supplied.");
+                }
+                saveAsDirectory = true;
+            }
+            if (saveAsDirectory && romHandler.generationOfPokemon() != 6 && romHandler.generationOfPokemon() != 7) {
+                saveAsDirectory = false;
+                printWarning("Saving as directory does not make sense for non-3DS games, ignoring \"-d\" flag...");
+            }
+            CliRandomizer.displaySettingsWarnings(settings, romHandler);
+
+            // With -n, each seed's index goes before the extension: out.gba becomes out_0.gba, out_1.gba, ...
+            List<String> filenames = new ArrayList<>();
+            List<String> extensions = new ArrayList<>(Arrays.asList("sgb", "gbc", "gba", "nds", "cxi"));
+            String extension = romHandler.getDefaultExtension();
+            extensions.remove(extension);
+            String basePath = new File(destinationRomFilePath).getAbsolutePath();
+            if (!saveAsDirectory) {
+                basePath = FileFunctions.fixFilename(new File(basePath), extension, extensions).getAbsolutePath();
+                basePath = basePath.substring(0, basePath.length() - extension.length() - 1);
+            }
+            for (int i = 0; i < numberOfSeeds; i++) {
+                File fh;
+                if (saveAsDirectory) {
+                    fh = new File(basePath + "_" + i);
+                    fh.mkdirs();
+                } else {
+                    fh = new File(basePath + "_" + i + "." + extension);
+                    if (snapshot.getFilename().equals(fh.getAbsolutePath())) {
+                        printError(bundle.getString("GUI.cantOverwriteDS"));
+                        return false;
+                    }
+                }
+                filenames.add(fh.getAbsolutePath());
+            }
+            snapshot.release(romHandler);
+
+            BatchRandomizer batchRandomizer = new BatchRandomizer(settings, snapshot, bundle, saveAsDirectory, threads);
+            List<BatchRandomizer.SeedResult> results = batchRandomizer.randomize(filenames, saveLog, System.out);
+            boolean allSucceeded = true;
+            for (BatchRandomizer.SeedResult result : results) {
+                if (result.exception != null) {
+                    result.exception.printStackTrace();
+                    allSucceeded = false;
+                }
+            }
+            return allSucceeded;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     private static void displaySettingsWarnings(Settings settings, RomHandler romHandler) {
         Settings.TweakForROMFeedback feedback = settings.tweakForRom(romHandler);
         if (feedback.isChangedStarter() && settings.getStartersMod() == Settings.StartersMod.CUSTOM) {
@@ -138,8 +220,11 @@ public class CliRandomizer {
         boolean saveAsDirectory = false;
         String updateFilePath = null;
         boolean saveLog = false;
+        int numberOfSeeds = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean threadsGiven = false;
 
-        List<String> allowedFlags = Arrays.asList("-i", "-o", "-s", "-d", "-u", "-l", "--help");
+        List<String> allowedFlags = Arrays.asList("-i", "-o", "-s", "-d", "-u", "-l", "-n", "--threads", "--help");
         for (int i = 0; i < args.length; i++) {
             if (allowedFlags.contains(args[i])) {
                 switch(args[i]) {
@@ -161,6 +246,13 @@ public class CliRandomizer {
                     case "-l":
                         saveLog = true;
                         break;
+                    case "-n":
+                        numberOfSeeds = parseCount(args[i + 1]);
+                        break;
+                    case "--threads":
+                        threads = parseCount(args[i + 1]);
+                        threadsGiven = true;
+                        break;
                     case "--help":
                         printUsage();
                         return 0;
@@ -177,6 +269,18 @@ public class CliRandomizer {
 
         }
 
+        if (numberOfSeeds < 0 || threads <= 0) {
+            printError("Invalid number of seeds or threads");
+            CliRandomizer.printUsage();
+            return 1;
+        }
+
+        if (threadsGiven && numberOfSeeds == 0) {
+            printError("--threads can only be used together with -n");
+            CliRandomizer.printUsage();
+            return 1;
+        }
+
         // now we know we have the right number of args...
         if (!new File(settingsFilePath).exists()) {
             printError("Could not read settings file");
@@ -198,14 +302,28 @@ public class CliRandomizer {
             return 1;
         }
 
-        boolean processResult = CliRandomizer.performDirectRandomization(
-                settingsFilePath,
-                sourceRomFilePath,
-                outputRomFilePath,
-                saveAsDirectory,
-                updateFilePath,
-                saveLog
-        );
+        boolean processResult;
+        if (numberOfSeeds > 0) {
+            processResult = CliRandomizer.performBatchRandomization(
+                    settingsFilePath,
+                    sourceRomFilePath,
+                    outputRomFilePath,
+                    saveAsDirectory,
+                    updateFilePath,
+                    saveLog,
+                    numberOfSeeds,
+                    threads
+            );
+        } else {
+            processResult = CliRandomizer.performDirectRandomization(
+                    settingsFilePath,
+                    sourceRomFilePath,
+                    outputRomFilePath,
+                    saveAsDirectory,
+                    updateFilePath,
+                    saveLog
+            );
+        }
         if (!processResult) {
             printError("Randomization failed");
             CliRandomizer.printUsage();
@@ -214,6 +332,14 @@ public class CliRandomizer {
         return 0;
     }
 
+    private static int parseCount(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
     private static void printError(String text) {
         System.err.println("ERROR: " + text);
     }
@@ -224,7 +350,10 @@ public class CliRandomizer {
 
     private static void printUsage() {
         System.err.println("Usage: java [-Xmx4096M] -jar PokeRandoZX.jar cli -s <path to settings file> " +
-                "-i <path to source ROM> -o <path for new ROM> [-d][-u <path to 3DS game update>][-l]");
+                "-i <path to source ROM> -o <path for new ROM> [-d][-u <path to 3DS game update>][-l]" +
+                "[-n <number of seeds> [--threads <number of threads>]]");
         System.err.println("-d: Save 3DS game as directory (LayeredFS)");
+        System.err.println("-n: Randomize this many seeds, adding _<index> to the output file name before the extension");
+        System.err.println("--threads: Number of seeds to randomize at the same time with -n (default: number of CPUs)");
     }
 }
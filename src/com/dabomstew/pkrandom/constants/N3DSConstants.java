@@ -35,6 +35,10 @@ public class N3DSConstants {
     private static final Map<Integer,String> textVariableCodesORAS = setupTextVariableCodes(Type_ORAS);
     private static final Map<Integer,String> textVariableCodesSM = setupTextVariableCodes(Type_SM);
 
+    private static final Map<String,Integer> textVariableNamesXY = reverseTextVariableCodes(textVariableCodesXY);
+    private static final Map<String,Integer> textVariableNamesORAS = reverseTextVariableCodes(textVariableCodesORAS);
+    private static final Map<String,Integer> textVariableNamesSM = reverseTextVariableCodes(textVariableCodesSM);
+
     public static Map<Integer,String> getTextVariableCodes(int romType) {
         if (romType == Type_XY) {
             return textVariableCodesXY;
@@ -200,13 +204,26 @@ public class N3DSConstants {
         return map;
     }
 
+    // If two codes share a name, the one met first when going through the codes wins, as a search would find
+    private static Map<String,Integer> reverseTextVariableCodes(Map<Integer,String> codes) {
+        Map<String,Integer> names = new HashMap<>();
+        for (int k: codes.keySet()) {
+            names.putIfAbsent(codes.get(k), k);
+        }
+        return names;
+    }
+
     public static int getVariableCode(String name, int romType) {
-        Map<Integer,String> map = getTextVariableCodes(romType);
-        for (int k: map.keySet()) {
-            if (map.get(k).equals(name)) {
-                return k;
-            }
+        Map<String,Integer> names;
+        if (romType == Type_XY) {
+            names = textVariableNamesXY;
+        } else if (romType == Type_ORAS) {
+            names = textVariableNamesORAS;
+        } else if (romType == Type_SM || romType == Type_USUM) {
+            names = textVariableNamesSM;
+        } else {
+            return 0;
         }
-        return 0;
+        return names.getOrDefault(name, 0);
     }
 }
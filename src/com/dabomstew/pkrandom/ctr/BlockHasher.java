@@ -0,0 +1,182 @@
+package com.dabomstew.pkrandom.ctr;
+
+/*----------------------------------------------------------------------------*/
+/*--  BlockHasher.java - SHA-256 hashing of 3DS ROM regions as they are     --*/
+/*--                     written, spread over all available cores.          --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Hashes regions of a file that is being written, using positional reads so that it can run alongside
+ * writes to other parts of the same file. Hash tree levels are split into ranges of blocks that are
+ * hashed in parallel; single-hash regions can be started in the background while the next region is
+ * still being written. Anything past the current end of the file is hashed as zeroes, which is what
+ * it will contain once the file is extended over it.
+ * Keeps count of how much was hashed and how long that took, for the ROM diagnostics.
+ */
+public class BlockHasher {
+
+    private static final int hash_size = 0x20;
+    // don't bother splitting up less than this much work
+    private static final long min_bytes_per_task = 1024 * 1024;
+
+    private final FileChannel channel;
+    private long bytesHashed;
+    private long nanosHashing;
+
+    public BlockHasher(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the SHA-256 hashes of blockCount consecutive blocks starting at offset, one after another.
+     */
+    public byte[] hashBlocks(long offset, int blockSize, long blockCount) throws IOException {
+        long start = System.nanoTime();
+        byte[] hashes = new byte[(int) (blockCount * hash_size)];
+        int tasksWanted = Runtime.getRuntime().availableProcessors() * 4;
+        long blocksPerTask = Math.max(Math.max(1, min_bytes_per_task / blockSize),
+                (blockCount + tasksWanted - 1) / tasksWanted);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (long first = 0; first < blockCount; first += blocksPerTask) {
+            long from = first;
+            long to = Math.min(blockCount, first + blocksPerTask);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    MessageDigest digest = newDigest();
+                    ByteBuffer block = ByteBuffer.allocate(blockSize);
+                    for (long i = from; i < to; i++) {
+                        block.clear();
+                        readFully(block, offset + i * blockSize);
+                        digest.update(block);
+                        byte[] hash = digest.digest();
+                        System.arraycopy(hash, 0, hashes, (int) (i * hash_size), hash_size);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+        record(blockCount * blockSize, start);
+        return hashes;
+    }
+
+    /**
+     * Starts hashing length bytes starting at offset in the background. The region must already be written,
+     * but the caller is free to carry on writing elsewhere in the file while it is being hashed.
+     */
+    public CompletableFuture<byte[]> hashRegionAsync(long offset, long length) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return hashRegion(offset, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public byte[] hashRegion(long offset, long length) throws IOException {
+        long start = System.nanoTime();
+        MessageDigest digest = newDigest();
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, min_bytes_per_task));
+        long done = 0;
+        while (done < length) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length - done));
+            readFully(buf, offset + done);
+            done += buf.remaining();
+            digest.update(buf);
+        }
+        record(length, start);
+        return digest.digest();
+    }
+
+    // Waits for a hash started by hashRegionAsync, passing on any IOException it ran into
+    public static byte[] await(CompletableFuture<byte[]> hash) throws IOException {
+        try {
+            return hash.join();
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    // Exceptions from worker threads can come back wrapped more than once, so dig out the IOException
+    private static IOException unwrap(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+        }
+        throw e;
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed;
+    }
+
+    public long getNanosHashing() {
+        return nanosHashing;
+    }
+
+    private synchronized void record(long bytes, long startNanos) {
+        bytesHashed += bytes;
+        nanosHashing += System.nanoTime() - startNanos;
+    }
+
+    // Fills buf from its position to its limit, zero-filling anything past the end of the file,
+    // and leaves it flipped and ready to be read
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position + (buf.position() - start));
+            if (read < 0) {
+                while (buf.hasRemaining()) {
+                    buf.put((byte) 0);
+                }
+            }
+        }
+        buf.flip();
+        buf.position(start);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -29,7 +29,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 public class GARCArchive {
 
@@ -47,6 +50,10 @@ public class GARCArchive {
     public List<Map<Integer,byte[]>> files = new ArrayList<>();
     private Map<Integer,Boolean> isCompressed = new TreeMap<>();
     private List<Boolean> compressThese = null;
+    // For each compressed file, the data it had in the GARC and a SHA-1 digest of what that decompressed to,
+    // so that files that are still unchanged when saving can reuse the former instead of being compressed again
+    private Map<Integer,Map<Integer,byte[]>> originalCompressed = new TreeMap<>();
+    private Map<Integer,Map<Integer,byte[]>> originalDigests = new TreeMap<>();
 
     private GARCFrame garc;
     private FATOFrame fato;
@@ -170,6 +177,8 @@ public class GARCArchive {
         for (int i = 0; i < fatb.fileCount; i++) {
             FATBEntry entry = fatb.entries[i];
             Map<Integer,byte[]> files = new TreeMap<>();
+            Map<Integer,byte[]> compressedFiles = new TreeMap<>();
+            Map<Integer,byte[]> digests = new TreeMap<>();
             for (int k: entry.subEntries.keySet()) {
                 FATBSubEntry subEntry = entry.subEntries.get(k);
                 bbuf.position(garc.dataOffset + subEntry.start);
@@ -180,7 +189,10 @@ public class GARCArchive {
                 bbuf.get(file);
                 if (compressed) {
                     try {
-                        files.put(k,new BLZCoder(null).BLZ_DecodePub(file,"GARC"));
+                        byte[] decompressed = new BLZCoder(null).BLZ_DecodePub(file,"GARC");
+                        files.put(k,decompressed);
+                        compressedFiles.put(k,file);
+                        digests.put(k,digest(decompressed));
                         isCompressed.put(i,true);
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -192,6 +204,10 @@ public class GARCArchive {
                 }
             }
             fimb.files.add(files);
+            if (!compressedFiles.isEmpty()) {
+                originalCompressed.put(i,compressedFiles);
+                originalDigests.put(i,digests);
+            }
         }
         return true;
     }
@@ -230,19 +246,18 @@ public class GARCArchive {
 
         ByteArrayOutputStream fimbPayloadStream = new ByteArrayOutputStream(); // Unknown size, can't use ByteBuffer
 
+        List<Map<Integer,byte[]>> payloads = getPayloads();
+
         int fimbOffset = 0;
         int largestSize = 0;
         int largestPadded = 0;
         for (int i = 0; i < fimb.files.size(); i++) {
-            Map<Integer,byte[]> directory = fimb.files.get(i);
+            Map<Integer,byte[]> directory = payloads.get(i);
             int bitVector = 0;
             int totalLength = 0;
             for (int k: directory.keySet()) {
                 bitVector |= (1 << k);
                 byte[] file = directory.get(k);
-                if (isCompressed.get(i)) {
-                    file = new BLZCoder(null).BLZ_EncodePub(file,false,false,"GARC");
-                }
                 fimbPayloadStream.write(file);
                 totalLength += file.length;
             }
@@ -322,6 +337,63 @@ public class GARCArchive {
         return fullArray;
     }
 
+    // Returns the files as they should be written to the GARC, compressing the ones that need it.
+    // Compressed files that have not changed since they were read reuse their original data; the rest
+    // are compressed in parallel, each by its own BLZCoder, so the result is the same as compressing
+    // them one by one.
+    private List<Map<Integer,byte[]>> getPayloads() {
+        List<Map<Integer,byte[]>> payloads = new ArrayList<>();
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+        List<Map<Integer,byte[]>> taskDirectories = new ArrayList<>();
+        List<Integer> taskSubIndexes = new ArrayList<>();
+        for (int i = 0; i < fimb.files.size(); i++) {
+            Map<Integer,byte[]> directory = fimb.files.get(i);
+            Map<Integer,byte[]> payload = new TreeMap<>();
+            for (int k: directory.keySet()) {
+                byte[] file = directory.get(k);
+                if (!isCompressed.get(i)) {
+                    payload.put(k,file);
+                    continue;
+                }
+                byte[] original = getOriginalCompressed(i,k,file);
+                if (original != null) {
+                    payload.put(k,original);
+                } else {
+                    tasks.add(ForkJoinTask.adapt(() -> new BLZCoder(null).BLZ_EncodePub(file,false,false,"GARC")));
+                    taskDirectories.add(payload);
+                    taskSubIndexes.add(k);
+                }
+            }
+            payloads.add(payload);
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (int t = 0; t < tasks.size(); t++) {
+            taskDirectories.get(t).put(taskSubIndexes.get(t),tasks.get(t).join());
+        }
+        return payloads;
+    }
+
+    // returns null if the file was not compressed to begin with or has changed since
+    private byte[] getOriginalCompressed(int index, int subIndex, byte[] file) {
+        if (!originalCompressed.containsKey(index)) {
+            return null;
+        }
+        byte[] originalDigest = originalDigests.get(index).get(subIndex);
+        if (originalDigest == null || !MessageDigest.isEqual(originalDigest,digest(file))) {
+            return null;
+        }
+        return originalCompressed.get(index).get(subIndex);
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
 
 
     public byte[] getFile(int index) {
@@ -21,19 +21,25 @@ package com.dabomstew.pkrandom.ctr;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
+import com.dabomstew.pkrandom.BLZCache;
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.SysConstants;
 import com.dabomstew.pkrandom.exceptions.CannotWriteToLocationException;
 import com.dabomstew.pkrandom.exceptions.EncryptedROMException;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
-import cuecompressors.BLZCoder;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NCCH {
     private String romFilename;
@@ -53,10 +59,14 @@ public class NCCH {
     private boolean writingEnabled;
     private boolean codeCompressed, codeOpen, codeChanged;
     private byte[] codeRamstored;
+    private long lastSaveBytesHashed, lastSaveNanosHashing;
 
     // Public so the base game can read it from the game update NCCH
     public long originalCodeCRC, originalRomfsHeaderCRC;
 
+    // Numbers the temp folders of copies, so that they don't get in each other's way
+    private static final AtomicInteger copyCount = new AtomicInteger();
+
     private static final int media_unit_size = 0x200;
     private static final int header_and_exheader_size = 0xA00;
     private static final int ncsd_magic = 0x4E435344;
@@ -69,6 +79,7 @@ public class NCCH {
     private static final int romfs_magic_2 = 0x00000100;
     private static final int level3_header_size = 0x28;
     private static final int metadata_unused = 0xFFFFFFFF;
+    private static final String layeredfs_manifest_name = "upr_layeredfs_manifest.txt";
 
     public NCCH(String filename, String productCode, String titleId) throws IOException {
         this.romFilename = filename;
@@ -83,19 +94,7 @@ public class NCCH {
         }
 
         // TMP folder?
-        String rawFilename = new File(filename).getName();
-        String dataFolder = "tmp_" + rawFilename.substring(0, rawFilename.lastIndexOf('.'));
-        // remove nonsensical chars
-        dataFolder = dataFolder.replaceAll("[^A-Za-z0-9_]+", "");
-        File tmpFolder = new File(SysConstants.ROOT_PATH + dataFolder);
-        tmpFolder.mkdirs();
-        if (tmpFolder.canWrite()) {
-            writingEnabled = true;
-            this.tmpFolder = SysConstants.ROOT_PATH + dataFolder + File.separator;
-            tmpFolder.deleteOnExit();
-        } else {
-            writingEnabled = false;
-        }
+        setUpTmpFolder(tmpFolderName(filename));
 
         // The below code handles things "wrong" with regards to encrypted ROMs. We just
         // blindly treat the ROM as decrypted and try to parse all of its data, when we
@@ -114,6 +113,77 @@ public class NCCH {
         }
     }
 
+    private NCCH() {
+    }
+
+    // Returns a copy of this NCCH as it was read from the ROM, with nothing extracted or changed. Only meant
+    // for an NCCH that has not been written to (see RomSnapshot). The copy gets a temp folder of its own,
+    // so that several copies can be randomized at once, and opens the ROM for itself when it reads from it.
+    public NCCH copy() {
+        NCCH copy = new NCCH();
+        copy.romFilename = romFilename;
+        copy.ncchStartingOffset = ncchStartingOffset;
+        copy.productCode = productCode;
+        copy.titleId = titleId;
+        copy.version = version;
+        copy.exefsOffset = exefsOffset;
+        copy.romfsOffset = romfsOffset;
+        copy.fileDataOffset = fileDataOffset;
+        copy.codeCompressed = codeCompressed;
+        copy.originalRomfsHeaderCRC = originalRomfsHeaderCRC;
+        copy.codeFileHeader = codeFileHeader == null ? null : copy.new ExefsFileHeader(codeFileHeader);
+        // the icon is rewritten in place when saving
+        copy.smdh = smdh == null ? null : new SMDH(smdh.getBytes().clone());
+        copy.extraExefsFiles = new ArrayList<>();
+        for (ExefsFileHeader header : extraExefsFiles) {
+            copy.extraExefsFiles.add(copy.new ExefsFileHeader(header));
+        }
+        if (fileMetadataList != null) {
+            copy.fileMetadataList = new ArrayList<>();
+            copy.romfsFiles = new TreeMap<>();
+            for (FileMetadata metadata : fileMetadataList) {
+                RomfsFile file = new RomfsFile(copy);
+                file.offset = metadata.file.offset;
+                file.size = metadata.file.size;
+                file.fullPath = metadata.file.fullPath;
+                copy.fileMetadataList.add(copy.new FileMetadata(metadata, file));
+                copy.romfsFiles.put(file.fullPath, file);
+            }
+        }
+        copy.setUpTmpFolder(tmpFolderName(romFilename) + "_" + copyCount.incrementAndGet());
+        return copy;
+    }
+
+    private static String tmpFolderName(String filename) {
+        String rawFilename = new File(filename).getName();
+        String dataFolder = "tmp_" + rawFilename.substring(0, rawFilename.lastIndexOf('.'));
+        // remove nonsensical chars
+        return dataFolder.replaceAll("[^A-Za-z0-9_]+", "");
+    }
+
+    private void setUpTmpFolder(String dataFolder) {
+        File tmpFolder = new File(SysConstants.ROOT_PATH + dataFolder);
+        tmpFolder.mkdirs();
+        if (tmpFolder.canWrite()) {
+            writingEnabled = true;
+            this.tmpFolder = SysConstants.ROOT_PATH + dataFolder + File.separator;
+            tmpFolder.deleteOnExit();
+        } else {
+            writingEnabled = false;
+        }
+    }
+
+    // Deletes the temp folder and everything in it once a copy is done with (see copy())
+    public void deleteTmpFolder() {
+        if (writingEnabled) {
+            File folder = new File(tmpFolder);
+            if (folder.isDirectory()) {
+                purgeDirectory(folder);
+                folder.delete();
+            }
+        }
+    }
+
     public void reopenROM() throws IOException {
         if (!this.romOpen) {
             baseRom = new RandomAccessFile(this.romFilename, "r");
@@ -252,6 +322,7 @@ public class NCCH {
 
         // Initialize new ROM
         RandomAccessFile fNew = new RandomAccessFile(filename, "rw");
+        fNew.setLength(0);
 
         // Read the header and exheader and write it to the output ROM
         byte[] header = new byte[header_and_exheader_size];
@@ -310,31 +381,37 @@ public class NCCH {
         fNew.seek(0x1A4);
         fNew.write((int) newExefsLength / media_unit_size);
 
-        // Then, reconstruct the romfs
+        // The exefs is final now, so its superblock hash can be worked out while the romfs is being written,
+        // as long as the hashed region doesn't run into the romfs
         // TODO: Fix the yet-unsolved alignment issues in rebuildRomfs when you remove this align
         long newRomfsOffset = alignLong(header_and_exheader_size + logoLength + plainLength + newExefsLength, 4096);
-        long newRomfsLength = rebuildRomfs(fNew, newRomfsOffset);
+        BlockHasher hasher = new BlockHasher(fNew.getChannel());
+        int exefsHashRegionSize = FileFunctions.readIntFromFile(baseRom, ncchStartingOffset + 0x1A8) * media_unit_size;
+        CompletableFuture<byte[]> exefsSuperblockHash = null;
+        if (newExefsOffset + exefsHashRegionSize <= newRomfsOffset) {
+            exefsSuperblockHash = hasher.hashRegionAsync(newExefsOffset, exefsHashRegionSize);
+        }
+
+        // Then, reconstruct the romfs
+        long newRomfsLength = rebuildRomfs(fNew, newRomfsOffset, hasher);
         fNew.seek(0x1B0);
         fNew.write((int) newRomfsOffset / media_unit_size);
         fNew.seek(0x1B4);
         fNew.write((int) newRomfsLength / media_unit_size);
 
         // Lastly, reconstruct the superblock hashes
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        int exefsHashRegionSize = FileFunctions.readIntFromFile(baseRom, ncchStartingOffset + 0x1A8) * media_unit_size;
-        byte[] exefsDataToHash = new byte[exefsHashRegionSize];
-        fNew.seek(newExefsOffset);
-        fNew.readFully(exefsDataToHash);
-        byte[] exefsSuperblockHash = digest.digest(exefsDataToHash);
         fNew.seek(0x1C0);
-        fNew.write(exefsSuperblockHash);
+        if (exefsSuperblockHash != null) {
+            fNew.write(BlockHasher.await(exefsSuperblockHash));
+        } else {
+            fNew.write(hasher.hashRegion(newExefsOffset, exefsHashRegionSize));
+        }
         int romfsHashRegionSize = FileFunctions.readIntFromFile(baseRom, ncchStartingOffset + 0x1B8) * media_unit_size;
-        byte[] romfsDataToHash = new byte[romfsHashRegionSize];
-        fNew.seek(newRomfsOffset);
-        fNew.readFully(romfsDataToHash);
-        byte[] romfsSuperblockHash = digest.digest(romfsDataToHash);
+        byte[] romfsSuperblockHash = hasher.hashRegion(newRomfsOffset, romfsHashRegionSize);
         fNew.seek(0x1E0);
         fNew.write(romfsSuperblockHash);
+        lastSaveBytesHashed = hasher.getBytesHashed();
+        lastSaveNanosHashing = hasher.getNanosHashing();
 
         // While totally optional, let's zero out the NCCH signature so that
         // it's clear this isn't a properly-signed ROM
@@ -348,7 +425,7 @@ public class NCCH {
         System.out.println("NCCH: Rebuilding exefs...");
         byte[] code = getCode();
         if (codeCompressed) {
-            code = new BLZCoder(null).BLZ_EncodePub(code, false, true, ".code");
+            code = BLZCache.encode(code, false, true, ".code");
         }
 
         // Create a new ExefsFileHeader for our updated .code
@@ -406,7 +483,7 @@ public class NCCH {
         return exefsLength;
     }
 
-    private long rebuildRomfs(RandomAccessFile fNew, long newRomfsOffset) throws IOException, NoSuchAlgorithmException {
+    private long rebuildRomfs(RandomAccessFile fNew, long newRomfsOffset, BlockHasher hasher) throws IOException {
         System.out.println("NCCH: Rebuilding romfs...");
 
         // Start by copying the romfs header straight from the original ROM. We'll update the
@@ -465,32 +542,47 @@ public class NCCH {
         fNew.seek(newLevel3Offset + fileMetadataTableOffset);
         fNew.write(newFileMetadataTable);
 
-        // Using the new file metadata table, output the file data
+        // Using the new file metadata table, output the file data. Changed files are streamed from wherever
+        // their override is kept, without another copy on the heap; runs of unchanged files that are also
+        // back to back in the original ROM are copied across in one channel transfer.
         int fileDataOffset = FileFunctions.readFullInt(level3HeaderData, 0x24);
         long endOfFileDataOffset = 0;
+        FileChannel source = baseRom.getChannel();
+        FileChannel target = fNew.getChannel();
+        long pendingSourceOffset = 0, pendingTargetOffset = 0, pendingLength = 0;
         for (FileMetadata metadata : fileMetadataList) {
-            System.out.println("NCCH: Writing file " + metadata.file.fullPath + " to romfs");
             // Users have sent us bug reports with really bizarre errors here that seem to indicate
             // broken metadata; do this in a try-catch solely so we can log the metadata if we fail
             try {
-                byte[] fileData;
+                long currentDataOffset = newLevel3Offset + fileDataOffset + metadata.fileDataOffset;
                 if (metadata.file.fileChanged) {
-                    fileData = metadata.file.getOverrideContents();
+                    System.out.println("NCCH: Writing file " + metadata.file.fullPath + " to romfs");
+                    long written = metadata.file.writeOverrideTo(target, currentDataOffset);
+                    endOfFileDataOffset = currentDataOffset + written;
                 } else {
-                    fileData = new byte[metadata.file.size];
-                    baseRom.seek(metadata.file.offset);
-                    baseRom.readFully(fileData);
+                    if (pendingLength > 0 && (pendingSourceOffset + pendingLength != metadata.file.offset
+                            || pendingTargetOffset + pendingLength != currentDataOffset)) {
+                        FileFunctions.transferBetweenFiles(source, pendingSourceOffset, pendingLength, target,
+                                pendingTargetOffset);
+                        pendingLength = 0;
+                    }
+                    if (pendingLength == 0) {
+                        pendingSourceOffset = metadata.file.offset;
+                        pendingTargetOffset = currentDataOffset;
+                    }
+                    pendingLength += metadata.file.size;
+                    endOfFileDataOffset = currentDataOffset + metadata.file.size;
                 }
-                long currentDataOffset = newLevel3Offset + fileDataOffset + metadata.fileDataOffset;
-                fNew.seek(currentDataOffset);
-                fNew.write(fileData);
-                endOfFileDataOffset = currentDataOffset + fileData.length;
             } catch (Exception e) {
                 String message = String.format("Error when building romfs: File: %s, offset: %s, size: %s",
                         metadata.file.fullPath, metadata.offset, metadata.file.size);
                 throw new RandomizerIOException(message, e);
             }
         }
+        if (pendingLength > 0) {
+            FileFunctions.transferBetweenFiles(source, pendingSourceOffset, pendingLength, target,
+                    pendingTargetOffset);
+        }
 
         // Now that level 3 (file data) is done, construct level 2 (hashes of file data)
         // Note that in the ROM, level 1 comes *before* level 2, so we need to calculate
@@ -506,38 +598,21 @@ public class NCCH {
         long newLevel1Offset = newLevel3Offset + alignLong(newLevel3HashdataSize, level3HashBlockSize);
         long newLevel2Offset = newLevel1Offset + alignLong(newLevel1HashdataSize, level1HashBlockSize);
         long newFileEndingOffset = alignLong(newLevel2Offset + newLevel2HashdataSize, level2HashBlockSize);
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] dataToHash = new byte[level3HashBlockSize];
-        for (long i = 0; i < numberOfLevel3HashBlocks; i++) {
-            fNew.seek(newLevel3Offset + (i * level3HashBlockSize));
-            fNew.readFully(dataToHash);
-            byte[] hash = digest.digest(dataToHash);
-            fNew.seek(newLevel2Offset + (i * 0x20));
-            fNew.write(hash);
-        }
-        while (fNew.getFilePointer() != newFileEndingOffset) {
-            fNew.writeByte(0);
-        }
+        // Each level only depends on the one below it, so the blocks within a level are hashed in parallel
+        byte[] level2Hashes = hasher.hashBlocks(newLevel3Offset, level3HashBlockSize, numberOfLevel3HashBlocks);
+        fNew.seek(newLevel2Offset);
+        fNew.write(level2Hashes);
+        fNew.write(new byte[(int) (newFileEndingOffset - fNew.getFilePointer())]);
 
         // Now that level 2 (hashes of file data) is done, construct level 1 (hashes of
         // hashes of file data) and the master hash/level 0 (hashes of level 1)
-        dataToHash = new byte[level2HashBlockSize];
-        for (long i = 0; i < numberOfLevel2HashBlocks; i++) {
-            fNew.seek(newLevel2Offset + (i * level2HashBlockSize));
-            fNew.readFully(dataToHash);
-            byte[] hash = digest.digest(dataToHash);
-            fNew.seek(newLevel1Offset + (i * 0x20));
-            fNew.write(hash);
-        }
+        byte[] level1Hashes = hasher.hashBlocks(newLevel2Offset, level2HashBlockSize, numberOfLevel2HashBlocks);
+        fNew.seek(newLevel1Offset);
+        fNew.write(level1Hashes);
         long numberOfLevel1HashBlocks = alignLong(newLevel1HashdataSize, level1HashBlockSize) / level1HashBlockSize;
-        dataToHash = new byte[level1HashBlockSize];
-        for (long i = 0; i < numberOfLevel1HashBlocks; i++) {
-            fNew.seek(newLevel1Offset + (i * level1HashBlockSize));
-            fNew.readFully(dataToHash);
-            byte[] hash = digest.digest(dataToHash);
-            fNew.seek(newRomfsOffset + 0x60 + (i * 0x20));
-            fNew.write(hash);
-        }
+        byte[] masterHashes = hasher.hashBlocks(newLevel1Offset, level1HashBlockSize, numberOfLevel1HashBlocks);
+        fNew.seek(newRomfsOffset + 0x60);
+        fNew.write(masterHashes);
 
         // Lastly, update the header and return the size of the new romfs
         long level1LogicalOffset = 0;
@@ -555,16 +630,14 @@ public class NCCH {
         long currentLength = newFileEndingOffset - newRomfsOffset;
         long newRomfsLength = alignLong(currentLength, media_unit_size);
         fNew.seek(newFileEndingOffset);
-        while (fNew.getFilePointer() < newRomfsOffset + newRomfsLength) {
-            fNew.writeByte(0);
-        }
+        fNew.write(new byte[(int) (newRomfsOffset + newRomfsLength - newFileEndingOffset)]);
 
         System.out.println("NCCH: Done rebuilding romfs");
         return newRomfsLength;
     }
 
     private byte[] updateFileMetadataTable(int fileMetadataTableLength) {
-        fileMetadataList.sort((FileMetadata f1, FileMetadata f2) -> (int) (f1.fileDataOffset - f2.fileDataOffset));
+        fileMetadataList.sort((FileMetadata f1, FileMetadata f2) -> Long.compare(f1.fileDataOffset, f2.fileDataOffset));
         byte[] fileMetadataTable = new byte[fileMetadataTableLength];
         int currentTableOffset = 0;
         long currentFileDataOffset = 0;
@@ -584,30 +657,107 @@ public class NCCH {
     public void saveAsLayeredFS(String outputPath) throws IOException {
         String layeredFSRootPath = outputPath + File.separator + titleId + File.separator;
         File layeredFSRootDir = new File(layeredFSRootPath);
+        File manifestFile = new File(layeredFSRootPath + layeredfs_manifest_name);
+        // Files written by an earlier run are listed in its manifest, so only those that differ now need to be
+        // written again. Without a manifest nothing is known about what is in the folder, so it is cleared.
+        Map<String, String> previousManifest = new HashMap<>();
         if (!layeredFSRootDir.exists()) {
             layeredFSRootDir.mkdirs();
+        } else if (manifestFile.exists()) {
+            previousManifest = readLayeredFSManifest(manifestFile);
         } else {
             purgeDirectory(layeredFSRootDir);
         }
-        String romfsRootPath = layeredFSRootPath + "romfs" + File.separator;
-        File romfsDir = new File(romfsRootPath);
-        if (!romfsDir.exists()) {
-            romfsDir.mkdirs();
-        }
 
+        Map<String, String> manifest = new TreeMap<>();
         if (codeChanged) {
             byte[] code = getCode();
-            FileOutputStream fos = new FileOutputStream(new File(layeredFSRootPath + "code.bin"));
-            fos.write(code);
-            fos.close();
+            writeLayeredFSFile(layeredFSRootPath, "code.bin", code, previousManifest, manifest);
         }
 
         for (Map.Entry<String, RomfsFile> entry : romfsFiles.entrySet()) {
             RomfsFile file = entry.getValue();
             if (file.fileChanged) {
-                writeRomfsFileToLayeredFS(file, romfsRootPath);
+                writeLayeredFSFile(layeredFSRootPath, "romfs/" + file.fullPath, file.getOverrideContents(),
+                        previousManifest, manifest);
+            }
+        }
+
+        // Whatever the last run wrote that this one didn't is now out of date
+        for (String path : previousManifest.keySet()) {
+            if (!manifest.containsKey(path)) {
+                deleteLayeredFSFile(layeredFSRootDir, path);
             }
         }
+
+        StringBuilder manifestText = new StringBuilder();
+        for (Map.Entry<String, String> entry : manifest.entrySet()) {
+            manifestText.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        writeFileAtomically(manifestFile, manifestText.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Writes a file under the LayeredFS root unless the previous run already wrote the same contents there,
+    // and records it in the manifest. The path uses '/' as its separator.
+    private void writeLayeredFSFile(String layeredFSRootPath, String path, byte[] data,
+                                    Map<String, String> previousManifest, Map<String, String> manifest)
+            throws IOException {
+        String entry = String.format("%08X %d", FileFunctions.getCRC32(data), data.length);
+        manifest.put(path, entry);
+        File file = new File(layeredFSRootPath + path.replace("/", File.separator));
+        if (entry.equals(previousManifest.get(path)) && file.isFile() && file.length() == data.length) {
+            return;
+        }
+        File parentDir = file.getParentFile();
+        if (!parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        System.out.println("NCCH: Writing file " + path + " to LayeredFS");
+        writeFileAtomically(file, data);
+    }
+
+    // Writes to a temporary file next to the target and renames it over the target, so an interrupted save
+    // never leaves a half-written file behind
+    private void writeFileAtomically(File file, byte[] data) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileFunctions.writeBytesToFile(tmpFile.getPath(), data);
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteLayeredFSFile(File layeredFSRootDir, String path) {
+        File file = new File(layeredFSRootDir, path.replace("/", File.separator));
+        if (!file.isFile()) {
+            return;
+        }
+        file.delete();
+        // Remove directories that are left empty, but never the root itself
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(layeredFSRootDir)) {
+            String[] contents = dir.list();
+            if (contents == null || contents.length > 0) {
+                break;
+            }
+            dir.delete();
+            dir = dir.getParentFile();
+        }
+    }
+
+    // Each manifest line is "CRC32 size path"; returns the "CRC32 size" part keyed by path
+    private Map<String, String> readLayeredFSManifest(File manifestFile) throws IOException {
+        Map<String, String> manifest = new HashMap<>();
+        List<String> lines = Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length == 3) {
+                manifest.put(parts[2], parts[0] + " " + parts[1]);
+            }
+        }
+        return manifest;
     }
 
     private void purgeDirectory(File directory) {
@@ -619,24 +769,6 @@ public class NCCH {
         }
     }
 
-    private void writeRomfsFileToLayeredFS(RomfsFile file, String layeredFSRootPath) throws IOException {
-        String[] romfsPathComponents = file.fullPath.split("/");
-        StringBuffer buffer = new StringBuffer(layeredFSRootPath);
-        for (int i = 0; i < romfsPathComponents.length - 1; i++) {
-            buffer.append(romfsPathComponents[i]);
-            buffer.append(File.separator);
-            File currentDir = new File(buffer.toString());
-            if (!currentDir.exists()) {
-                currentDir.mkdirs();
-            }
-        }
-        buffer.append(romfsPathComponents[romfsPathComponents.length - 1]);
-        String romfsFilePath = buffer.toString();
-        FileOutputStream fos = new FileOutputStream(new File(romfsFilePath));
-        fos.write(file.getOverrideContents());
-        fos.close();
-    }
-
     public boolean isDecrypted() throws IOException {
         // This is the way you're *supposed* to tell if a ROM is decrypted. Specifically, this
         // is checking the noCrypto flag on the NCCH bitflags.
@@ -662,6 +794,7 @@ public class NCCH {
     // tmpFolder; otherwise, it will store it in RAM.
     public byte[] getCode() throws IOException {
         if (!codeOpen) {
+            this.reopenROM();
             codeOpen = true;
             byte[] code = new byte[codeFileHeader.size];
 
@@ -672,7 +805,7 @@ public class NCCH {
             originalCodeCRC = FileFunctions.getCRC32(code);
 
             if (codeCompressed) {
-                code = new BLZCoder(null).BLZ_DecodePub(code, ".code");
+                code = BLZCache.decode(code, ".code");
             }
 
             // Now actually make the copy or w/e
@@ -771,6 +904,12 @@ public class NCCH {
         for (String fileLog : fileList) {
             logStream.println(fileLog);
         }
+        if (lastSaveBytesHashed > 0) {
+            double megabytes = lastSaveBytesHashed / (1024.0 * 1024.0);
+            double seconds = lastSaveNanosHashing / 1e9;
+            logStream.println(String.format("Hashing: %.1f MB in %d ms (%.1f MB/s)", megabytes,
+                    lastSaveNanosHashing / 1000000, seconds > 0 ? megabytes / seconds : 0));
+        }
     }
 
     public Map<String, String> getRomfsFilesDiagnostics() {
@@ -928,6 +1067,12 @@ public class NCCH {
 
         public ExefsFileHeader() { }
 
+        public ExefsFileHeader(ExefsFileHeader original) {
+            this.filename = original.filename;
+            this.offset = original.offset;
+            this.size = original.size;
+        }
+
         public ExefsFileHeader(byte[] exefsHeaderData, int fileHeaderOffset) {
             byte[] filenameBytes = new byte[0x8];
             System.arraycopy(exefsHeaderData, fileHeaderOffset, filenameBytes, 0, 0x8);
@@ -986,6 +1131,18 @@ public class NCCH {
         public String name;
         public RomfsFile file; // used only for rebuilding CXI
 
+        public FileMetadata(FileMetadata original, RomfsFile file) {
+            this.offset = original.offset;
+            this.parentDirectoryOffset = original.parentDirectoryOffset;
+            this.siblingFileOffset = original.siblingFileOffset;
+            this.fileDataOffset = original.fileDataOffset;
+            this.fileDataLength = original.fileDataLength;
+            this.nextFileInHashBucketOffset = original.nextFileInHashBucketOffset;
+            this.nameLength = original.nameLength;
+            this.name = original.name;
+            this.file = file;
+        }
+
         public FileMetadata(byte[] fileMetadataBlock, int offset) {
             this.offset = offset;
             parentDirectoryOffset = FileFunctions.readFullInt(fileMetadataBlock, offset);
@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 public class RomfsFile {
 
@@ -115,6 +116,25 @@ public class RomfsFile {
         return getContents();
     }
 
+    // Writes the overridden contents to the target at the given position and returns how many bytes that was.
+    // A file spilled to disk is transferred from there without being read into memory.
+    public long writeOverrideTo(FileChannel target, long position) throws IOException {
+        if (status == Extracted.TO_FILE) {
+            String tmpDir = parent.getTmpFolder();
+            try (RandomAccessFile tmpFile = new RandomAccessFile(tmpDir + this.extFilename, "r")) {
+                FileChannel source = tmpFile.getChannel();
+                long length = source.size();
+                FileFunctions.transferBetweenFiles(source, 0, length, target, position);
+                return length;
+            }
+        } else if (status == Extracted.TO_RAM) {
+            FileFunctions.writeBytesToChannel(target, position, this.data);
+            return this.data.length;
+        } else {
+            throw new IOException("No override to write for " + fullPath);
+        }
+    }
+
     private enum Extracted {
         NOT, TO_FILE, TO_RAM
     }
@@ -307,10 +307,13 @@ public class NewRandomizerGUI {
     public static boolean usedLauncher = false;
 
     private GenRestrictions currentRestrictions;
+    // Not shown in the GUI; kept from loaded settings so that old settings files reproduce their seeds
+    private boolean fastWildPokemonSampling = true;
     private OperationDialog opDialog;
 
     private ResourceBundle bundle;
     protected RomHandler.Factory[] checkHandlers;
+    protected final RandomSource randomSource = new RandomSource();
     private RomHandler romHandler;
 
     private boolean presetMode = false;
@@ -762,7 +765,7 @@ public class NewRandomizerGUI {
 
             for (RomHandler.Factory rhf : checkHandlers) {
                 if (rhf.isLoadable(fh.getAbsolutePath())) {
-                    this.romHandler = rhf.create(RandomSource.instance());
+                    this.romHandler = rhf.create(randomSource.instance());
                     if (!usedLauncher && this.romHandler instanceof Abstract3DSRomHandler) {
                         String message = bundle.getString("GUI.pleaseUseTheLauncher");
                         Object[] messages = {message};
@@ -920,8 +923,6 @@ public class NewRandomizerGUI {
     private void saveRandomizedRom(SaveType outputType, File fh) {
         // Get a seed
         long seed = RandomSource.pickSeed();
-        // Apply it
-        RandomSource.seed(seed);
         presetMode = false;
 
         try {
@@ -1020,7 +1021,7 @@ public class NewRandomizerGUI {
                 boolean succeededSave = false;
                 try {
                     romHandler.setLog(verboseLog);
-                    finishedCV.set(new Randomizer(settings, romHandler, bundle, saveAsDirectory).randomize(filename,
+                    finishedCV.set(new Randomizer(settings, romHandler, randomSource, bundle, saveAsDirectory).randomize(filename,
                             verboseLog, seed));
                     succeededSave = true;
                 } catch (RandomizationException ex) {
@@ -1196,8 +1197,6 @@ public class NewRandomizerGUI {
             }
 
             if (allowed && fh != null) {
-                // Apply the seed we were given
-                RandomSource.seed(seed);
                 presetMode = true;
                 performRandomization(fh.getAbsolutePath(), seed, pld.getCustomNames(), outputType == SaveType.DIRECTORY);
             }
@@ -1411,7 +1410,7 @@ public class NewRandomizerGUI {
         String currentFN = this.romHandler.loadedFilename();
         for (RomHandler.Factory rhf : checkHandlers) {
             if (rhf.isLoadable(currentFN)) {
-                this.romHandler = rhf.create(RandomSource.instance());
+                this.romHandler = rhf.create(randomSource.instance());
                 opDialog = new OperationDialog(bundle.getString("GUI.loadingText"), frame, true);
                 Thread t = new Thread(() -> {
                     SwingUtilities.invokeLater(() -> opDialog.setVisible(!batchRandomization));
@@ -1447,6 +1446,7 @@ public class NewRandomizerGUI {
         if (currentRestrictions != null) {
             currentRestrictions.limitToGen(romHandler.generationOfPokemon());
         }
+        fastWildPokemonSampling = settings.isFastWildPokemonSampling();
         noIrregularAltFormesCheckBox.setSelected(settings.isBanIrregularAltFormes());
         raceModeCheckBox.setSelected(settings.isRaceMode());
 
@@ -1701,6 +1701,7 @@ public class NewRandomizerGUI {
 
         settings.setLimitPokemon(limitPokemonCheckBox.isSelected() && limitPokemonCheckBox.isVisible());
         settings.setCurrentRestrictions(currentRestrictions);
+        settings.setFastWildPokemonSampling(fastWildPokemonSampling);
         settings.setBanIrregularAltFormes(noIrregularAltFormesCheckBox.isSelected() && noIrregularAltFormesCheckBox.isVisible());
         settings.setRaceMode(raceModeCheckBox.isSelected());
 
@@ -2006,6 +2007,7 @@ public class NewRandomizerGUI {
         raceModeCheckBox.setSelected(false);
 
         currentRestrictions = null;
+        fastWildPokemonSampling = true;
 
         openROMButton.setVisible(true);
         openROMButton.setEnabled(true);
@@ -25,54 +25,68 @@ package com.dabomstew.pkrandom.newnds;
 /*----------------------------------------------------------------------------*/
 
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.TreeMap;
 
 public class NARCArchive {
 
     private List<String> filenames = new ArrayList<>();
-    public List<byte[]> files = new ArrayList<>();
+    public final List<byte[]> files = new MemberList();
 
     private boolean hasFilenames = false;
 
+    // The archive as it was read. Members are only copied out of it when they are asked for, and members that
+    // were never replaced or edited are copied straight from it when rebuilding.
+    private byte[] original;
+    private int originalFileCount;
+    private int fimgDataOffset;
+    // whether getBytes() would rebuild the original exactly if nothing changed, so it can be handed back as is
+    private boolean originalIsCanonical;
+
     public NARCArchive() {
         // creates a new empty NARC with no filenames by default
     }
 
     public NARCArchive(byte[] data) throws IOException {
-        Map<String, byte[]> frames = readNitroFrames(data);
+        Map<String, int[]> frames = readNitroFrames(data);
         if (!frames.containsKey("FATB") || !frames.containsKey("FNTB") || !frames.containsKey("FIMG")) {
             throw new IOException("Not a valid narc file");
         }
 
         // File contents
-        byte[] fatbframe = frames.get("FATB");
-        byte[] fimgframe = frames.get("FIMG");
-        int fileCount = readLong(fatbframe, 0);
+        int fatbOffset = frames.get("FATB")[0];
+        fimgDataOffset = frames.get("FIMG")[0];
+        int fileCount = readLong(data, fatbOffset);
+        MemberList members = (MemberList) files;
         for (int i = 0; i < fileCount; i++) {
-            int startOffset = readLong(fatbframe, 4 + i * 8);
-            int endOffset = readLong(fatbframe, 8 + i * 8);
-            int length = (endOffset - startOffset);
-            byte[] thisFile = new byte[length];
-            System.arraycopy(fimgframe, startOffset, thisFile, 0, length);
-            files.add(thisFile);
+            int startOffset = readLong(data, fatbOffset + 4 + i * 8);
+            int endOffset = readLong(data, fatbOffset + 8 + i * 8);
+            if (startOffset < 0 || endOffset < startOffset || fimgDataOffset + endOffset > data.length) {
+                throw new IOException("Not a valid narc file");
+            }
+            members.addOriginal(i, startOffset, endOffset);
         }
 
         // Filenames?
-        byte[] fntbframe = frames.get("FNTB");
-        int unk1 = readLong(fntbframe, 0);
+        int fntbOffset = frames.get("FNTB")[0];
+        int fntbEnd = fntbOffset + frames.get("FNTB")[1];
+        int unk1 = readLong(data, fntbOffset);
         if (unk1 == 8) {
             // Filenames exist
             hasFilenames = true;
-            int offset = 8;
+            int offset = fntbOffset + 8;
             for (int i = 0; i < fileCount; i++) {
-                int fnLength = (fntbframe[offset] & 0xFF);
+                int fnLength = (data[offset] & 0xFF);
                 offset++;
-                byte[] filenameBA = new byte[fnLength];
-                System.arraycopy(fntbframe, offset, filenameBA, 0, fnLength);
-                String filename = new String(filenameBA, "US-ASCII");
+                if (offset + fnLength > fntbEnd) {
+                    throw new IOException("Not a valid narc file");
+                }
+                String filename = new String(data, offset, fnLength, "US-ASCII");
                 filenames.add(filename);
             }
         } else {
@@ -81,81 +95,122 @@ public class NARCArchive {
                 filenames.add(null);
             }
         }
+
+        original = data;
+        originalFileCount = fileCount;
+        originalIsCanonical = isCanonical();
     }
 
     public byte[] getBytes() throws IOException {
-        // Get bytes required for FIMG frame
-        int bytesRequired = 0;
-        for (byte[] file : files) {
-            bytesRequired += Math.ceil(file.length / 4.0) * 4;
+        if (isUnchanged()) {
+            return Arrays.copyOf(original, original.length);
         }
-        // FIMG frame & FATB frame build
 
-        // 4 for numentries, 8*size for entries, 8 for nitro header
-        byte[] fatbFrame = new byte[4 + files.size() * 8 + 8];
-        // bytesRequired + 8 for nitro header
-        byte[] fimgFrame = new byte[bytesRequired + 8];
-
-        // Nitro headers
-        fatbFrame[0] = 'B';
-        fatbFrame[1] = 'T';
-        fatbFrame[2] = 'A';
-        fatbFrame[3] = 'F';
-        writeLong(fatbFrame, 4, fatbFrame.length);
-
-        fimgFrame[0] = 'G';
-        fimgFrame[1] = 'M';
-        fimgFrame[2] = 'I';
-        fimgFrame[3] = 'F';
-        writeLong(fimgFrame, 4, fimgFrame.length);
-        int offset = 0;
+        MemberList members = (MemberList) files;
+        int[] lengths = new int[members.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = members.lengthOf(i);
+        }
+        byte[] nitroFile = new byte[nitroLength(lengths)];
+        int offset = writeFrameHeaders(nitroFile, lengths);
 
-        writeLong(fatbFrame, 8, files.size());
-        for (int i = 0; i < files.size(); i++) {
-            byte[] file = files.get(i);
-            int bytesRequiredForFile = (int) (Math.ceil(file.length / 4.0) * 4);
-            System.arraycopy(file, 0, fimgFrame, offset + 8, file.length);
-            for (int filler = file.length; filler < bytesRequiredForFile; filler++) {
-                fimgFrame[offset + 8 + filler] = (byte) 0xFF;
+        for (int i = 0; i < lengths.length; i++) {
+            members.copyTo(i, nitroFile, offset);
+            int bytesRequiredForFile = paddedLength(lengths[i]);
+            for (int filler = lengths[i]; filler < bytesRequiredForFile; filler++) {
+                nitroFile[offset + filler] = (byte) 0xFF;
             }
-            writeLong(fatbFrame, 12 + i * 8, offset);
-            writeLong(fatbFrame, 16 + i * 8, offset + file.length);
             offset += bytesRequiredForFile;
         }
 
-        // FNTB Frame
-        int bytesForFNTBFrame = 16;
-        if (hasFilenames) {
-            for (String filename : filenames) {
-                bytesForFNTBFrame += filename.getBytes("US-ASCII").length + 1;
+        return nitroFile;
+    }
+
+    private boolean isUnchanged() {
+        if (!originalIsCanonical) {
+            return false;
+        }
+        MemberList members = (MemberList) files;
+        if (members.size() != originalFileCount) {
+            return false;
+        }
+        for (int i = 0; i < originalFileCount; i++) {
+            if (!members.isOriginal(i, i)) {
+                return false;
             }
         }
-        byte[] fntbFrame = new byte[bytesForFNTBFrame];
+        return true;
+    }
 
-        fntbFrame[0] = 'B';
-        fntbFrame[1] = 'T';
-        fntbFrame[2] = 'N';
-        fntbFrame[3] = 'F';
-        writeLong(fntbFrame, 4, fntbFrame.length);
+    // Checks the frames and padding of the original against what getBytes() writes; the member data in
+    // between is the same by definition.
+    private boolean isCanonical() throws IOException {
+        MemberList members = (MemberList) files;
+        int[] lengths = new int[originalFileCount];
+        for (int i = 0; i < originalFileCount; i++) {
+            lengths[i] = members.lengthOf(i);
+        }
+        if (nitroLength(lengths) != original.length) {
+            return false;
+        }
+        byte[] headers = new byte[original.length - fimgFrameDataLength(lengths)];
+        int offset = writeFrameHeaders(headers, lengths);
+        if (offset != fimgDataOffset) {
+            return false;
+        }
+        for (int i = 0; i < offset; i++) {
+            if (headers[i] != original[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < originalFileCount; i++) {
+            if (members.originalStart(i) != offset - fimgDataOffset) {
+                return false;
+            }
+            for (int filler = lengths[i]; filler < paddedLength(lengths[i]); filler++) {
+                if (original[offset + filler] != (byte) 0xFF) {
+                    return false;
+                }
+            }
+            offset += paddedLength(lengths[i]);
+        }
+        return true;
+    }
+
+    private static int paddedLength(int length) {
+        return (int) (Math.ceil(length / 4.0) * 4);
+    }
 
+    private static int fimgFrameDataLength(int[] lengths) {
+        int bytesRequired = 0;
+        for (int length : lengths) {
+            bytesRequired += paddedLength(length);
+        }
+        return bytesRequired;
+    }
+
+    private int fntbFrameLength() throws IOException {
+        int bytesForFNTBFrame = 16;
         if (hasFilenames) {
-            writeLong(fntbFrame, 8, 8);
-            writeLong(fntbFrame, 12, 0x10000);
-            int fntbOffset = 16;
             for (String filename : filenames) {
-                byte[] fntbfilename = filename.getBytes("US-ASCII");
-                fntbFrame[fntbOffset] = (byte) fntbfilename.length;
-                System.arraycopy(fntbfilename, 0, fntbFrame, fntbOffset + 1, fntbfilename.length);
-                fntbOffset += 1 + fntbfilename.length;
+                bytesForFNTBFrame += filename.getBytes("US-ASCII").length + 1;
             }
-        } else {
-            writeLong(fntbFrame, 8, 4);
-            writeLong(fntbFrame, 12, 0x10000);
         }
+        return bytesForFNTBFrame;
+    }
 
-        // Now for the actual Nitro file
-        int nitrolength = 16 + fatbFrame.length + fntbFrame.length + fimgFrame.length;
-        byte[] nitroFile = new byte[nitrolength];
+    private int nitroLength(int[] lengths) throws IOException {
+        // 4 for numentries, 8*size for entries, 8 for nitro header
+        int fatbLength = 4 + lengths.length * 8 + 8;
+        // bytesRequired + 8 for nitro header
+        int fimgLength = fimgFrameDataLength(lengths) + 8;
+        return 16 + fatbLength + fntbFrameLength() + fimgLength;
+    }
+
+    // Writes the nitro header, the FATB and FNTB frames and the FIMG frame header, and returns where the
+    // member data starts
+    private int writeFrameHeaders(byte[] nitroFile, int[] lengths) throws IOException {
+        int nitrolength = nitroLength(lengths);
         nitroFile[0] = 'N';
         nitroFile[1] = 'A';
         nitroFile[2] = 'R';
@@ -165,21 +220,67 @@ public class NARCArchive {
         writeLong(nitroFile, 8, nitrolength);
         writeWord(nitroFile, 12, 0x10);
         writeWord(nitroFile, 14, 3);
-        System.arraycopy(fatbFrame, 0, nitroFile, 16, fatbFrame.length);
-        System.arraycopy(fntbFrame, 0, nitroFile, 16 + fatbFrame.length, fntbFrame.length);
-        System.arraycopy(fimgFrame, 0, nitroFile, 16 + fatbFrame.length + fntbFrame.length, fimgFrame.length);
 
-        return nitroFile;
+        // FATB frame
+        int fatbStart = 16;
+        int fatbLength = 4 + lengths.length * 8 + 8;
+        nitroFile[fatbStart] = 'B';
+        nitroFile[fatbStart + 1] = 'T';
+        nitroFile[fatbStart + 2] = 'A';
+        nitroFile[fatbStart + 3] = 'F';
+        writeLong(nitroFile, fatbStart + 4, fatbLength);
+        writeLong(nitroFile, fatbStart + 8, lengths.length);
+        int offset = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            writeLong(nitroFile, fatbStart + 12 + i * 8, offset);
+            writeLong(nitroFile, fatbStart + 16 + i * 8, offset + lengths[i]);
+            offset += paddedLength(lengths[i]);
+        }
+
+        // FNTB Frame
+        int fntbStart = fatbStart + fatbLength;
+        int fntbLength = fntbFrameLength();
+        nitroFile[fntbStart] = 'B';
+        nitroFile[fntbStart + 1] = 'T';
+        nitroFile[fntbStart + 2] = 'N';
+        nitroFile[fntbStart + 3] = 'F';
+        writeLong(nitroFile, fntbStart + 4, fntbLength);
+
+        if (hasFilenames) {
+            writeLong(nitroFile, fntbStart + 8, 8);
+            writeLong(nitroFile, fntbStart + 12, 0x10000);
+            int fntbOffset = fntbStart + 16;
+            for (String filename : filenames) {
+                byte[] fntbfilename = filename.getBytes("US-ASCII");
+                nitroFile[fntbOffset] = (byte) fntbfilename.length;
+                System.arraycopy(fntbfilename, 0, nitroFile, fntbOffset + 1, fntbfilename.length);
+                fntbOffset += 1 + fntbfilename.length;
+            }
+        } else {
+            writeLong(nitroFile, fntbStart + 8, 4);
+            writeLong(nitroFile, fntbStart + 12, 0x10000);
+        }
+
+        // FIMG frame header
+        int fimgStart = fntbStart + fntbLength;
+        nitroFile[fimgStart] = 'G';
+        nitroFile[fimgStart + 1] = 'M';
+        nitroFile[fimgStart + 2] = 'I';
+        nitroFile[fimgStart + 3] = 'F';
+        writeLong(nitroFile, fimgStart + 4, fimgFrameDataLength(lengths) + 8);
+
+        return fimgStart + 8;
     }
 
-    private Map<String, byte[]> readNitroFrames(byte[] data) throws IOException {
+    // Returns where each frame's data (after its 8 byte header) starts in the file, and its length
+    private Map<String, int[]> readNitroFrames(byte[] data) throws IOException {
 
         // Read the number of frames
         int frameCount = readWord(data, 0x0E);
 
         // each frame
         int offset = 0x10;
-        Map<String, byte[]> frames = new TreeMap<>();
+        Map<String, int[]> frames = new TreeMap<>();
         for (int i = 0; i < frameCount; i++) {
             byte[] magic = new byte[] { data[offset + 3], data[offset + 2], data[offset + 1], data[offset] };
             String magicS = new String(magic, "US-ASCII");
@@ -190,14 +291,115 @@ public class NARCArchive {
             if (i == frameCount - 1 && offset + frame_size < data.length) {
                 frame_size = data.length - offset;
             }
-            byte[] frame = new byte[frame_size - 8];
-            System.arraycopy(data, offset + 8, frame, 0, frame_size - 8);
-            frames.put(magicS, frame);
+            if (frame_size < 8 || offset + frame_size > data.length) {
+                throw new IOException("Not a valid narc file");
+            }
+            frames.put(magicS, new int[] { offset + 8, frame_size - 8 });
             offset += frame_size;
         }
         return frames;
     }
 
+    // The members of the archive. Original members are sliced out of the backing file the first time they are
+    // read; callers may edit the returned arrays in place, so a member that has been read is compared against
+    // the original before it is treated as unchanged.
+    private class MemberList extends AbstractList<byte[]> implements RandomAccess {
+        private final List<Member> members = new ArrayList<>();
+
+        void addOriginal(int originalIndex, int start, int end) {
+            members.add(new Member(originalIndex, start, end, null));
+        }
+
+        int lengthOf(int index) {
+            Member m = members.get(index);
+            return m.data != null ? m.data.length : m.end - m.start;
+        }
+
+        int originalStart(int index) {
+            return members.get(index).start;
+        }
+
+        boolean isOriginal(int index, int originalIndex) {
+            Member m = members.get(index);
+            if (m.originalIndex != originalIndex) {
+                return false;
+            }
+            if (m.data == null) {
+                return true;
+            }
+            if (m.data.length != m.end - m.start) {
+                return false;
+            }
+            int base = fimgDataOffset + m.start;
+            for (int i = 0; i < m.data.length; i++) {
+                if (m.data[i] != original[base + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void copyTo(int index, byte[] dest, int destOffset) {
+            Member m = members.get(index);
+            if (m.data != null) {
+                System.arraycopy(m.data, 0, dest, destOffset, m.data.length);
+            } else {
+                System.arraycopy(original, fimgDataOffset + m.start, dest, destOffset, m.end - m.start);
+            }
+        }
+
+        @Override
+        public byte[] get(int index) {
+            Member m = members.get(index);
+            if (m.data == null) {
+                m.data = Arrays.copyOfRange(original, fimgDataOffset + m.start, fimgDataOffset + m.end);
+            }
+            return m.data;
+        }
+
+        @Override
+        public byte[] set(int index, byte[] element) {
+            byte[] previous = get(index);
+            if (element != previous) {
+                members.set(index, new Member(-1, 0, 0, element));
+            }
+            return previous;
+        }
+
+        @Override
+        public void add(int index, byte[] element) {
+            members.add(index, new Member(-1, 0, 0, element));
+            modCount++;
+        }
+
+        @Override
+        public byte[] remove(int index) {
+            byte[] previous = get(index);
+            members.remove(index);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return members.size();
+        }
+    }
+
+    private static class Member {
+        // index in the original archive and where its data was, or -1 for a member that was set or added
+        private final int originalIndex;
+        private final int start, end;
+        private byte[] data;
+
+        private Member(int originalIndex, int start, int end, byte[] data) {
+            this.originalIndex = originalIndex;
+            this.start = start;
+            this.end = end;
+            this.data = data;
+        }
+    }
+
     private int readWord(byte[] data, int offset) {
         return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
     }
@@ -1,9 +1,7 @@
 package com.dabomstew.pkrandom.newnds;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import com.dabomstew.pkrandom.FileFunctions;
 
@@ -34,8 +32,8 @@ public class NDSFile {
     public int offset, size;
     public int fileID;
     public String fullPath;
-    private Extracted status = Extracted.NOT;
-    private String extFilename;
+    private boolean extracted;
+    // only set once the file has been overridden; until then it is read straight from the ROM
     public byte[] data;
     public long originalCRC;
 
@@ -44,76 +42,41 @@ public class NDSFile {
     }
 
     public byte[] getContents() throws IOException {
-        if (this.status == Extracted.NOT) {
-            // extract file
-            parent.reopenROM();
-            RandomAccessFile rom = parent.getBaseRom();
-            byte[] buf = new byte[this.size];
-            rom.seek(this.offset);
-            rom.readFully(buf);
-            originalCRC = FileFunctions.getCRC32(buf);
-            if (parent.isWritingEnabled()) {
-                // make a file
-                String tmpDir = parent.getTmpFolder();
-                this.extFilename = fullPath.replaceAll("[^A-Za-z0-9_]+", "");
-                File tmpFile = new File(tmpDir + extFilename);
-                FileOutputStream fos = new FileOutputStream(tmpFile);
-                fos.write(buf);
-                fos.close();
-                tmpFile.deleteOnExit();
-                this.status = Extracted.TO_FILE;
-                this.data = null;
-                return buf;
-            } else {
-                this.status = Extracted.TO_RAM;
-                this.data = buf;
-                byte[] newcopy = new byte[buf.length];
-                System.arraycopy(buf, 0, newcopy, 0, buf.length);
-                return newcopy;
-            }
-        } else if (this.status == Extracted.TO_RAM) {
+        if (this.data != null) {
             byte[] newcopy = new byte[this.data.length];
             System.arraycopy(this.data, 0, newcopy, 0, this.data.length);
             return newcopy;
-        } else {
-            String tmpDir = parent.getTmpFolder();
-            return FileFunctions.readFileFullyIntoBuffer(tmpDir + this.extFilename);
         }
+        ByteBuffer original = getOriginalContents();
+        byte[] buf = new byte[this.size];
+        original.get(buf);
+        if (!this.extracted) {
+            originalCRC = FileFunctions.getCRC32(buf);
+            this.extracted = true;
+        }
+        return buf;
+    }
+
+    // a read-only view of the file as it is in the ROM, without copying it
+    public ByteBuffer getOriginalContents() throws IOException {
+        return parent.getRomSlice(this.offset, this.size);
     }
 
     public void writeOverride(byte[] data) throws IOException {
-        if (status == Extracted.NOT) {
-            // temp extract
+        if (!this.extracted) {
+            // for the original CRC
             getContents();
         }
-        if (status == Extracted.TO_FILE) {
-            String tmpDir = parent.getTmpFolder();
-            FileOutputStream fos = new FileOutputStream(new File(tmpDir + this.extFilename));
-            fos.write(data);
-            fos.close();
-        } else {
-            if (this.data.length == data.length) {
-                // copy new in
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            } else {
-                // make new array
-                this.data = null;
-                this.data = new byte[data.length];
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            }
-        }
+        this.data = new byte[data.length];
+        System.arraycopy(data, 0, this.data, 0, data.length);
     }
 
     // returns null if no override
     public byte[] getOverrideContents() throws IOException {
-        if (status == Extracted.NOT) {
+        if (this.data == null) {
             return null;
         }
         return getContents();
     }
 
-    private enum Extracted {
-        NOT, TO_FILE, TO_RAM
-    }
-
 }
@@ -1,17 +1,19 @@
 package com.dabomstew.pkrandom.newnds;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
-import com.dabomstew.pkrandom.SysConstants;
+import com.dabomstew.pkrandom.BLZCache;
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.RomFunctions;
 
 import com.dabomstew.pkrandom.exceptions.CannotWriteToLocationException;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
-import cuecompressors.BLZCoder;
 
 /*----------------------------------------------------------------------------*/
 /*--  NDSRom.java - base class for opening/saving ROMs                      --*/
@@ -40,14 +42,14 @@ public class NDSRom {
     private byte version;
     private String romFilename;
     private RandomAccessFile baseRom;
+    // the whole ROM, mapped read-only; unmodified files are served as slices of this
+    private MappedByteBuffer mappedRom;
     private boolean romOpen;
     private Map<String, NDSFile> files;
     private Map<Integer, NDSFile> filesByID;
     private Map<Integer, NDSY9Entry> arm9overlaysByFileID;
     private NDSY9Entry[] arm9overlays;
     private byte[] fat;
-    private String tmpFolder;
-    private boolean writingEnabled;
     private boolean arm9_open, arm9_changed, arm9_has_footer;
     private boolean arm9_compressed;
     private int arm9_ramoffset;
@@ -62,43 +64,92 @@ public class NDSRom {
 
     public NDSRom(String filename) throws IOException {
         this.romFilename = filename;
-        this.baseRom = new RandomAccessFile(filename, "r");
-        this.romOpen = true;
-        // TMP folder?
-        String rawFilename = new File(filename).getName();
-        String dataFolder = "tmp_" + rawFilename.substring(0, rawFilename.lastIndexOf('.'));
-        // remove nonsensical chars
-        dataFolder = dataFolder.replaceAll("[^A-Za-z0-9_]+", "");
-        File tmpFolder = new File(SysConstants.ROOT_PATH + dataFolder);
-        tmpFolder.mkdir();
-        if (tmpFolder.canWrite()) {
-            writingEnabled = true;
-            this.tmpFolder = SysConstants.ROOT_PATH + dataFolder + File.separator;
-            tmpFolder.deleteOnExit();
-        } else {
-            writingEnabled = false;
-        }
+        openROM();
         readFileSystem();
         arm9_open = false;
         arm9_changed = false;
         arm9_ramstored = null;
     }
 
+    private NDSRom() {
+    }
+
+    // Returns a copy of the file system as it was read from the ROM, with nothing extracted or overridden.
+    // Only meant for an NDSRom that has not been written to (see RomSnapshot). The copy opens the ROM
+    // for itself when it first reads from it.
+    public NDSRom copy() {
+        NDSRom copy = new NDSRom();
+        copy.romCode = romCode;
+        copy.version = version;
+        copy.romFilename = romFilename;
+        copy.arm9_ramoffset = arm9_ramoffset;
+        copy.fat = fat.clone();
+        copy.files = new HashMap<>();
+        copy.filesByID = new HashMap<>();
+        for (NDSFile file : filesByID.values()) {
+            NDSFile nf = new NDSFile(copy);
+            nf.offset = file.offset;
+            nf.size = file.size;
+            nf.fullPath = file.fullPath;
+            nf.fileID = file.fileID;
+            copy.files.put(nf.fullPath, nf);
+            copy.filesByID.put(nf.fileID, nf);
+        }
+        copy.arm9overlays = new NDSY9Entry[arm9overlays.length];
+        copy.arm9overlaysByFileID = new HashMap<>();
+        for (int i = 0; i < arm9overlays.length; i++) {
+            NDSY9Entry original = arm9overlays[i];
+            NDSY9Entry overlay = new NDSY9Entry(copy);
+            overlay.offset = original.offset;
+            overlay.size = original.size;
+            overlay.original_size = original.original_size;
+            overlay.fileID = original.fileID;
+            overlay.overlay_id = original.overlay_id;
+            overlay.ram_address = original.ram_address;
+            overlay.ram_size = original.ram_size;
+            overlay.bss_size = original.bss_size;
+            overlay.static_start = original.static_start;
+            overlay.static_end = original.static_end;
+            overlay.compressed_size = original.compressed_size;
+            overlay.compress_flag = original.compress_flag;
+            copy.arm9overlays[i] = overlay;
+            copy.arm9overlaysByFileID.put(overlay.fileID, overlay);
+        }
+        return copy;
+    }
+
     public void reopenROM() throws IOException {
         if (!this.romOpen) {
-            this.baseRom = new RandomAccessFile(this.romFilename, "r");
-            this.romOpen = true;
+            openROM();
         }
     }
 
+    private void openROM() throws IOException {
+        this.baseRom = new RandomAccessFile(this.romFilename, "r");
+        this.mappedRom = this.baseRom.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.baseRom.length());
+        this.romOpen = true;
+    }
+
     public void closeROM() throws IOException {
         if (this.romOpen && this.baseRom != null) {
             this.baseRom.close();
             this.baseRom = null;
+            // the mapping itself goes away once it is garbage collected
+            this.mappedRom = null;
             this.romOpen = false;
         }
     }
 
+    // Returns a read-only view of part of the original ROM. Each call gets its own view,
+    // so they can be read from independently.
+    public ByteBuffer getRomSlice(int offset, int size) throws IOException {
+        reopenROM();
+        ByteBuffer slice = this.mappedRom.duplicate();
+        slice.position(offset);
+        slice.limit(offset + size);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
     private void readFileSystem() throws IOException {
         // read rom code
         baseRom.seek(0x0C);
@@ -229,89 +280,61 @@ public class NDSRom {
 
     public void saveTo(String filename) throws IOException {
         this.reopenROM();
+        FileChannel source = this.baseRom.getChannel();
 
-        // Initialize new ROM
-        RandomAccessFile fNew = new RandomAccessFile(filename, "rw");
-
+        // Work out the whole layout of the new ROM first, so that everything that is unchanged
+        // can be copied straight across from the original ROM afterwards.
         int headersize = readFromFile(this.baseRom, 0x84, 4);
-        this.baseRom.seek(0);
-        copy(this.baseRom, fNew, headersize);
 
         // arm9
-        int arm9_offset = ((int) (fNew.getFilePointer() + arm9_align)) & (~arm9_align);
+        int arm9_offset = (headersize + arm9_align) & (~arm9_align);
         int old_arm9_offset = readFromFile(this.baseRom, 0x20, 4);
         int arm9_size = readFromFile(this.baseRom, 0x2C, 4);
+        byte[] newARM9 = null;
+        int arm9_end;
         if (arm9_open && arm9_changed) {
             // custom arm9
-            byte[] newARM9 = getARM9();
+            newARM9 = getARM9();
             if (arm9_compressed) {
-                newARM9 = new BLZCoder(null).BLZ_EncodePub(newARM9, true, false, "arm9.bin");
+                newARM9 = BLZCache.encode(newARM9, true, false, "arm9.bin");
                 if (arm9_szoffset > 0) {
                     int newValue = newARM9.length + arm9_ramoffset;
                     writeToByteArr(newARM9, arm9_szoffset, 4, newValue);
                 }
             }
             arm9_size = newARM9.length;
-            // copy new arm9
-            fNew.seek(arm9_offset);
-            fNew.write(newARM9);
-            // footer?
-            if (arm9_has_footer) {
-                fNew.write(arm9_footer);
-            }
-
+            arm9_end = arm9_offset + arm9_size + (arm9_has_footer ? arm9_footer.length : 0);
         } else {
-            // copy arm9+footer
-            this.baseRom.seek(old_arm9_offset);
-            fNew.seek(arm9_offset);
-            copy(this.baseRom, fNew, arm9_size + 12);
+            // arm9+footer will be copied
+            arm9_end = arm9_offset + arm9_size + 12;
         }
 
         // arm9 ovl
-        int arm9_ovl_offset = (int) fNew.getFilePointer();
+        int arm9_ovl_offset = arm9_end;
         int arm9_ovl_size = arm9overlays.length * 32;
 
-        // don't actually write arm9 ovl yet
-
         // arm7
         int arm7_offset = arm9_ovl_offset + arm9_ovl_size + arm7_align & (~arm7_align);
         int old_arm7_offset = readFromFile(this.baseRom, 0x30, 4);
         int arm7_size = readFromFile(this.baseRom, 0x3C, 4);
-        // copy arm7
-        this.baseRom.seek(old_arm7_offset);
-        fNew.seek(arm7_offset);
-        copy(this.baseRom, fNew, arm7_size);
 
         // arm7 ovl
-        int arm7_ovl_offset = (int) fNew.getFilePointer();
+        int arm7_ovl_offset = arm7_offset + arm7_size;
         int old_arm7_ovl_offset = readFromFile(this.baseRom, 0x58, 4);
         int arm7_ovl_size = readFromFile(this.baseRom, 0x5C, 4);
 
-        // copy arm7 ovl
-        this.baseRom.seek(old_arm7_ovl_offset);
-        fNew.seek(arm7_ovl_offset);
-        copy(this.baseRom, fNew, arm7_ovl_size);
-
         // banner
-        int banner_offset = ((int) (fNew.getFilePointer() + banner_align)) & (~banner_align);
+        int banner_offset = (arm7_ovl_offset + arm7_ovl_size + banner_align) & (~banner_align);
         int old_banner_offset = readFromFile(this.baseRom, 0x68, 4);
         int banner_size = 0x840;
-        // copy banner
-        this.baseRom.seek(old_banner_offset);
-        fNew.seek(banner_offset);
-        copy(this.baseRom, fNew, banner_size);
 
         // filename table (doesn't change)
-        int fnt_offset = ((int) (fNew.getFilePointer() + fnt_align)) & (~fnt_align);
+        int fnt_offset = (banner_offset + banner_size + fnt_align) & (~fnt_align);
         int old_fnt_offset = readFromFile(this.baseRom, 0x40, 4);
         int fnt_size = readFromFile(this.baseRom, 0x44, 4);
-        // copy fnt
-        this.baseRom.seek(old_fnt_offset);
-        fNew.seek(fnt_offset);
-        copy(this.baseRom, fNew, fnt_size);
 
         // make space for the FAT table
-        int fat_offset = ((int) (fNew.getFilePointer() + fat_align)) & (~fat_align);
+        int fat_offset = (fnt_offset + fnt_size + fat_align) & (~fat_align);
         int fat_size = fat.length;
 
         // Now for actual files
@@ -321,30 +344,19 @@ public class NDSRom {
         byte[] y9table = new byte[arm9overlays.length * 32];
         int base_offset = fat_offset + fat_size;
         int filecount = fat.length / 8;
+        byte[][] customFiles = new byte[filecount][];
         for (int fid = 0; fid < filecount; fid++) {
             int offset_of_file = (base_offset + file_align) & (~file_align);
-            int file_len = 0;
-            boolean copiedCustom = false;
+            int file_len;
             if (filesByID.containsKey(fid)) {
-                byte[] customContents = filesByID.get(fid).getOverrideContents();
-                if (customContents != null) {
-                    // copy custom
-                    fNew.seek(offset_of_file);
-                    fNew.write(customContents);
-                    copiedCustom = true;
-                    file_len = customContents.length;
-                }
+                customFiles[fid] = filesByID.get(fid).getOverrideContents();
             }
             if (arm9overlaysByFileID.containsKey(fid)) {
                 NDSY9Entry entry = arm9overlaysByFileID.get(fid);
                 int overlay_id = entry.overlay_id;
                 byte[] customContents = entry.getOverrideContents();
                 if (customContents != null) {
-                    // copy custom
-                    fNew.seek(offset_of_file);
-                    fNew.write(customContents);
-                    copiedCustom = true;
-                    file_len = customContents.length;
+                    customFiles[fid] = customContents;
                 }
                 // regardless, fill in y9 table
                 writeToByteArr(y9table, overlay_id * 32, 4, overlay_id);
@@ -357,14 +369,11 @@ public class NDSRom {
                 writeToByteArr(y9table, overlay_id * 32 + 28, 3, entry.compressed_size);
                 writeToByteArr(y9table, overlay_id * 32 + 31, 1, entry.compress_flag);
             }
-            if (!copiedCustom) {
-                // copy from original ROM
-                int file_starts = readFromByteArr(fat, fid * 8, 4);
-                int file_ends = readFromByteArr(fat, fid * 8 + 4, 4);
-                file_len = file_ends - file_starts;
-                this.baseRom.seek(file_starts);
-                fNew.seek(offset_of_file);
-                copy(this.baseRom, fNew, file_len);
+            if (customFiles[fid] != null) {
+                file_len = customFiles[fid].length;
+            } else {
+                // will be copied from original ROM
+                file_len = readFromByteArr(fat, fid * 8 + 4, 4) - readFromByteArr(fat, fid * 8, 4);
             }
             // write to new FAT
             writeToByteArr(newfat, fid * 8, 4, offset_of_file);
@@ -373,13 +382,49 @@ public class NDSRom {
             base_offset = offset_of_file + file_len;
         }
 
+        // Initialize new ROM
+        RandomAccessFile fNew = new RandomAccessFile(filename, "rw");
+        fNew.setLength(0);
+        FileChannel target = fNew.getChannel();
+
+        FileFunctions.transferBetweenFiles(source, 0, headersize, target, 0);
+
+        if (newARM9 != null) {
+            // copy new arm9
+            FileFunctions.writeBytesToChannel(target, arm9_offset, newARM9);
+            // footer?
+            if (arm9_has_footer) {
+                FileFunctions.writeBytesToChannel(target, arm9_offset + newARM9.length, arm9_footer);
+            }
+        } else {
+            // copy arm9+footer
+            FileFunctions.transferBetweenFiles(source, old_arm9_offset, arm9_size + 12, target, arm9_offset);
+        }
+
+        // copy arm7, arm7 ovl, banner and fnt
+        FileFunctions.transferBetweenFiles(source, old_arm7_offset, arm7_size, target, arm7_offset);
+        FileFunctions.transferBetweenFiles(source, old_arm7_ovl_offset, arm7_ovl_size, target, arm7_ovl_offset);
+        FileFunctions.transferBetweenFiles(source, old_banner_offset, banner_size, target, banner_offset);
+        FileFunctions.transferBetweenFiles(source, old_fnt_offset, fnt_size, target, fnt_offset);
+
+        // the files themselves; only the custom ones are written from memory
+        for (int fid = 0; fid < filecount; fid++) {
+            int offset_of_file = readFromByteArr(newfat, fid * 8, 4);
+            if (customFiles[fid] != null) {
+                FileFunctions.writeBytesToChannel(target, offset_of_file, customFiles[fid]);
+            } else {
+                int file_starts = readFromByteArr(fat, fid * 8, 4);
+                int file_ends = readFromByteArr(fat, fid * 8 + 4, 4);
+                FileFunctions.transferBetweenFiles(source, file_starts, file_ends - file_starts, target,
+                        offset_of_file);
+            }
+        }
+
         // write new FAT table
-        fNew.seek(fat_offset);
-        fNew.write(newfat);
+        FileFunctions.writeBytesToChannel(target, fat_offset, newfat);
 
         // write y9 table
-        fNew.seek(arm9_ovl_offset);
-        fNew.write(y9table);
+        FileFunctions.writeBytesToChannel(target, arm9_ovl_offset, y9table);
 
         // tidy up ending
         // base_offset is the end of the last file
@@ -434,17 +479,6 @@ public class NDSRom {
         closeROM();
     }
 
-    private void copy(RandomAccessFile from, RandomAccessFile to, int bytes) throws IOException {
-        int sizeof_copybuf = Math.min(256 * 1024, bytes);
-        byte[] copybuf = new byte[sizeof_copybuf];
-        while (bytes > 0) {
-            int size2 = (bytes >= sizeof_copybuf) ? sizeof_copybuf : bytes;
-            int read = from.read(copybuf, 0, size2);
-            to.write(copybuf, 0, read);
-            bytes -= read;
-        }
-    }
-
     // get rom code for opened rom
     public String getCode() {
         return this.romCode;
@@ -486,11 +520,10 @@ public class NDSRom {
             int arm9_offset = readFromFile(this.baseRom, 0x20, 4);
             int arm9_size = readFromFile(this.baseRom, 0x2C, 4);
             byte[] arm9 = new byte[arm9_size];
-            this.baseRom.seek(arm9_offset);
-            this.baseRom.readFully(arm9);
+            getRomSlice(arm9_offset, arm9_size).get(arm9);
             originalArm9CRC = FileFunctions.getCRC32(arm9);
             // footer check
-            int nitrocode = readFromFile(this.baseRom, 4);
+            int nitrocode = readFromFile(this.baseRom, arm9_offset + arm9_size, 4);
             if (nitrocode == 0xDEC00621) {
                 // found a footer
                 arm9_footer = new byte[12];
@@ -536,32 +569,18 @@ public class NDSRom {
             }
 
             if (arm9_compressed) {
-                arm9 = new BLZCoder(null).BLZ_DecodePub(arm9, "arm9.bin");
+                arm9 = BLZCache.decode(arm9, "arm9.bin");
             }
 
             // Now actually make the copy or w/e
-            if (writingEnabled) {
-                File arm9file = new File(tmpFolder + "arm9.bin");
-                FileOutputStream fos = new FileOutputStream(arm9file);
-                fos.write(arm9);
-                fos.close();
-                arm9file.deleteOnExit();
-                this.arm9_ramstored = null;
-                return arm9;
-            } else {
-                this.arm9_ramstored = arm9;
-                byte[] newcopy = new byte[arm9.length];
-                System.arraycopy(arm9, 0, newcopy, 0, arm9.length);
-                return newcopy;
-            }
+            this.arm9_ramstored = arm9;
+            byte[] newcopy = new byte[arm9.length];
+            System.arraycopy(arm9, 0, newcopy, 0, arm9.length);
+            return newcopy;
         } else {
-            if (writingEnabled) {
-                return FileFunctions.readFileFullyIntoBuffer(tmpFolder + "arm9.bin");
-            } else {
-                byte[] newcopy = new byte[this.arm9_ramstored.length];
-                System.arraycopy(this.arm9_ramstored, 0, newcopy, 0, this.arm9_ramstored.length);
-                return newcopy;
-            }
+            byte[] newcopy = new byte[this.arm9_ramstored.length];
+            System.arraycopy(this.arm9_ramstored, 0, newcopy, 0, this.arm9_ramstored.length);
+            return newcopy;
         }
     }
 
@@ -583,20 +602,14 @@ public class NDSRom {
             getARM9();
         }
         arm9_changed = true;
-        if (writingEnabled) {
-            FileOutputStream fos = new FileOutputStream(new File(tmpFolder + "arm9.bin"));
-            fos.write(arm9);
-            fos.close();
+        if (this.arm9_ramstored.length == arm9.length) {
+            // copy new in
+            System.arraycopy(arm9, 0, this.arm9_ramstored, 0, arm9.length);
         } else {
-            if (this.arm9_ramstored.length == arm9.length) {
-                // copy new in
-                System.arraycopy(arm9, 0, this.arm9_ramstored, 0, arm9.length);
-            } else {
-                // make new array
-                this.arm9_ramstored = null;
-                this.arm9_ramstored = new byte[arm9.length];
-                System.arraycopy(arm9, 0, this.arm9_ramstored, 0, arm9.length);
-            }
+            // make new array
+            this.arm9_ramstored = null;
+            this.arm9_ramstored = new byte[arm9.length];
+            System.arraycopy(arm9, 0, this.arm9_ramstored, 0, arm9.length);
         }
     }
 
@@ -652,18 +665,6 @@ public class NDSRom {
         }
     }
 
-    public String getTmpFolder() {
-        return tmpFolder;
-    }
-
-    public RandomAccessFile getBaseRom() {
-        return baseRom;
-    }
-
-    public boolean isWritingEnabled() {
-        return writingEnabled;
-    }
-
     private int readFromByteArr(byte[] data, int offset, int size) {
         int result = 0;
         for (int i = 0; i < size; i++) {
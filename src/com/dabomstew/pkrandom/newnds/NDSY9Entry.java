@@ -1,14 +1,10 @@
 package com.dabomstew.pkrandom.newnds;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
+import com.dabomstew.pkrandom.BLZCache;
 import com.dabomstew.pkrandom.FileFunctions;
 
-import cuecompressors.BLZCoder;
-
 /*----------------------------------------------------------------------------*/
 /*--  NDSY9Entry.java - an entry in the arm9 overlay system                 --*/
 /*--  Code based on "Nintendo DS rom tool", copyright (C) DevkitPro         --*/
@@ -41,8 +37,10 @@ public class NDSY9Entry {
     public int static_start, static_end;
     public int compressed_size;
     public int compress_flag;
-    private Extracted status = Extracted.NOT;
-    private String extFilename;
+    private boolean extracted;
+    private boolean modified;
+    // decompressed overlays are kept here so they are only decompressed once;
+    // anything else is only kept once it has been overridden
     public byte[] data;
     public long originalCRC;
     private boolean decompressed_data = false;
@@ -52,89 +50,50 @@ public class NDSY9Entry {
     }
 
     public byte[] getContents() throws IOException {
-        if (this.status == Extracted.NOT) {
+        if (this.data == null) {
             // extract file
-            parent.reopenROM();
-            RandomAccessFile rom = parent.getBaseRom();
             byte[] buf = new byte[this.original_size];
-            rom.seek(this.offset);
-            rom.readFully(buf);
-            originalCRC = FileFunctions.getCRC32(buf);
+            parent.getRomSlice(this.offset, this.original_size).get(buf);
+            if (!this.extracted) {
+                originalCRC = FileFunctions.getCRC32(buf);
+                this.extracted = true;
+            }
             // Compression?
             if (compress_flag != 0 && this.original_size == this.compressed_size && this.compressed_size != 0) {
-                buf = new BLZCoder(null).BLZ_DecodePub(buf, "overlay " + overlay_id);
+                this.data = BLZCache.decode(buf, "overlay " + overlay_id);
                 decompressed_data = true;
-            }
-            if (parent.isWritingEnabled()) {
-                // make a file
-                String tmpDir = parent.getTmpFolder();
-                String fullPath = String.format("overlay_%04d", overlay_id);
-                this.extFilename = fullPath.replaceAll("[^A-Za-z0-9_]+", "");
-                File tmpFile = new File(tmpDir + extFilename);
-                FileOutputStream fos = new FileOutputStream(tmpFile);
-                fos.write(buf);
-                fos.close();
-                tmpFile.deleteOnExit();
-                this.status = Extracted.TO_FILE;
-                this.data = null;
-                return buf;
             } else {
-                this.status = Extracted.TO_RAM;
-                this.data = buf;
-                byte[] newcopy = new byte[buf.length];
-                System.arraycopy(buf, 0, newcopy, 0, buf.length);
-                return newcopy;
+                return buf;
             }
-        } else if (this.status == Extracted.TO_RAM) {
-            byte[] newcopy = new byte[this.data.length];
-            System.arraycopy(this.data, 0, newcopy, 0, this.data.length);
-            return newcopy;
-        } else {
-            String tmpDir = parent.getTmpFolder();
-            return FileFunctions.readFileFullyIntoBuffer(tmpDir + this.extFilename);
         }
+        byte[] newcopy = new byte[this.data.length];
+        System.arraycopy(this.data, 0, newcopy, 0, this.data.length);
+        return newcopy;
     }
 
     public void writeOverride(byte[] data) throws IOException {
-        if (status == Extracted.NOT) {
-            // temp extract
+        if (!this.extracted) {
+            // temp extract, for the original CRC and compression
             getContents();
         }
         size = data.length;
-        if (status == Extracted.TO_FILE) {
-            String tmpDir = parent.getTmpFolder();
-            FileOutputStream fos = new FileOutputStream(new File(tmpDir + this.extFilename));
-            fos.write(data);
-            fos.close();
-        } else {
-            if (this.data.length == data.length) {
-                // copy new in
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            } else {
-                // make new array
-                this.data = null;
-                this.data = new byte[data.length];
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            }
-        }
+        this.data = new byte[data.length];
+        System.arraycopy(data, 0, this.data, 0, data.length);
+        this.modified = true;
     }
 
     // returns null if no override
     public byte[] getOverrideContents() throws IOException {
-        if (status == Extracted.NOT) {
+        if (!this.modified) {
             return null;
         }
         byte[] buf = getContents();
         if (this.decompressed_data) {
-            buf = new BLZCoder(null).BLZ_EncodePub(buf, false, false, "overlay " + overlay_id);
+            buf = BLZCache.encode(buf, false, false, "overlay " + overlay_id);
             // update our compressed size
             this.compressed_size = buf.length;
         }
         return buf;
     }
 
-    private enum Extracted {
-        NOT, TO_FILE, TO_RAM
-    }
-
 }
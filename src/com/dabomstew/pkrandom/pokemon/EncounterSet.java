@@ -25,15 +25,13 @@ package com.dabomstew.pkrandom.pokemon;
 /*----------------------------------------------------------------------------*/
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class EncounterSet {
 
     public int rate;
     public List<Encounter> encounters = new ArrayList<>();
-    public Set<Pokemon> bannedPokemon = new HashSet<>();
+    public PokemonSet bannedPokemon = new PokemonSet();
     public String displayName;
     public int offset;
 
@@ -0,0 +1,154 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  MoveSynergyTables.java - MoveSynergy relations, worked out once       --*/
+/*--                           for the whole move table                     --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.*;
+
+/**
+ * Every MoveSynergy relation is a set of moves, picked from a move list by properties of the moves alone. This
+ * works each relation out once against the whole move table, as a bitset of move numbers, the first time it is
+ * asked for. Results are the same as MoveSynergy's: the distinct moves of the given list that are in the
+ * relation, in list order. Moves must not change while one of these is in use.
+ */
+public class MoveSynergyTables {
+
+    private final List<Move> allMoves = new ArrayList<>();
+    private final int generation;
+    private final int perfectAccuracy;
+    private final boolean effectivenessUpdated;
+
+    private final Map<List<Object>, BitSet> hardAbilitySynergy = new HashMap<>();
+    private final Map<List<Object>, BitSet> softAbilitySynergy = new HashMap<>();
+    private final Map<Integer, BitSet> hardAbilityAntiSynergy = new HashMap<>();
+    private final Map<Integer, BitSet> softAbilityAntiSynergy = new HashMap<>();
+    private final Map<Pokemon, BitSet> statSynergy = new IdentityHashMap<>();
+    private final Map<Pokemon, BitSet> statAntiSynergy = new IdentityHashMap<>();
+    private final Map<Integer, BitSet> hardMoveSynergy = new HashMap<>();
+    private final Map<Integer, BitSet> softMoveSynergy = new HashMap<>();
+    private final Map<Integer, BitSet> hardMoveAntiSynergy = new HashMap<>();
+    private final Map<Integer, BitSet> softMoveAntiSynergy = new HashMap<>();
+    private final Map<Integer, BitSet> requiredMoves = new HashMap<>();
+
+    public MoveSynergyTables(List<Move> moves, int generation, int perfectAccuracy, boolean effectivenessUpdated) {
+        for (Move mv: moves) {
+            if (mv != null) {
+                allMoves.add(mv);
+            }
+        }
+        this.generation = generation;
+        this.perfectAccuracy = perfectAccuracy;
+        this.effectivenessUpdated = effectivenessUpdated;
+    }
+
+    public List<Move> getHardAbilityMoveSynergy(int ability, Type pkType1, Type pkType2, List<Move> moveList) {
+        BitSet related = hardAbilitySynergy.computeIfAbsent(Arrays.asList(ability, pkType1, pkType2),
+                k -> toBits(MoveSynergy.getHardAbilityMoveSynergy(ability, pkType1, pkType2, allMoves, generation,
+                        perfectAccuracy)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getSoftAbilityMoveSynergy(int ability, List<Move> moveList, Type pkType1, Type pkType2) {
+        BitSet related = softAbilitySynergy.computeIfAbsent(Arrays.asList(ability, pkType1, pkType2),
+                k -> toBits(MoveSynergy.getSoftAbilityMoveSynergy(ability, allMoves, pkType1, pkType2)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getHardAbilityMoveAntiSynergy(int ability, List<Move> moveList) {
+        BitSet related = hardAbilityAntiSynergy.computeIfAbsent(ability,
+                k -> toBits(MoveSynergy.getHardAbilityMoveAntiSynergy(ability, allMoves)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getSoftAbilityMoveAntiSynergy(int ability, List<Move> moveList) {
+        BitSet related = softAbilityAntiSynergy.computeIfAbsent(ability,
+                k -> toBits(MoveSynergy.getSoftAbilityMoveAntiSynergy(ability, allMoves)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getStatMoveSynergy(Pokemon pk, List<Move> moveList) {
+        BitSet related = statSynergy.computeIfAbsent(pk, k -> toBits(MoveSynergy.getStatMoveSynergy(pk, allMoves)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getStatMoveAntiSynergy(Pokemon pk, List<Move> moveList) {
+        BitSet related = statAntiSynergy.computeIfAbsent(pk,
+                k -> toBits(MoveSynergy.getStatMoveAntiSynergy(pk, allMoves)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getMoveSynergy(Move mv1, List<Move> moveList) {
+        BitSet related = hardMoveSynergy.computeIfAbsent(mv1.number,
+                k -> toBits(MoveSynergy.getMoveSynergy(mv1, allMoves, generation)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getSoftMoveSynergy(Move mv1, List<Move> moveList) {
+        BitSet related = softMoveSynergy.computeIfAbsent(mv1.number,
+                k -> toBits(MoveSynergy.getSoftMoveSynergy(mv1, allMoves, generation, effectivenessUpdated)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getHardMoveAntiSynergy(Move mv1, List<Move> moveList) {
+        BitSet related = hardMoveAntiSynergy.computeIfAbsent(mv1.number,
+                k -> toBits(MoveSynergy.getHardMoveAntiSynergy(mv1, allMoves)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> getSoftMoveAntiSynergy(Move mv1, List<Move> moveList) {
+        BitSet related = softMoveAntiSynergy.computeIfAbsent(mv1.number,
+                k -> toBits(MoveSynergy.getSoftMoveAntiSynergy(mv1, allMoves)));
+        return filter(related, moveList);
+    }
+
+    public List<Move> requiresOtherMove(Move mv1, List<Move> moveList) {
+        BitSet related = requiredMoves.computeIfAbsent(mv1.number,
+                k -> toBits(MoveSynergy.requiresOtherMove(mv1, allMoves)));
+        return filter(related, moveList);
+    }
+
+    private static BitSet toBits(List<Move> moves) {
+        BitSet bits = new BitSet();
+        for (Move mv: moves) {
+            bits.set(mv.number);
+        }
+        return bits;
+    }
+
+    private static List<Move> filter(BitSet related, List<Move> moveList) {
+        List<Move> result = new ArrayList<>();
+        if (related.isEmpty()) {
+            return result;
+        }
+        BitSet seen = new BitSet();
+        for (Move mv: moveList) {
+            if (related.get(mv.number) && !seen.get(mv.number)) {
+                seen.set(mv.number);
+                result.add(mv);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  PokemonBSTIndex.java - a pool of Pokemon sorted by their BST          --*/
+/*--                         for power level range lookups.                 --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Indexes a pool of Pokemon by bstForPowerLevels(), so that finding every member within a BST range
+ * is a binary search instead of a scan over the whole pool.
+ * Range lookups return pool positions in ascending order, which means that results come out in the
+ * same order as iterating over the original list would give them.
+ * BSTs are read once when the index is built, so it must not outlive a change to the pool or the stats.
+ */
+public class PokemonBSTIndex {
+
+    private final Pokemon[] pool;
+    private final int[] sortedBSTs;
+    private final int[] sortedPositions;
+    private final PokemonSet members = new PokemonSet();
+
+    public PokemonBSTIndex(List<Pokemon> pool) {
+        this.pool = pool.toArray(new Pokemon[0]);
+        long[] keys = new long[this.pool.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) this.pool[i].bstForPowerLevels() << 32) | i;
+            members.add(this.pool[i]);
+        }
+        Arrays.sort(keys);
+        sortedBSTs = new int[keys.length];
+        sortedPositions = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sortedBSTs[i] = (int) (keys[i] >>> 32);
+            sortedPositions[i] = (int) keys[i];
+        }
+    }
+
+    public int size() {
+        return pool.length;
+    }
+
+    public Pokemon get(int position) {
+        return pool[position];
+    }
+
+    /**
+     * Returns the positions of all members with minBST <= BST <= maxBST, in pool order.
+     */
+    public int[] positionsInRange(int minBST, int maxBST) {
+        return positionsInRange(minBST, maxBST, 1, 0);
+    }
+
+    /**
+     * Same as above, but skips members with skipMinBST <= BST <= skipMaxBST. Used when widening a range,
+     * to only get the members that were not already in the previous one.
+     */
+    public int[] positionsInRange(int minBST, int maxBST, int skipMinBST, int skipMaxBST) {
+        int from = lowerBound(minBST);
+        int to = lowerBound(maxBST + 1);
+        int skipFrom = to, skipTo = to;
+        if (skipMinBST <= skipMaxBST) {
+            skipFrom = Math.max(from, Math.min(to, lowerBound(skipMinBST)));
+            skipTo = Math.max(skipFrom, Math.min(to, lowerBound(skipMaxBST + 1)));
+        }
+        int[] positions = new int[(skipFrom - from) + (to - skipTo)];
+        int count = 0;
+        for (int i = from; i < skipFrom; i++) {
+            positions[count++] = sortedPositions[i];
+        }
+        for (int i = skipTo; i < to; i++) {
+            positions[count++] = sortedPositions[i];
+        }
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    /**
+     * Returns true if at least one member is not in the given set.
+     */
+    public boolean hasMemberNotIn(PokemonSet pokemon) {
+        return members.hasMemberNotIn(pokemon);
+    }
+
+    // first index in sortedBSTs whose value is >= bst
+    private int lowerBound(int bst) {
+        int low = 0, high = sortedBSTs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedBSTs[mid] < bst) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,217 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  PokemonSet.java - a set of Pokemon backed by a bitset over their      --*/
+/*--                    numbers, with O(1) membership and stable iteration. --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of Pokemon keyed by Pokemon.number, for the ban/used lists that get probed over and over while
+ * randomizing. Alternate formes have their own numbers, so they are told apart without any extra offset.
+ * Iteration is always in ascending number order, no matter what order things were added in, so that
+ * anything that walks one of these sets behaves the same for the same seed.
+ * Only one Pokemon per number is kept; the set is meant to hold Pokemon from a single ROM.
+ */
+public class PokemonSet extends AbstractSet<Pokemon> {
+
+    private final BitSet numbers = new BitSet();
+    private Pokemon[] byNumber = new Pokemon[0];
+    private int size;
+    private int modCount;
+
+    public PokemonSet() {
+    }
+
+    public PokemonSet(Collection<? extends Pokemon> pokemon) {
+        addAll(pokemon);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Pokemon && numbers.get(((Pokemon) o).number);
+    }
+
+    public boolean containsNumber(int number) {
+        return numbers.get(number);
+    }
+
+    @Override
+    public boolean add(Pokemon pk) {
+        if (numbers.get(pk.number)) {
+            return false;
+        }
+        if (pk.number >= byNumber.length) {
+            byNumber = Arrays.copyOf(byNumber, Math.max(pk.number + 1, byNumber.length * 2));
+        }
+        numbers.set(pk.number);
+        byNumber[pk.number] = pk;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        removeNumber(((Pokemon) o).number);
+        return true;
+    }
+
+    private void removeNumber(int number) {
+        numbers.clear(number);
+        byNumber[number] = null;
+        size--;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        numbers.clear();
+        Arrays.fill(byNumber, null);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (c instanceof PokemonSet) {
+            BitSet missing = (BitSet) ((PokemonSet) c).numbers.clone();
+            missing.andNot(numbers);
+            return missing.isEmpty();
+        }
+        return super.containsAll(c);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Pokemon> c) {
+        if (c instanceof PokemonSet) {
+            PokemonSet other = (PokemonSet) c;
+            int before = size;
+            for (int i = other.numbers.nextSetBit(0); i >= 0; i = other.numbers.nextSetBit(i + 1)) {
+                add(other.byNumber[i]);
+            }
+            return size != before;
+        }
+        boolean changed = false;
+        for (Pokemon pk : c) {
+            changed |= add(pk);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c instanceof PokemonSet) {
+            return keepOnly(((PokemonSet) c).numbers, false);
+        }
+        boolean changed = false;
+        for (Object o : c) {
+            changed |= remove(o);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        if (c instanceof PokemonSet) {
+            return keepOnly(((PokemonSet) c).numbers, true);
+        }
+        return super.retainAll(c);
+    }
+
+    // Removes every member whose number is (or, if inOther is false, is not) missing from other
+    private boolean keepOnly(BitSet other, boolean inOther) {
+        BitSet dropped = (BitSet) numbers.clone();
+        if (inOther) {
+            dropped.andNot(other);
+        } else {
+            dropped.and(other);
+        }
+        for (int i = dropped.nextSetBit(0); i >= 0; i = dropped.nextSetBit(i + 1)) {
+            removeNumber(i);
+        }
+        return !dropped.isEmpty();
+    }
+
+    /**
+     * Returns true if this set has a member whose number is not in the given set.
+     */
+    public boolean hasMemberNotIn(PokemonSet other) {
+        return !other.containsAll(this);
+    }
+
+    @Override
+    public Iterator<Pokemon> iterator() {
+        return new Iterator<Pokemon>() {
+            private int next = numbers.nextSetBit(0);
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Pokemon next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                last = next;
+                next = numbers.nextSetBit(next + 1);
+                return byNumber[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                removeNumber(last);
+                last = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+}
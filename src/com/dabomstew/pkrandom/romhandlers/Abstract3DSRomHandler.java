@@ -24,6 +24,7 @@ package com.dabomstew.pkrandom.romhandlers;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
+import com.dabomstew.pkrandom.BLZCache;
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.ctr.GARCArchive;
 import com.dabomstew.pkrandom.ctr.NCCH;
@@ -67,6 +68,21 @@ public abstract class Abstract3DSRomHandler extends AbstractRomHandler {
         }
         loadedFN = filename;
         this.loadedROM(productCode, titleId);
+        BLZCache.prune();
+        return true;
+    }
+
+    // Loads from copies of a ROM and game update that have already been read (see RomSnapshot), so only
+    // the game's own data is parsed again. The game update is left out if it is null.
+    public boolean loadRom(String filename, NCCH source, NCCH gameUpdateSource) {
+        if (!this.detect3DSRom(source.getProductCode(), source.getTitleId())) {
+            return false;
+        }
+        baseRom = source.copy();
+        gameUpdate = gameUpdateSource == null ? null : gameUpdateSource.copy();
+        loadedFN = filename;
+        this.loadedROM(baseRom.getProductCode(), baseRom.getTitleId());
+        BLZCache.prune();
         return true;
     }
 
@@ -86,6 +102,7 @@ public abstract class Abstract3DSRomHandler extends AbstractRomHandler {
     @Override
     public boolean saveRomFile(String filename, long seed) {
         try {
+            flushModelCache();
             savingROM();
             baseRom.saveAsNCCH(filename, getGameAcronym(), seed);
         } catch (IOException | NoSuchAlgorithmException e) {
@@ -95,17 +112,20 @@ public abstract class Abstract3DSRomHandler extends AbstractRomHandler {
                 throw new RandomizerIOException(e);
             }
         }
+        BLZCache.prune();
         return true;
     }
 
     @Override
     public boolean saveRomDirectory(String filename) {
         try {
+            flushModelCache();
             savingROM();
             baseRom.saveAsLayeredFS(filename);
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
+        BLZCache.prune();
         return true;
     }
 
@@ -133,6 +153,7 @@ public abstract class Abstract3DSRomHandler extends AbstractRomHandler {
             throw new RandomizerIOException(e);
         }
         this.loadedROM(baseRom.getProductCode(), baseRom.getTitleId());
+        BLZCache.prune();
         return true;
     }
 
@@ -156,6 +177,25 @@ public abstract class Abstract3DSRomHandler extends AbstractRomHandler {
 
     public void closeInnerRom() throws IOException {
         baseRom.closeROM();
+        if (gameUpdate != null) {
+            gameUpdate.closeROM();
+        }
+    }
+
+    NCCH getNCCH() {
+        return baseRom;
+    }
+
+    NCCH getGameUpdateNCCH() {
+        return gameUpdate;
+    }
+
+    // For a handler that is done with (see RomSnapshot); handlers loaded from copies each have their own folders
+    void deleteTmpFolders() {
+        baseRom.deleteTmpFolder();
+        if (gameUpdate != null) {
+            gameUpdate.deleteTmpFolder();
+        }
     }
 
     @Override
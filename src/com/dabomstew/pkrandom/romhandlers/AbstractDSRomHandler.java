@@ -31,6 +31,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import com.dabomstew.pkrandom.BLZCache;
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.RomFunctions;
 import com.dabomstew.pkrandom.exceptions.CannotWriteToLocationException;
@@ -65,6 +66,20 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         }
         loadedFN = filename;
         loadedROM(baseRom.getCode(), baseRom.getVersion());
+        BLZCache.prune();
+        return true;
+    }
+
+    // Loads from a copy of a file system that has already been read (see RomSnapshot), so only the
+    // game's own data is parsed again.
+    public boolean loadRom(String filename, NDSRom source) {
+        if (!this.detectNDSRom(source.getCode(), source.getVersion())) {
+            return false;
+        }
+        baseRom = source.copy();
+        loadedFN = filename;
+        loadedROM(baseRom.getCode(), baseRom.getVersion());
+        BLZCache.prune();
         return true;
     }
 
@@ -87,6 +102,7 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
 
     @Override
     public boolean saveRomFile(String filename, long seed) {
+        flushModelCache();
         savingROM();
         try {
             baseRom.saveTo(filename);
@@ -97,6 +113,7 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
                 throw new RandomizerIOException(e);
             }
         }
+        BLZCache.prune();
         return true;
     }
 
@@ -138,6 +155,10 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         baseRom.closeROM();
     }
 
+    NDSRom getNDSRom() {
+        return baseRom;
+    }
+
     @Override
     public boolean canChangeStaticPokemon() {
         return false;
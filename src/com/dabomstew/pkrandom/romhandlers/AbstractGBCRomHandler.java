@@ -25,7 +25,6 @@ package com.dabomstew.pkrandom.romhandlers;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
@@ -42,6 +41,7 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
     private String[] tb;
     private Map<String, Byte> d;
     private int longestTableToken;
+    private TextTableCodec textCodec;
 
     public AbstractGBCRomHandler(Random random, PrintStream logStream) {
         super(random, logStream);
@@ -55,6 +55,7 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
             d = new HashMap<String, Byte>();
         }
         longestTableToken = 0;
+        textCodec = null;
     }
 
     protected void readTextTable(String name) {
@@ -83,6 +84,7 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
             sc.close();
         } catch (FileNotFoundException e) {
         }
+        textCodec = null;
 
     }
 
@@ -120,26 +122,20 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
         return len;
     }
 
-    protected byte[] translateString(String text) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        while (text.length() != 0) {
-            int i = Math.max(0, longestTableToken - text.length());
-            if (text.charAt(0) == '\\' && text.charAt(1) == 'x') {
-                baos.write(Integer.parseInt(text.substring(2, 4), 16));
-                text = text.substring(4);
-            } else {
-                while (!(d.containsKey(text.substring(0, longestTableToken - i)) || (i == longestTableToken))) {
-                    i++;
-                }
-                if (i == longestTableToken) {
-                    text = text.substring(1);
-                } else {
-                    baos.write(d.get(text.substring(0, longestTableToken - i)) & 0xFF);
-                    text = text.substring(longestTableToken - i);
-                }
-            }
+    // built from the tables the first time it's needed after they change
+    private TextTableCodec textCodec() {
+        if (textCodec == null) {
+            textCodec = new TextTableCodec(d, longestTableToken);
         }
-        return baos.toByteArray();
+        return textCodec;
+    }
+
+    protected byte[] translateString(String text) {
+        return textCodec().encode(text);
+    }
+
+    protected int translatedStringLength(String text) {
+        return textCodec().encodedLength(text);
     }
 
     protected String readFixedLengthString(int offset, int length) {
@@ -149,9 +145,9 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
     // pads the length with terminators, so length should be at least str's len
     // + 1
     protected void writeFixedLengthString(String str, int offset, int length) {
-        byte[] translated = translateString(str);
-        int len = Math.min(translated.length, length);
-        System.arraycopy(translated, 0, rom, offset, len);
+        int translatedLength = textCodec().encodeToBuffer(str);
+        int len = Math.min(translatedLength, length);
+        System.arraycopy(textCodec().getBuffer(), 0, rom, offset, len);
         while (len < length) {
             rom[offset + len] = GBConstants.stringTerminator;
             len++;
@@ -159,10 +155,10 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
     }
 
     protected void writeVariableLengthString(String str, int offset, boolean alreadyTerminated) {
-        byte[] translated = translateString(str);
-        System.arraycopy(translated, 0, rom, offset, translated.length);
+        int translatedLength = textCodec().encodeToBuffer(str);
+        System.arraycopy(textCodec().getBuffer(), 0, rom, offset, translatedLength);
         if (!alreadyTerminated) {
-            rom[offset + translated.length] = GBConstants.stringTerminator;
+            rom[offset + translatedLength] = GBConstants.stringTerminator;
         }
     }
 
@@ -62,6 +62,20 @@ public abstract class AbstractGBRomHandler extends AbstractRomHandler {
         return true;
     }
 
+    // Loads from a ROM image that has already been read from disk (see RomSnapshot).
+    // The given array is never written to, so it is shared as the "original" copy.
+    public boolean loadRom(String filename, byte[] contents) {
+        if (!detectRom(contents)) {
+            return false;
+        }
+        this.rom = new byte[contents.length];
+        System.arraycopy(contents, 0, rom, 0, contents.length);
+        this.originalRom = contents;
+        loadedFN = filename;
+        loadedRom();
+        return true;
+    }
+
     @Override
     public String loadedFilename() {
         return loadedFN;
@@ -69,6 +83,7 @@ public abstract class AbstractGBRomHandler extends AbstractRomHandler {
 
     @Override
     public boolean saveRomFile(String filename, long seed) {
+        flushModelCache();
         savingRom();
         try {
             FileOutputStream fos = new FileOutputStream(filename);
@@ -30,6 +30,7 @@ package com.dabomstew.pkrandom.romhandlers;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.dabomstew.pkrandom.*;
@@ -51,7 +52,7 @@ public abstract class AbstractRomHandler implements RomHandler {
     protected final Random random;
     private final Random cosmeticRandom;
     protected PrintStream logStream;
-    private List<Pokemon> alreadyPicked = new ArrayList<>();
+    private PokemonSet alreadyPicked = new PokemonSet();
     private Map<Pokemon, Integer> placementHistory = new HashMap<>();
     private Map<Integer, Integer> itemPlacementHistory = new HashMap<>();
     private int fullyEvolvedRandomSeed;
@@ -63,7 +64,9 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     public AbstractRomHandler(Random random, PrintStream logStream) {
         this.random = random;
-        this.cosmeticRandom = RandomSource.cosmeticInstance();
+        // Cosmetic choices come from the same RandomSource as everything else this handler does
+        RandomSource randomSource = RandomSource.of(random);
+        this.cosmeticRandom = randomSource != null ? randomSource.cosmeticInstance() : random;
         this.fullyEvolvedRandomSeed = -1;
         this.logStream = logStream;
     }
@@ -729,7 +732,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         List<EncounterSet> scrambledEncounters = new ArrayList<>(currentEncounters);
         Collections.shuffle(scrambledEncounters, this.random);
 
-        List<Pokemon> banned = this.bannedForWildEncounters();
+        PokemonSet banned = new PokemonSet(this.bannedForWildEncounters());
         banned.addAll(this.getBannedFormesForPlayerPokemon());
         if (!abilitiesAreRandomized) {
             List<Pokemon> abilityDependentFormes = getAbilityDependentFormes();
@@ -738,6 +741,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         if (banIrregularAltFormes) {
             banned.addAll(getIrregularFormes());
         }
+        EntirelyRandomPokemonPicker randomPicker = new EntirelyRandomPokemonPicker(allowAltFormes, noLegendaries,
+                banned, settings.isFastWildPokemonSampling());
         // Assume EITHER catch em all OR type themed OR match strength for now
         if (catchEmAll) {
             List<Pokemon> allPokes;
@@ -858,31 +863,29 @@ public abstract class AbstractRomHandler implements RomHandler {
                         : new ArrayList<>(mainPokemonList);
             }
             allowedPokes.removeAll(banned);
+            PokemonBSTIndex allowedIndex = new PokemonBSTIndex(allowedPokes);
             for (EncounterSet area : scrambledEncounters) {
-                List<Pokemon> localAllowed = allowedPokes;
-                if (area.bannedPokemon.size() > 0) {
-                    localAllowed = new ArrayList<>(allowedPokes);
-                    localAllowed.removeAll(area.bannedPokemon);
-                }
+                // Area bans are skipped while picking instead of copying the pool for every area
+                PokemonSet areaBanned = area.bannedPokemon.size() > 0 ? area.bannedPokemon : null;
                 for (Encounter enc : area.encounters) {
                     if (balanceShakingGrass) {
                         if (area.displayName.contains("Shaking")) {
-                            enc.pokemon = pickWildPowerLvlReplacement(localAllowed, enc.pokemon, false, null, (enc.level + enc.maxLevel) / 2);
+                            enc.pokemon = pickWildPowerLvlReplacement(allowedIndex, areaBanned, enc.pokemon, false, null, (enc.level + enc.maxLevel) / 2);
                             while (enc.pokemon.actuallyCosmetic) {
-                                enc.pokemon = pickWildPowerLvlReplacement(localAllowed, enc.pokemon, false, null, (enc.level + enc.maxLevel) / 2);
+                                enc.pokemon = pickWildPowerLvlReplacement(allowedIndex, areaBanned, enc.pokemon, false, null, (enc.level + enc.maxLevel) / 2);
                             }
                             setFormeForEncounter(enc, enc.pokemon);
                         } else {
-                            enc.pokemon = pickWildPowerLvlReplacement(localAllowed, enc.pokemon, false, null, 100);
+                            enc.pokemon = pickWildPowerLvlReplacement(allowedIndex, areaBanned, enc.pokemon, false, null, 100);
                             while (enc.pokemon.actuallyCosmetic) {
-                                enc.pokemon = pickWildPowerLvlReplacement(localAllowed, enc.pokemon, false, null, 100);
+                                enc.pokemon = pickWildPowerLvlReplacement(allowedIndex, areaBanned, enc.pokemon, false, null, 100);
                             }
                             setFormeForEncounter(enc, enc.pokemon);
                         }
                     } else {
-                        enc.pokemon = pickWildPowerLvlReplacement(localAllowed, enc.pokemon, false, null, 100);
+                        enc.pokemon = pickWildPowerLvlReplacement(allowedIndex, areaBanned, enc.pokemon, false, null, 100);
                         while (enc.pokemon.actuallyCosmetic) {
-                            enc.pokemon = pickWildPowerLvlReplacement(localAllowed, enc.pokemon, false, null, 100);
+                            enc.pokemon = pickWildPowerLvlReplacement(allowedIndex, areaBanned, enc.pokemon, false, null, 100);
                         }
                         setFormeForEncounter(enc, enc.pokemon);
                     }
@@ -892,7 +895,7 @@ public abstract class AbstractRomHandler implements RomHandler {
             // Entirely random
             for (EncounterSet area : scrambledEncounters) {
                 for (Encounter enc : area.encounters) {
-                    enc.pokemon = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                    enc.pokemon = randomPicker.pick(area);
                     setFormeForEncounter(enc, enc.pokemon);
                 }
             }
@@ -936,7 +939,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         boolean abilitiesAreRandomized = settings.getAbilitiesMod() == Settings.AbilitiesMod.RANDOMIZE;
 
         checkPokemonRestrictions();
-        List<Pokemon> banned = this.bannedForWildEncounters();
+        PokemonSet banned = new PokemonSet(this.bannedForWildEncounters());
         banned.addAll(this.getBannedFormesForPlayerPokemon());
         if (!abilitiesAreRandomized) {
             List<Pokemon> abilityDependentFormes = getAbilityDependentFormes();
@@ -945,6 +948,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         if (banIrregularAltFormes) {
             banned.addAll(getIrregularFormes());
         }
+        EntirelyRandomPokemonPicker randomPicker = new EntirelyRandomPokemonPicker(allowAltFormes, noLegendaries,
+                banned, settings.isFastWildPokemonSampling());
 
         // New: randomize the order encounter sets are randomized in.
         // Leads to less predictable results for various modifiers.
@@ -1086,21 +1091,18 @@ public abstract class AbstractRomHandler implements RomHandler {
                         : new ArrayList<>(mainPokemonList);
             }
             allowedPokes.removeAll(banned);
+            PokemonBSTIndex allowedIndex = new PokemonBSTIndex(allowedPokes);
             for (EncounterSet area : scrambledEncounters) {
                 // Poke-set
                 Set<Pokemon> inArea = pokemonInArea(area);
                 // Build area map using randoms
                 Map<Pokemon, Pokemon> areaMap = new TreeMap<>();
-                List<Pokemon> usedPks = new ArrayList<>();
-                List<Pokemon> localAllowed = allowedPokes;
-                if (area.bannedPokemon.size() > 0) {
-                    localAllowed = new ArrayList<>(allowedPokes);
-                    localAllowed.removeAll(area.bannedPokemon);
-                }
+                PokemonSet usedPks = new PokemonSet();
+                PokemonSet areaBanned = area.bannedPokemon.size() > 0 ? area.bannedPokemon : null;
                 for (Pokemon areaPk : inArea) {
-                    Pokemon picked = pickWildPowerLvlReplacement(localAllowed, areaPk, false, usedPks, 100);
+                    Pokemon picked = pickWildPowerLvlReplacement(allowedIndex, areaBanned, areaPk, false, usedPks, 100);
                     while (picked.actuallyCosmetic) {
-                        picked = pickWildPowerLvlReplacement(localAllowed, areaPk, false, usedPks, 100);
+                        picked = pickWildPowerLvlReplacement(allowedIndex, areaBanned, areaPk, false, usedPks, 100);
                     }
                     areaMap.put(areaPk, picked);
                     usedPks.add(picked);
@@ -1119,9 +1121,9 @@ public abstract class AbstractRomHandler implements RomHandler {
                 // Build area map using randoms
                 Map<Pokemon, Pokemon> areaMap = new TreeMap<>();
                 for (Pokemon areaPk : inArea) {
-                    Pokemon picked = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                    Pokemon picked = randomPicker.pick(area);
                     while (areaMap.containsValue(picked)) {
-                        picked = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                        picked = randomPicker.pick(area);
                     }
                     areaMap.put(areaPk, picked);
                 }
@@ -1167,7 +1169,7 @@ public abstract class AbstractRomHandler implements RomHandler {
             remainingRight = noLegendaries ? new ArrayList<>(noLegendaryList)
                     : new ArrayList<>(mainPokemonList);
         }
-        List<Pokemon> banned = this.bannedForWildEncounters();
+        PokemonSet banned = new PokemonSet(this.bannedForWildEncounters());
         banned.addAll(this.getBannedFormesForPlayerPokemon());
         if (!abilitiesAreRandomized) {
             List<Pokemon> abilityDependentFormes = getAbilityDependentFormes();
@@ -1300,7 +1302,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         boolean banIrregularAltFormes = settings.isBanIrregularAltFormes();
         boolean abilitiesAreRandomized = settings.getAbilitiesMod() == Settings.AbilitiesMod.RANDOMIZE;
 
-        List<Pokemon> banned = this.bannedForWildEncounters();
+        PokemonSet banned = new PokemonSet(this.bannedForWildEncounters());
         if (!abilitiesAreRandomized) {
             List<Pokemon> abilityDependentFormes = getAbilityDependentFormes();
             banned.addAll(abilityDependentFormes);
@@ -1308,6 +1310,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         if (banIrregularAltFormes) {
             banned.addAll(getIrregularFormes());
         }
+        EntirelyRandomPokemonPicker randomPicker = new EntirelyRandomPokemonPicker(allowAltFormes, noLegendaries,
+                banned, settings.isFastWildPokemonSampling());
         Map<Integer, List<EncounterSet>> zonesToEncounters = mapZonesToEncounters(collapsedEncounters);
         Map<Type, List<Pokemon>> cachedPokeLists = new TreeMap<>();
         for (List<EncounterSet> encountersInZone : zonesToEncounters.values()) {
@@ -1322,7 +1326,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                         for (Encounter enc : area.encounters) {
                             boolean shouldRandomize = doesAnotherEncounterWithSamePokemonExistInArea(enc, area);
                             if (shouldRandomize) {
-                                enc.pokemon = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                                enc.pokemon = randomPicker.pick(area);
                                 setFormeForEncounter(enc, enc.pokemon);
                             }
                         }
@@ -1384,7 +1388,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                     } else {
                         // Entirely random
                         for (Encounter enc : area.encounters) {
-                            enc.pokemon = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                            enc.pokemon = randomPicker.pick(area);
                             setFormeForEncounter(enc, enc.pokemon);
                         }
                     }
@@ -1413,7 +1417,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                 if (catchEmAll) {
                     boolean shouldRandomize = doesAnotherEncounterWithSamePokemonExistInArea(enc, area);
                     if (shouldRandomize) {
-                        enc.pokemon = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                        enc.pokemon = randomPicker.pick(area);
                         setFormeForEncounter(enc, enc.pokemon);
                     }
                 } else if (typeThemed) {
@@ -1462,7 +1466,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                     setFormeForEncounter(enc, enc.pokemon);
                 } else {
                     // Entirely random
-                    enc.pokemon = pickEntirelyRandomPokemon(allowAltFormes, noLegendaries, area, banned);
+                    enc.pokemon = randomPicker.pick(area);
                     setFormeForEncounter(enc, enc.pokemon);
                 }
                 crashThreshold = computeDexNavCrashThreshold(encountersInZone);
@@ -1585,7 +1589,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         return crashThreshold;
     }
 
-    private void setEvoChainAsIllegal(Pokemon newPK, List<Pokemon> illegalList, boolean willForceEvolve) {
+    private void setEvoChainAsIllegal(Pokemon newPK, PokemonSet illegalList, boolean willForceEvolve) {
         // set pre-evos as illegal
         setIllegalPreEvos(newPK, illegalList);
 
@@ -1595,7 +1599,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         }
     }
 
-    private void setIllegalPreEvos(Pokemon pk, List<Pokemon> illegalList) {
+    private void setIllegalPreEvos(Pokemon pk, PokemonSet illegalList) {
         for (Evolution evo: pk.evolutionsTo) {
             pk = evo.from;
             illegalList.add(pk);
@@ -1603,7 +1607,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         }
     }
 
-    private void setIllegalEvos(Pokemon pk, List<Pokemon> illegalList) {
+    private void setIllegalEvos(Pokemon pk, PokemonSet illegalList) {
         for (Evolution evo: pk.evolutionsFrom) {
             pk = evo.to;
             illegalList.add(pk);
@@ -1679,6 +1683,7 @@ public abstract class AbstractRomHandler implements RomHandler {
 
         // Set up Pokemon pool
         cachedReplacementLists = new TreeMap<>();
+        cachedBSTIndexes = new IdentityHashMap<>();
         cachedAllList = noLegendaries ? new ArrayList<>(noLegendaryList) : new ArrayList<>(
                 mainPokemonList);
         if (includeFormes) {
@@ -1781,8 +1786,8 @@ public abstract class AbstractRomHandler implements RomHandler {
 
         // Elite Four Unique Pokemon related
         boolean eliteFourUniquePokemon = eliteFourUniquePokemonNumber > 0;
-        List<Pokemon> illegalIfEvolvedList = new ArrayList<>();
-        List<Pokemon> bannedFromUniqueList = new ArrayList<>();
+        PokemonSet illegalIfEvolvedList = new PokemonSet();
+        PokemonSet bannedFromUniqueList = new PokemonSet();
         boolean illegalEvoChains = false;
         List<Integer> eliteFourIndices = getEliteFourTrainers(forceChallengeMode);
         if (eliteFourUniquePokemon) {
@@ -1875,8 +1880,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                     oldPK = getAltFormeOfPokemon(oldPK, tp.forme);
                 }
 
-                bannedList = new ArrayList<>();
-                bannedList.addAll(usedAsUniqueList);
+                bannedList = new PokemonSet(usedAsUniqueList);
                 if (illegalEvoChains && willForceEvolve) {
                     bannedList.addAll(illegalIfEvolvedList);
                 }
@@ -2160,127 +2164,76 @@ public abstract class AbstractRomHandler implements RomHandler {
         this.setTrainers(currentTrainers, true);
     }
 
-    private Map<Integer, List<MoveLearnt>> allLevelUpMoves;
-    private Map<Integer, List<Integer>> allEggMoves;
-    private Map<Pokemon, boolean[]> allTMCompat, allTutorCompat;
-    private List<Integer> allTMMoves, allTutorMoves;
+    private MovePoolIndex movePoolIndex;
 
     @Override
     public List<Move> getMoveSelectionPoolAtLevel(TrainerPokemon tp, boolean cyclicEvolutions) {
 
-        List<Move> moves = getMoves();
         double eggMoveProbability = 0.1;
         double preEvoMoveProbability = 0.5;
         double tmMoveProbability = 0.6;
         double tutorMoveProbability = 0.6;
 
-        if (allLevelUpMoves == null) {
-            allLevelUpMoves = getMovesLearnt();
+        if (movePoolIndex == null) {
+            movePoolIndex = new MovePoolIndex();
         }
 
-        if (allEggMoves == null) {
-            allEggMoves = getEggMoves();
-        }
-
-        if (allTMCompat == null) {
-            allTMCompat = getTMHMCompatibility();
-        }
-
-        if (allTMMoves == null) {
-            allTMMoves = getTMMoves();
-        }
-
-        if (allTutorCompat == null && hasMoveTutors()) {
-            allTutorCompat = getMoveTutorCompatibility();
-        }
-
-        if (allTutorMoves == null) {
-            allTutorMoves = getMoveTutorMoves();
-        }
+        Pokemon pk = getAltFormeOfPokemon(tp.pokemon, tp.forme);
+        Pokemon evolutionBase = altFormesCanHaveDifferentEvolutions() ? pk : tp.pokemon;
 
         // Level-up Moves
-        List<Move> moveSelectionPoolAtLevel = allLevelUpMoves.get(getAltFormeOfPokemon(tp.pokemon, tp.forme).number)
-                .stream()
-                .filter(ml -> (ml.level <= tp.level && ml.level != 0) || (ml.level == 0 && tp.level >= 30))
-                .map(ml -> moves.get(ml.move))
-                .distinct()
-                .collect(Collectors.toList());
+        List<Move> moveSelectionPoolAtLevel = new ArrayList<>();
+        movePoolIndex.levelUpMoves(pk.number).addMovesUpTo(tp.level, tp.level >= 30, moveSelectionPoolAtLevel);
 
         // Pre-Evo Moves
         if (!cyclicEvolutions) {
-            Pokemon preEvo;
-            if (altFormesCanHaveDifferentEvolutions()) {
-                preEvo = getAltFormeOfPokemon(tp.pokemon, tp.forme);
-            } else {
-                preEvo = tp.pokemon;
-            }
-            while (!preEvo.evolutionsTo.isEmpty()) {
-                preEvo = preEvo.evolutionsTo.get(0).from;
-                moveSelectionPoolAtLevel.addAll(allLevelUpMoves.get(preEvo.number)
-                        .stream()
-                        .filter(ml -> ml.level <= tp.level)
-                        .filter(ml -> this.random.nextDouble() < preEvoMoveProbability)
-                        .map(ml -> moves.get(ml.move))
-                        .distinct()
-                        .collect(Collectors.toList()));
+            for (Pokemon preEvo: movePoolIndex.preEvolutions(evolutionBase)) {
+                LevelUpMovePool preEvoMoves = movePoolIndex.levelUpMoves(preEvo.number);
+                for (int position: preEvoMoves.positionsUpTo(tp.level, true)) {
+                    if (this.random.nextDouble() < preEvoMoveProbability) {
+                        moveSelectionPoolAtLevel.add(preEvoMoves.moves[position]);
+                    }
+                }
             }
         }
 
         // TM Moves
-        boolean[] tmCompat = allTMCompat.get(getAltFormeOfPokemon(tp.pokemon, tp.forme));
-        for (int tmMove: allTMMoves) {
-            if (tmCompat[allTMMoves.indexOf(tmMove) + 1]) {
-                Move thisMove = moves.get(tmMove);
-                if (thisMove.power > 1 && tp.level * 3 > thisMove.power * thisMove.hitCount &&
-                        this.random.nextDouble() < tmMoveProbability) {
-                    moveSelectionPoolAtLevel.add(thisMove);
-                } else if ((thisMove.power <= 1 && this.random.nextInt(100) < tp.level) ||
-                        this.random.nextInt(200) < tp.level) {
-                    moveSelectionPoolAtLevel.add(thisMove);
-                }
+        for (Move thisMove: movePoolIndex.compatibleTMMoves(pk)) {
+            if (thisMove.power > 1 && tp.level * 3 > thisMove.power * thisMove.hitCount &&
+                    this.random.nextDouble() < tmMoveProbability) {
+                moveSelectionPoolAtLevel.add(thisMove);
+            } else if ((thisMove.power <= 1 && this.random.nextInt(100) < tp.level) ||
+                    this.random.nextInt(200) < tp.level) {
+                moveSelectionPoolAtLevel.add(thisMove);
             }
         }
 
         // Move Tutor Moves
         if (hasMoveTutors()) {
-            boolean[] tutorCompat = allTutorCompat.get(getAltFormeOfPokemon(tp.pokemon, tp.forme));
-            for (int tutorMove: allTutorMoves) {
-                if (tutorCompat[allTutorMoves.indexOf(tutorMove) + 1]) {
-                    Move thisMove = moves.get(tutorMove);
-                    if (thisMove.power > 1 && tp.level * 3 > thisMove.power * thisMove.hitCount &&
-                            this.random.nextDouble() < tutorMoveProbability) {
-                        moveSelectionPoolAtLevel.add(thisMove);
-                    } else if ((thisMove.power <= 1 && this.random.nextInt(100) < tp.level) ||
-                            this.random.nextInt(200) < tp.level) {
-                        moveSelectionPoolAtLevel.add(thisMove);
-                    }
+            for (Move thisMove: movePoolIndex.compatibleTutorMoves(pk)) {
+                if (thisMove.power > 1 && tp.level * 3 > thisMove.power * thisMove.hitCount &&
+                        this.random.nextDouble() < tutorMoveProbability) {
+                    moveSelectionPoolAtLevel.add(thisMove);
+                } else if ((thisMove.power <= 1 && this.random.nextInt(100) < tp.level) ||
+                        this.random.nextInt(200) < tp.level) {
+                    moveSelectionPoolAtLevel.add(thisMove);
                 }
             }
         }
 
         // Egg Moves
         if (!cyclicEvolutions) {
-            Pokemon firstEvo;
-            if (altFormesCanHaveDifferentEvolutions()) {
-                firstEvo = getAltFormeOfPokemon(tp.pokemon, tp.forme);
-            } else {
-                firstEvo = tp.pokemon;
-            }
-            while (!firstEvo.evolutionsTo.isEmpty()) {
-                firstEvo = firstEvo.evolutionsTo.get(0).from;
-            }
-            if (allEggMoves.get(firstEvo.number) != null) {
-                moveSelectionPoolAtLevel.addAll(allEggMoves.get(firstEvo.number)
-                        .stream()
-                        .filter(egm -> this.random.nextDouble() < eggMoveProbability)
-                        .map(moves::get)
-                        .collect(Collectors.toList()));
+            Move[] eggMoves = movePoolIndex.eggMoves(evolutionBase);
+            if (eggMoves != null) {
+                for (Move eggMove: eggMoves) {
+                    if (this.random.nextDouble() < eggMoveProbability) {
+                        moveSelectionPoolAtLevel.add(eggMove);
+                    }
+                }
             }
         }
 
-
-
-        return moveSelectionPoolAtLevel.stream().distinct().collect(Collectors.toList());
+        return new ArrayList<>(new LinkedHashSet<>(moveSelectionPoolAtLevel));
     }
 
     @Override
@@ -2289,6 +2242,9 @@ public abstract class AbstractRomHandler implements RomHandler {
         boolean doubleBattleMode = settings.isDoubleBattleMode();
 
         List<Trainer> trainers = getTrainers();
+        MoveSynergyTables synergyTables = new MoveSynergyTables(getMoves(), generationOfPokemon(), perfectAccuracy,
+                isEffectivenessUpdated());
+        MovesetPool pool = new MovesetPool(getMoves());
 
         for (Trainer t: trainers) {
             t.setPokemonHaveCustomMoves(true);
@@ -2298,7 +2254,7 @@ public abstract class AbstractRomHandler implements RomHandler {
 
                 List<Move> movesAtLevel = getMoveSelectionPoolAtLevel(tp, isCyclicEvolutions);
 
-                movesAtLevel = trimMoveList(tp, movesAtLevel, doubleBattleMode);
+                movesAtLevel = trimMoveList(tp, movesAtLevel, doubleBattleMode, synergyTables);
 
                 if (movesAtLevel.isEmpty()) {
                     continue;
@@ -2325,126 +2281,82 @@ public abstract class AbstractRomHandler implements RomHandler {
                 // Add bias for STAB
 
                 Pokemon pk = getAltFormeOfPokemon(tp.pokemon, tp.forme);
+                int ability = getAbilityForTrainerPokemon(tp);
+                pool.reset(movesAtLevel);
 
-                List<Move> stabMoves = new ArrayList<>(movesAtLevel)
-                        .stream()
-                        .filter(mv -> mv.type == pk.primaryType && mv.category != MoveCategory.STATUS)
-                        .collect(Collectors.toList());
+                List<Move> stabMoves = pool.matching(mv -> mv.type == pk.primaryType &&
+                        mv.category != MoveCategory.STATUS);
                 Collections.shuffle(stabMoves, this.random);
-
-                for (int i = 0; i < stabMoveBias * stabMoves.size(); i++) {
-                    int j = i % stabMoves.size();
-                    movesAtLevel.add(stabMoves.get(j));
-                }
+                pool.addBiased(stabMoves, stabMoveBias);
 
                 if (pk.secondaryType != null) {
-                    stabMoves = new ArrayList<>(movesAtLevel)
-                            .stream()
-                            .filter(mv -> mv.type == pk.secondaryType && mv.category != MoveCategory.STATUS)
-                            .collect(Collectors.toList());
+                    stabMoves = pool.matching(mv -> mv.type == pk.secondaryType && mv.category != MoveCategory.STATUS);
                     Collections.shuffle(stabMoves, this.random);
-
-                    for (int i = 0; i < stabMoveBias * stabMoves.size(); i++) {
-                        int j = i % stabMoves.size();
-                        movesAtLevel.add(stabMoves.get(j));
-                    }
+                    pool.addBiased(stabMoves, stabMoveBias);
                 }
 
                 // Hard ability/move synergy
 
-                List<Move> abilityMoveSynergyList = MoveSynergy.getHardAbilityMoveSynergy(
-                        getAbilityForTrainerPokemon(tp),
+                List<Move> abilityMoveSynergyList = synergyTables.getHardAbilityMoveSynergy(
+                        ability,
                         pk.primaryType,
                         pk.secondaryType,
-                        movesAtLevel,
-                        generationOfPokemon(),
-                        perfectAccuracy);
+                        pool);
                 Collections.shuffle(abilityMoveSynergyList, this.random);
-                for (int i = 0; i < hardAbilityMoveBias * abilityMoveSynergyList.size(); i++) {
-                    int j = i % abilityMoveSynergyList.size();
-                    movesAtLevel.add(abilityMoveSynergyList.get(j));
-                }
+                pool.addBiased(abilityMoveSynergyList, hardAbilityMoveBias);
 
                 // Soft ability/move synergy
 
-                List<Move> softAbilityMoveSynergyList = MoveSynergy.getSoftAbilityMoveSynergy(
-                        getAbilityForTrainerPokemon(tp),
-                        movesAtLevel,
+                List<Move> softAbilityMoveSynergyList = synergyTables.getSoftAbilityMoveSynergy(
+                        ability,
+                        pool,
                         pk.primaryType,
                         pk.secondaryType);
 
                 Collections.shuffle(softAbilityMoveSynergyList, this.random);
-                for (int i = 0; i < softAbilityMoveBias * softAbilityMoveSynergyList.size(); i++) {
-                    int j = i % softAbilityMoveSynergyList.size();
-                    movesAtLevel.add(softAbilityMoveSynergyList.get(j));
-                }
+                pool.addBiased(softAbilityMoveSynergyList, softAbilityMoveBias);
 
                 // Soft ability/move anti-synergy
 
-                List<Move> softAbilityMoveAntiSynergyList = MoveSynergy.getSoftAbilityMoveAntiSynergy(
-                        getAbilityForTrainerPokemon(tp), movesAtLevel);
-                List<Move> withoutSoftAntiSynergy = new ArrayList<>(movesAtLevel);
-                for (Move mv: softAbilityMoveAntiSynergyList) {
-                    withoutSoftAntiSynergy.remove(mv);
-                }
-                if (withoutSoftAntiSynergy.size() > 0) {
-                    movesAtLevel = withoutSoftAntiSynergy;
+                // Every anti-synergy move is in the pool, so taking one of each out only empties it if the pool
+                // had nothing else
+                List<Move> softAbilityMoveAntiSynergyList = synergyTables.getSoftAbilityMoveAntiSynergy(
+                        ability, pool);
+                if (pool.size() > softAbilityMoveAntiSynergyList.size()) {
+                    for (Move mv: softAbilityMoveAntiSynergyList) {
+                        pool.removeFirst(mv);
+                    }
                 }
 
-                List<Move> distinctMoveList = movesAtLevel.stream().distinct().collect(Collectors.toList());
-                int movesLeft = distinctMoveList.size();
-
-                if (movesLeft <= 4) {
-
-                    for (int i = 0; i < 4; i++) {
-                        if (i < movesLeft) {
-                            tp.moves[i] = distinctMoveList.get(i).number;
-                        } else {
-                            tp.moves[i] = 0;
-                        }
-                    }
+                if (pool.distinctCount() <= 4) {
+                    setTrainerPokemonMoves(tp, pool.distinctMoves());
                     continue;
                 }
 
                 // Stat/move synergy
 
-                List<Move> statSynergyList = MoveSynergy.getStatMoveSynergy(pk, movesAtLevel);
+                List<Move> statSynergyList = synergyTables.getStatMoveSynergy(pk, pool);
                 Collections.shuffle(statSynergyList, this.random);
-                for (int i = 0; i < statBias * statSynergyList.size(); i++) {
-                    int j = i % statSynergyList.size();
-                    movesAtLevel.add(statSynergyList.get(j));
-                }
+                pool.addBiased(statSynergyList, statBias);
 
                 // Stat/move anti-synergy
 
-                List<Move> statAntiSynergyList = MoveSynergy.getStatMoveAntiSynergy(pk, movesAtLevel);
-                List<Move> withoutStatAntiSynergy = new ArrayList<>(movesAtLevel);
-                for (Move mv: statAntiSynergyList) {
-                    withoutStatAntiSynergy.remove(mv);
-                }
-                if (withoutStatAntiSynergy.size() > 0) {
-                    movesAtLevel = withoutStatAntiSynergy;
+                List<Move> statAntiSynergyList = synergyTables.getStatMoveAntiSynergy(pk, pool);
+                if (pool.size() > statAntiSynergyList.size()) {
+                    for (Move mv: statAntiSynergyList) {
+                        pool.removeFirst(mv);
+                    }
                 }
 
-                distinctMoveList = movesAtLevel.stream().distinct().collect(Collectors.toList());
-                movesLeft = distinctMoveList.size();
-
-                if (movesLeft <= 4) {
-
-                    for (int i = 0; i < 4; i++) {
-                        if (i < movesLeft) {
-                            tp.moves[i] = distinctMoveList.get(i).number;
-                        } else {
-                            tp.moves[i] = 0;
-                        }
-                    }
+                if (pool.distinctCount() <= 4) {
+                    setTrainerPokemonMoves(tp, pool.distinctMoves());
                     continue;
                 }
 
                 // Add bias for atk/spatk ratio
 
                 double atkSpatkRatio = (double)pk.attack / (double)pk.spatk;
-                switch(getAbilityForTrainerPokemon(tp)) {
+                switch(ability) {
                     case Abilities.hugePower:
                     case Abilities.purePower:
                         atkSpatkRatio *= 2;
@@ -2461,14 +2373,8 @@ public abstract class AbstractRomHandler implements RomHandler {
                         break;
                 }
 
-                List<Move> physicalMoves = new ArrayList<>(movesAtLevel)
-                        .stream()
-                        .filter(mv -> mv.category == MoveCategory.PHYSICAL)
-                        .collect(Collectors.toList());
-                List<Move> specialMoves = new ArrayList<>(movesAtLevel)
-                        .stream()
-                        .filter(mv -> mv.category == MoveCategory.SPECIAL)
-                        .collect(Collectors.toList());
+                List<Move> physicalMoves = pool.matching(mv -> mv.category == MoveCategory.PHYSICAL);
+                List<Move> specialMoves = pool.matching(mv -> mv.category == MoveCategory.SPECIAL);
 
                 if (atkSpatkRatio < 1 && specialMoves.size() > 0) {
                     atkSpatkRatio = 1 / atkSpatkRatio;
@@ -2476,14 +2382,14 @@ public abstract class AbstractRomHandler implements RomHandler {
                     int additionalMoves = (int)(physicalMoves.size() * acceptedRatio) - specialMoves.size();
                     for (int i = 0; i < additionalMoves; i++) {
                         Move mv = specialMoves.get(this.random.nextInt(specialMoves.size()));
-                        movesAtLevel.add(mv);
+                        pool.add(mv);
                     }
                 } else if (physicalMoves.size() > 0) {
                     double acceptedRatio = atkSpatkRatioModifier * atkSpatkRatio;
                     int additionalMoves = (int)(specialMoves.size() * acceptedRatio) - physicalMoves.size();
                     for (int i = 0; i < additionalMoves; i++) {
                         Move mv = physicalMoves.get(this.random.nextInt(physicalMoves.size()));
-                        movesAtLevel.add(mv);
+                        pool.add(mv);
                     }
                 }
 
@@ -2496,34 +2402,28 @@ public abstract class AbstractRomHandler implements RomHandler {
                     List<Move> pickFrom;
 
                     if (i == 1) {
-                        pickFrom = movesAtLevel
-                                .stream()
-                                .filter(mv -> mv.isGoodDamaging(perfectAccuracy))
-                                .collect(Collectors.toList());
+                        pickFrom = pool.matching(mv -> mv.isGoodDamaging(perfectAccuracy));
                         if (pickFrom.isEmpty()) {
-                            pickFrom = movesAtLevel;
+                            pickFrom = pool;
                         }
                     } else {
-                        pickFrom = movesAtLevel;
+                        pickFrom = pool;
                     }
 
                     if (i == 4) {
-                        List<Move> requiresOtherMove = movesAtLevel
-                                .stream()
-                                .filter(mv -> GlobalConstants.requiresOtherMove.contains(mv.number))
-                                .distinct()
-                                .collect(Collectors.toList());
+                        List<Move> requiresOtherMove = pool.distinctMatching(
+                                mv -> GlobalConstants.requiresOtherMove.contains(mv.number));
 
                         for (Move dependentMove: requiresOtherMove) {
                             boolean hasRequiredMove = false;
-                            for (Move requiredMove: MoveSynergy.requiresOtherMove(dependentMove, movesAtLevel)) {
+                            for (Move requiredMove: synergyTables.requiresOtherMove(dependentMove, pool)) {
                                 if (pickedMoves.contains(requiredMove)) {
                                     hasRequiredMove = true;
                                     break;
                                 }
                             }
                             if (!hasRequiredMove) {
-                                movesAtLevel.removeAll(Collections.singletonList(dependentMove));
+                                pool.removeAll(dependentMove);
                             }
                         }
                     }
@@ -2535,74 +2435,63 @@ public abstract class AbstractRomHandler implements RomHandler {
                         break;
                     }
 
-                    movesAtLevel.removeAll(Collections.singletonList(move));
-
-                    movesAtLevel.removeAll(MoveSynergy.getHardMoveAntiSynergy(move, movesAtLevel));
+                    pool.removeAll(move);
 
-                    distinctMoveList = movesAtLevel.stream().distinct().collect(Collectors.toList());
-                    movesLeft = distinctMoveList.size();
+                    for (Move mv: synergyTables.getHardMoveAntiSynergy(move, pool)) {
+                        pool.removeAll(mv);
+                    }
 
-                    if (movesLeft <= (4 - i)) {
-                        pickedMoves.addAll(distinctMoveList);
+                    if (pool.distinctCount() <= (4 - i)) {
+                        pickedMoves.addAll(pool.distinctMoves());
                         break;
                     }
 
-                    List<Move> hardMoveSynergyList = MoveSynergy.getMoveSynergy(
+                    List<Move> hardMoveSynergyList = synergyTables.getMoveSynergy(
                             move,
-                            movesAtLevel,
-                            generationOfPokemon());
+                            pool);
                     Collections.shuffle(hardMoveSynergyList, this.random);
-                    for (int j = 0; j < hardMoveBias * hardMoveSynergyList.size(); j++) {
-                        int k = j % hardMoveSynergyList.size();
-                        movesAtLevel.add(hardMoveSynergyList.get(k));
-                    }
+                    pool.addBiased(hardMoveSynergyList, hardMoveBias);
 
-                    List<Move> softMoveSynergyList = MoveSynergy.getSoftMoveSynergy(
+                    List<Move> softMoveSynergyList = synergyTables.getSoftMoveSynergy(
                             move,
-                            movesAtLevel,
-                            generationOfPokemon(),
-                            isEffectivenessUpdated());
+                            pool);
                     Collections.shuffle(softMoveSynergyList, this.random);
-                    for (int j = 0; j < softMoveBias * softMoveSynergyList.size(); j++) {
-                        int k = j % softMoveSynergyList.size();
-                        movesAtLevel.add(softMoveSynergyList.get(k));
-                    }
+                    pool.addBiased(softMoveSynergyList, softMoveBias);
 
-                    List<Move> softMoveAntiSynergyList = MoveSynergy.getSoftMoveAntiSynergy(move, movesAtLevel);
+                    List<Move> softMoveAntiSynergyList = synergyTables.getSoftMoveAntiSynergy(move, pool);
                     Collections.shuffle(softMoveAntiSynergyList, this.random);
                     for (int j = 0; j < softMoveAntiBias * softMoveAntiSynergyList.size(); j++) {
-                        distinctMoveList = movesAtLevel.stream().distinct().collect(Collectors.toList());
-                        if (distinctMoveList.size() <= (4 - i)) {
+                        if (pool.distinctCount() <= (4 - i)) {
                             break;
                         }
                         int k = j % softMoveAntiSynergyList.size();
-                        movesAtLevel.remove(softMoveAntiSynergyList.get(k));
+                        pool.removeFirst(softMoveAntiSynergyList.get(k));
                     }
 
-                    distinctMoveList = movesAtLevel.stream().distinct().collect(Collectors.toList());
-                    movesLeft = distinctMoveList.size();
-
-                    if (movesLeft <= (4 - i)) {
-                        pickedMoves.addAll(distinctMoveList);
+                    if (pool.distinctCount() <= (4 - i)) {
+                        pickedMoves.addAll(pool.distinctMoves());
                         break;
                     }
                 }
 
-                int movesPicked = pickedMoves.size();
-
-                for (int i = 0; i < 4; i++) {
-                    if (i < movesPicked) {
-                        tp.moves[i] = pickedMoves.get(i).number;
-                    } else {
-                        tp.moves[i] = 0;
-                    }
-                }
+                setTrainerPokemonMoves(tp, pickedMoves);
             }
         }
         setTrainers(trainers, false);
     }
 
-    private List<Move> trimMoveList(TrainerPokemon tp, List<Move> movesAtLevel, boolean doubleBattleMode) {
+    private void setTrainerPokemonMoves(TrainerPokemon tp, List<Move> moves) {
+        for (int i = 0; i < 4; i++) {
+            if (i < moves.size()) {
+                tp.moves[i] = moves.get(i).number;
+            } else {
+                tp.moves[i] = 0;
+            }
+        }
+    }
+
+    private List<Move> trimMoveList(TrainerPokemon tp, List<Move> movesAtLevel, boolean doubleBattleMode,
+                                    MoveSynergyTables synergyTables) {
         int movesLeft = movesAtLevel.size();
 
         if (movesLeft <= 4) {
@@ -2660,7 +2549,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                 .collect(Collectors.toList());
 
         for (Move dependentMove: requiresOtherMove) {
-            if (MoveSynergy.requiresOtherMove(dependentMove, movesAtLevel).isEmpty()) {
+            if (synergyTables.requiresOtherMove(dependentMove, movesAtLevel).isEmpty()) {
                 movesAtLevel.remove(dependentMove);
             }
         }
@@ -2681,7 +2570,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         // Remove hard ability anti-synergy moves
 
         List<Move> withoutHardAntiSynergy = new ArrayList<>(movesAtLevel);
-        withoutHardAntiSynergy.removeAll(MoveSynergy.getHardAbilityMoveAntiSynergy(
+        withoutHardAntiSynergy.removeAll(synergyTables.getHardAbilityMoveAntiSynergy(
                 getAbilityForTrainerPokemon(tp),
                 movesAtLevel));
 
@@ -6839,8 +6728,9 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     private Map<Type, List<Pokemon>> cachedReplacementLists;
     private List<Pokemon> cachedAllList;
-    private List<Pokemon> bannedList = new ArrayList<>();
-    private List<Pokemon> usedAsUniqueList = new ArrayList<>();
+    private Map<List<Pokemon>, PokemonBSTIndex> cachedBSTIndexes;
+    private PokemonSet bannedList = new PokemonSet();
+    private PokemonSet usedAsUniqueList = new PokemonSet();
 
 
     private Pokemon pickTrainerPokeReplacement(Pokemon current, boolean usePowerLevels, Type type,
@@ -6850,6 +6740,8 @@ public abstract class AbstractRomHandler implements RomHandler {
                                                boolean banIrregularAltFormes) {
         List<Pokemon> pickFrom;
         List<Pokemon> withoutBannedPokemon;
+        // Only the cached pools stay the same between calls, the rest are built fresh every time
+        boolean pickFromIsCached = false;
 
         if (swapMegaEvos) {
             pickFrom = megaEvolutionsList
@@ -6860,6 +6752,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                     .collect(Collectors.toList());
         } else {
             pickFrom = cachedAllList;
+            pickFromIsCached = true;
         }
 
         if (usePlacementHistory) {
@@ -6872,6 +6765,7 @@ public abstract class AbstractRomHandler implements RomHandler {
             if (pickFrom.isEmpty()) {
                 pickFrom = cachedAllList;
             }
+            pickFromIsCached = pickFrom == cachedAllList;
         } else if (type != null && cachedReplacementLists != null) {
             // "Type Themed" settings
             if (!cachedReplacementLists.containsKey(type)) {
@@ -6894,18 +6788,22 @@ public abstract class AbstractRomHandler implements RomHandler {
                         .collect(Collectors.toList());
                 if (pickFrom.isEmpty()) {
                     pickFrom = cachedReplacementLists.get(type);
+                    pickFromIsCached = true;
                 }
             } else {
                 pickFrom = cachedReplacementLists.get(type);
+                pickFromIsCached = true;
             }
         }
 
-        withoutBannedPokemon = pickFrom.stream().filter(pk -> !bannedList.contains(pk)).collect(Collectors.toList());
-        if (!withoutBannedPokemon.isEmpty()) {
-            pickFrom = withoutBannedPokemon;
-        }
+        PokemonSet banned = bannedList;
 
         if (usePowerLevels) {
+            PokemonBSTIndex pickFromIndex = pickFromIsCached ?
+                    cachedBSTIndexes.computeIfAbsent(pickFrom, PokemonBSTIndex::new) : new PokemonBSTIndex(pickFrom);
+            // If everything is banned, ignore the bans rather than having nothing to pick from
+            boolean excludeBanned = pickFromIndex.hasMemberNotIn(banned);
+
             // start with within 10% and add 5% either direction till we find
             // something
             int currentBST = current.bstForPowerLevels();
@@ -6914,9 +6812,10 @@ public abstract class AbstractRomHandler implements RomHandler {
             List<Pokemon> canPick = new ArrayList<>();
             int expandRounds = 0;
             while (canPick.isEmpty() || (canPick.size() < 3 && expandRounds < 2)) {
-                for (Pokemon pk : pickFrom) {
-                    if (pk.bstForPowerLevels() >= minTarget
-                            && pk.bstForPowerLevels() <= maxTarget
+                // Each round adds everything in the widened range again, including what earlier rounds added
+                for (int position : pickFromIndex.positionsInRange(minTarget, maxTarget)) {
+                    Pokemon pk = pickFromIndex.get(position);
+                    if ((!excludeBanned || !banned.contains(pk))
                             && (wonderGuardAllowed || (pk.ability1 != Abilities.wonderGuard
                                     && pk.ability2 != Abilities.wonderGuard && pk.ability3 != Abilities.wonderGuard))) {
                         canPick.add(pk);
@@ -6945,6 +6844,10 @@ public abstract class AbstractRomHandler implements RomHandler {
             }
             return chosenPokemon;
         } else {
+            withoutBannedPokemon = pickFrom.stream().filter(pk -> !banned.contains(pk)).collect(Collectors.toList());
+            if (!withoutBannedPokemon.isEmpty()) {
+                pickFrom = withoutBannedPokemon;
+            }
             if (wonderGuardAllowed) {
                 return pickFrom.get(this.random.nextInt(pickFrom.size()));
             } else {
@@ -6961,22 +6864,43 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     private Pokemon pickWildPowerLvlReplacement(List<Pokemon> pokemonPool, Pokemon current, boolean banSamePokemon,
             List<Pokemon> usedUp, int bstBalanceLevel) {
+        return pickWildPowerLvlReplacement(new PokemonBSTIndex(pokemonPool), null, current, banSamePokemon,
+                usedUp == null ? null : new PokemonSet(usedUp), bstBalanceLevel);
+    }
+
+    // excluded and usedUp may be null
+    private Pokemon pickWildPowerLvlReplacement(PokemonBSTIndex poolIndex, PokemonSet excluded, Pokemon current,
+                                                boolean banSamePokemon, PokemonSet usedUp, int bstBalanceLevel) {
         // start with within 10% and add 5% either direction till we find
         // something
         int balancedBST = bstBalanceLevel * 10 + 250;
         int currentBST = Math.min(current.bstForPowerLevels(), balancedBST);
         int minTarget = currentBST - currentBST / 10;
         int maxTarget = currentBST + currentBST / 10;
+        return pickPowerLvlReplacement(poolIndex, excluded, current, banSamePokemon, usedUp, currentBST, minTarget,
+                maxTarget);
+    }
+
+    // Shared by the wild and static pickers: widen the range until there is enough to pick from,
+    // only ever adding each Pokemon once
+    private Pokemon pickPowerLvlReplacement(PokemonBSTIndex poolIndex, PokemonSet excluded, Pokemon current,
+                                            boolean banSamePokemon, PokemonSet usedUp, int currentBST, int minTarget,
+                                            int maxTarget) {
         List<Pokemon> canPick = new ArrayList<>();
+        PokemonSet inCanPick = new PokemonSet();
+        // Members of the previous round's range have already been added (or rejected), so skip them
+        int previousMin = 1, previousMax = 0;
         int expandRounds = 0;
         while (canPick.isEmpty() || (canPick.size() < 3 && expandRounds < 3)) {
-            for (Pokemon pk : pokemonPool) {
-                if (pk.bstForPowerLevels() >= minTarget && pk.bstForPowerLevels() <= maxTarget
-                        && (!banSamePokemon || pk != current) && (usedUp == null || !usedUp.contains(pk))
-                        && !canPick.contains(pk)) {
+            for (int position : poolIndex.positionsInRange(minTarget, maxTarget, previousMin, previousMax)) {
+                Pokemon pk = poolIndex.get(position);
+                if ((!banSamePokemon || pk != current) && (excluded == null || !excluded.contains(pk))
+                        && (usedUp == null || !usedUp.contains(pk)) && inCanPick.add(pk)) {
                     canPick.add(pk);
                 }
             }
+            previousMin = minTarget;
+            previousMax = maxTarget;
             minTarget -= currentBST / 20;
             maxTarget += currentBST / 20;
             expandRounds++;
@@ -7013,27 +6937,376 @@ public abstract class AbstractRomHandler implements RomHandler {
         return zonesToEncounters;
     }
 
-    public Pokemon pickEntirelyRandomPokemon(boolean includeFormes, boolean noLegendaries, EncounterSet area, List<Pokemon> banned) {
-        Pokemon result;
-        Pokemon randomNonLegendaryPokemon = includeFormes ? randomNonLegendaryPokemonInclFormes() : randomNonLegendaryPokemon();
-        Pokemon randomPokemon = includeFormes ? randomPokemonInclFormes() : randomPokemon();
-        result = noLegendaries ? randomNonLegendaryPokemon : randomPokemon;
-        while (result.actuallyCosmetic) {
-            randomNonLegendaryPokemon = includeFormes ? randomNonLegendaryPokemonInclFormes() : randomNonLegendaryPokemon();
-            randomPokemon = includeFormes ? randomPokemonInclFormes() : randomPokemon();
-            result = noLegendaries ? randomNonLegendaryPokemon : randomPokemon;
+    /**
+     * Picks entirely random wild Pokemon for one combination of includeFormes, noLegendaries and banned.
+     * What is allowed in an area is worked out the first time the area is seen, instead of on every pick.
+     * Without fast sampling, every attempt still draws from both the non-legendary and the full list and
+     * rejects cosmetic and banned results, which uses up random numbers exactly like the original re-roll
+     * loops did, so existing seeds give the same results. With it, a single draw from the allowed Pokemon
+     * is enough.
+     */
+    private class EntirelyRandomPokemonPicker {
+
+        private final List<Pokemon> nonLegendaryPokemon;
+        private final List<Pokemon> allPokemon;
+        private final boolean noLegendaries;
+        private final PokemonSet banned;
+        private final boolean fastSampling;
+        private final Map<EncounterSet, AllowedPokemon> allowedInArea = new IdentityHashMap<>();
+        private AllowedPokemon allowedWithoutAreaBans;
+
+        EntirelyRandomPokemonPicker(boolean includeFormes, boolean noLegendaries, PokemonSet banned,
+                                    boolean fastSampling) {
+            checkPokemonRestrictions();
+            this.nonLegendaryPokemon = includeFormes ? noLegendaryListInclFormes : noLegendaryList;
+            this.allPokemon = includeFormes ? mainPokemonListInclFormes : mainPokemonList;
+            this.noLegendaries = noLegendaries;
+            this.banned = banned;
+            this.fastSampling = fastSampling;
+        }
+
+        Pokemon pick(EncounterSet area) {
+            AllowedPokemon allowed = allowedIn(area);
+            if (fastSampling) {
+                return allowed.pokemon.get(random.nextInt(allowed.pokemon.size()));
+            }
+            while (true) {
+                int nonLegendaryPosition = random.nextInt(nonLegendaryPokemon.size());
+                int position = random.nextInt(allPokemon.size());
+                if (noLegendaries) {
+                    position = nonLegendaryPosition;
+                }
+                if (allowed.positions.get(position)) {
+                    return pickFrom().get(position);
+                }
+            }
+        }
+
+        private List<Pokemon> pickFrom() {
+            return noLegendaries ? nonLegendaryPokemon : allPokemon;
         }
-        while (banned.contains(result) || area.bannedPokemon.contains(result)) {
-            randomNonLegendaryPokemon = includeFormes ? randomNonLegendaryPokemonInclFormes() : randomNonLegendaryPokemon();
-            randomPokemon = includeFormes ? randomPokemonInclFormes() : randomPokemon();
-            result = noLegendaries ? randomNonLegendaryPokemon : randomPokemon;
-            while (result.actuallyCosmetic) {
-                randomNonLegendaryPokemon = includeFormes ? randomNonLegendaryPokemonInclFormes() : randomNonLegendaryPokemon();
-                randomPokemon = includeFormes ? randomPokemonInclFormes() : randomPokemon();
-                result = noLegendaries ? randomNonLegendaryPokemon : randomPokemon;
+
+        private AllowedPokemon allowedIn(EncounterSet area) {
+            if (area.bannedPokemon.isEmpty()) {
+                if (allowedWithoutAreaBans == null) {
+                    allowedWithoutAreaBans = new AllowedPokemon(pickFrom(), banned, area.bannedPokemon);
+                }
+                return allowedWithoutAreaBans;
+            }
+            return allowedInArea.computeIfAbsent(area, a -> new AllowedPokemon(pickFrom(), banned, a.bannedPokemon));
+        }
+    }
+
+    /**
+     * The pool pickTrainerMovesets draws a trainer Pokemon's moves from. Biasing towards a move adds it to the pool
+     * again, so the pool is a sequence of move numbers plus a weight per move number, which counts how often each
+     * move is in it. Draws and removals work on the sequence exactly like they did on the list of repeated Moves
+     * this replaces, so the same seed picks the same moves; the weights answer "how many different moves are
+     * left" without collecting the distinct moves every time. One pool is reset and reused for every Pokemon.
+     */
+    private static class MovesetPool extends AbstractList<Move> implements RandomAccess {
+        private final List<Move> moveTable;
+        private final int[] weights;
+        private int[] entries = new int[64];
+        private int size;
+        private int distinct;
+
+        MovesetPool(List<Move> moveTable) {
+            this.moveTable = moveTable;
+            this.weights = new int[moveTable.size()];
+        }
+
+        void reset(List<Move> moves) {
+            for (int i = 0; i < size; i++) {
+                weights[entries[i]] = 0;
+            }
+            size = 0;
+            distinct = 0;
+            for (Move mv: moves) {
+                add(mv);
+            }
+        }
+
+        @Override
+        public Move get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return moveTable.get(entries[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        int distinctCount() {
+            return distinct;
+        }
+
+        @Override
+        public boolean add(Move mv) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = mv.number;
+            if (weights[mv.number]++ == 0) {
+                distinct++;
+            }
+            return true;
+        }
+
+        // Adds the first bias * moves.size() moves, going round the list again as needed
+        void addBiased(List<Move> moves, double bias) {
+            for (int i = 0; i < bias * moves.size(); i++) {
+                add(moves.get(i % moves.size()));
+            }
+        }
+
+        void removeFirst(Move mv) {
+            if (weights[mv.number] == 0) {
+                return;
+            }
+            int i = 0;
+            while (entries[i] != mv.number) {
+                i++;
+            }
+            System.arraycopy(entries, i + 1, entries, i, size - i - 1);
+            size--;
+            if (--weights[mv.number] == 0) {
+                distinct--;
+            }
+        }
+
+        void removeAll(Move mv) {
+            if (weights[mv.number] == 0) {
+                return;
+            }
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (entries[i] != mv.number) {
+                    entries[kept++] = entries[i];
+                }
+            }
+            size = kept;
+            weights[mv.number] = 0;
+            distinct--;
+        }
+
+        // Every entry matching the filter, repeats included, in pool order
+        List<Move> matching(Predicate<Move> filter) {
+            List<Move> matches = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Move mv = moveTable.get(entries[i]);
+                if (filter.test(mv)) {
+                    matches.add(mv);
+                }
+            }
+            return matches;
+        }
+
+        // The different moves matching the filter, in the order they first appear in the pool
+        List<Move> distinctMatching(Predicate<Move> filter) {
+            List<Move> matches = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Move mv = moveTable.get(entries[i]);
+                if (filter.test(mv) && !matches.contains(mv)) {
+                    matches.add(mv);
+                }
+            }
+            return matches;
+        }
+
+        List<Move> distinctMoves() {
+            return distinctMatching(mv -> true);
+        }
+    }
+
+    /**
+     * Everything getMoveSelectionPoolAtLevel needs about a Pokemon, worked out the first time that Pokemon is
+     * asked about. Movesets, egg moves and TM/tutor compatibility are read once when the index is made, like the
+     * snapshots it replaces; evolution chains are only walked when asked for, since cyclic evolutions never are.
+     */
+    private class MovePoolIndex {
+
+        private final List<Move> moves = getMoves();
+        private final Map<Integer, List<MoveLearnt>> allLevelUpMoves = getMovesLearnt();
+        private final Map<Integer, List<Integer>> allEggMoves = getEggMoves();
+        private final Map<Pokemon, boolean[]> allTMCompat = getTMHMCompatibility();
+        private final Map<Pokemon, boolean[]> allTutorCompat = hasMoveTutors() ? getMoveTutorCompatibility() : null;
+        // For each TM or tutor move, the compatibility slot of the first entry teaching that move
+        private final Move[] tmMoves, tutorMoves;
+        private final int[] tmSlots, tutorSlots;
+
+        private final Map<Integer, LevelUpMovePool> levelUpMoves = new HashMap<>();
+        private final Map<Integer, Move[]> compatibleTMMoves = new HashMap<>();
+        private final Map<Integer, Move[]> compatibleTutorMoves = new HashMap<>();
+        private final Map<Integer, Pokemon[]> preEvolutions = new HashMap<>();
+        private final Map<Integer, Move[]> eggMoves = new HashMap<>();
+
+        MovePoolIndex() {
+            List<Integer> allTMMoves = getTMMoves();
+            List<Integer> allTutorMoves = getMoveTutorMoves();
+            tmMoves = new Move[allTMMoves.size()];
+            tmSlots = new int[allTMMoves.size()];
+            fillSlots(allTMMoves, tmMoves, tmSlots);
+            tutorMoves = new Move[allTutorMoves.size()];
+            tutorSlots = new int[allTutorMoves.size()];
+            fillSlots(allTutorMoves, tutorMoves, tutorSlots);
+        }
+
+        private void fillSlots(List<Integer> moveNumbers, Move[] slotMoves, int[] slots) {
+            for (int i = 0; i < slots.length; i++) {
+                int move = moveNumbers.get(i);
+                slotMoves[i] = moves.get(move);
+                slots[i] = moveNumbers.indexOf(move) + 1;
+            }
+        }
+
+        LevelUpMovePool levelUpMoves(int pokemonNumber) {
+            LevelUpMovePool pool = levelUpMoves.get(pokemonNumber);
+            if (pool == null) {
+                pool = new LevelUpMovePool(allLevelUpMoves.get(pokemonNumber), moves);
+                levelUpMoves.put(pokemonNumber, pool);
+            }
+            return pool;
+        }
+
+        Move[] compatibleTMMoves(Pokemon pk) {
+            return compatibleTMMoves.computeIfAbsent(pk.number,
+                    n -> compatibleMoves(allTMCompat.get(pk), tmMoves, tmSlots));
+        }
+
+        Move[] compatibleTutorMoves(Pokemon pk) {
+            return compatibleTutorMoves.computeIfAbsent(pk.number,
+                    n -> compatibleMoves(allTutorCompat.get(pk), tutorMoves, tutorSlots));
+        }
+
+        private Move[] compatibleMoves(boolean[] compat, Move[] slotMoves, int[] slots) {
+            List<Move> compatible = new ArrayList<>();
+            for (int i = 0; i < slots.length; i++) {
+                if (compat[slots[i]]) {
+                    compatible.add(slotMoves[i]);
+                }
+            }
+            return compatible.toArray(new Move[0]);
+        }
+
+        // Pre-evolutions of pk, nearest first, following the first evolution into each Pokemon
+        Pokemon[] preEvolutions(Pokemon pk) {
+            Pokemon[] chain = preEvolutions.get(pk.number);
+            if (chain == null) {
+                List<Pokemon> preEvos = new ArrayList<>();
+                Pokemon preEvo = pk;
+                while (!preEvo.evolutionsTo.isEmpty()) {
+                    preEvo = preEvo.evolutionsTo.get(0).from;
+                    preEvos.add(preEvo);
+                }
+                chain = preEvos.toArray(new Pokemon[0]);
+                preEvolutions.put(pk.number, chain);
+            }
+            return chain;
+        }
+
+        // Egg moves of the first Pokemon in pk's evolution chain, or null if it has none
+        Move[] eggMoves(Pokemon pk) {
+            if (!eggMoves.containsKey(pk.number)) {
+                Pokemon[] chain = preEvolutions(pk);
+                Pokemon firstEvo = chain.length == 0 ? pk : chain[chain.length - 1];
+                List<Integer> eggMoveNumbers = allEggMoves.get(firstEvo.number);
+                Move[] firstEvoEggMoves = null;
+                if (eggMoveNumbers != null) {
+                    firstEvoEggMoves = new Move[eggMoveNumbers.size()];
+                    for (int i = 0; i < firstEvoEggMoves.length; i++) {
+                        firstEvoEggMoves[i] = moves.get(eggMoveNumbers.get(i));
+                    }
+                }
+                eggMoves.put(pk.number, firstEvoEggMoves);
+            }
+            return eggMoves.get(pk.number);
+        }
+    }
+
+    /**
+     * A level-up moveset with its levels sorted alongside, so the moves learnt up to a level are found with a
+     * binary search. Matching moves are still handed out in moveset order.
+     */
+    private static class LevelUpMovePool {
+        private final Move[] moves;
+        private final int[] sortedLevels;
+        private final int[] sortedPositions;
+        private final int levelZeroCount;
+        private final boolean inLevelOrder;
+
+        LevelUpMovePool(List<MoveLearnt> movesLearnt, List<Move> allMoves) {
+            int size = movesLearnt.size();
+            moves = new Move[size];
+            Integer[] byLevel = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                moves[i] = allMoves.get(movesLearnt.get(i).move);
+                byLevel[i] = i;
+            }
+            Arrays.sort(byLevel, Comparator.comparingInt(i -> movesLearnt.get(i).level));
+            sortedLevels = new int[size];
+            sortedPositions = new int[size];
+            int zeroes = 0;
+            boolean ordered = true;
+            for (int i = 0; i < size; i++) {
+                sortedPositions[i] = byLevel[i];
+                sortedLevels[i] = movesLearnt.get(byLevel[i]).level;
+                if (sortedLevels[i] == 0) {
+                    zeroes++;
+                }
+                ordered &= sortedPositions[i] == i;
+            }
+            levelZeroCount = zeroes;
+            inLevelOrder = ordered;
+        }
+
+        // Moveset positions of the moves learnt at or below level, in moveset order
+        int[] positionsUpTo(int level, boolean includeLevelZero) {
+            int from = includeLevelZero ? 0 : levelZeroCount;
+            int to = from;
+            int high = sortedLevels.length;
+            while (to < high) {
+                int mid = (to + high) >>> 1;
+                if (sortedLevels[mid] <= level) {
+                    to = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int[] positions = Arrays.copyOfRange(sortedPositions, from, to);
+            if (!inLevelOrder) {
+                Arrays.sort(positions);
+            }
+            return positions;
+        }
+
+        void addMovesUpTo(int level, boolean includeLevelZero, List<Move> into) {
+            for (int position: positionsUpTo(level, includeLevelZero)) {
+                into.add(moves[position]);
+            }
+        }
+    }
+
+    // The members of a list that are neither cosmetic nor banned, both as list positions and in list order
+    private static class AllowedPokemon {
+        private final BitSet positions = new BitSet();
+        private final List<Pokemon> pokemon = new ArrayList<>();
+
+        AllowedPokemon(List<Pokemon> from, PokemonSet banned, PokemonSet areaBanned) {
+            for (int i = 0; i < from.size(); i++) {
+                Pokemon pk = from.get(i);
+                if (!pk.actuallyCosmetic && !banned.contains(pk) && !areaBanned.contains(pk)) {
+                    positions.set(i);
+                    pokemon.add(pk);
+                }
+            }
+            if (pokemon.isEmpty()) {
+                throw new RandomizationException("Could not find a possible Pokemon for an area.");
             }
         }
-        return result;
     }
 
     private Pokemon pickStaticPowerLvlReplacement(List<Pokemon> pokemonPool, Pokemon current, boolean banSamePokemon,
@@ -7043,20 +7316,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         int currentBST = current.bstForPowerLevels();
         int minTarget = limitBST ? currentBST - currentBST / 5 : currentBST - currentBST / 10;
         int maxTarget = limitBST ? currentBST : currentBST + currentBST / 10;
-        List<Pokemon> canPick = new ArrayList<>();
-        int expandRounds = 0;
-        while (canPick.isEmpty() || (canPick.size() < 3 && expandRounds < 3)) {
-            for (Pokemon pk : pokemonPool) {
-                if (pk.bstForPowerLevels() >= minTarget && pk.bstForPowerLevels() <= maxTarget
-                        && (!banSamePokemon || pk != current) && !canPick.contains(pk)) {
-                    canPick.add(pk);
-                }
-            }
-            minTarget -= currentBST / 20;
-            maxTarget += currentBST / 20;
-            expandRounds++;
-        }
-        return canPick.get(this.random.nextInt(canPick.size()));
+        return pickPowerLvlReplacement(new PokemonBSTIndex(pokemonPool), null, current, banSamePokemon, null,
+                currentBST, minTarget, maxTarget);
     }
 
     @Override
@@ -7252,6 +7513,121 @@ public abstract class AbstractRomHandler implements RomHandler {
         this.setTotemPokemon(replacements);
     }
 
+    /* Write-back cache for the parts of the data model that are expensive to read and write */
+
+    protected enum CachedModel {
+        TRAINERS, MOVESETS
+    }
+
+    /**
+     * Which parts of the data model this handler keeps parsed between calls. For these, getX parses the
+     * ROM data only the first time and hands out the same live objects from then on; setX hands the given
+     * objects to stageX, which encodes them without writing them to the ROM yet, and keeps what reading
+     * that back gives as the new model. flushModelCache writes every staged part to the ROM once, when
+     * saving, through writeStagedX.
+     * <p>
+     * A handler caching a part should override its stageX and writeStagedX methods; the defaults just
+     * write to the ROM straight away and read it back.
+     */
+    protected Set<CachedModel> cachedModels() {
+        return EnumSet.noneOf(CachedModel.class);
+    }
+
+    private List<Trainer> cachedTrainers;
+    private boolean cachedTrainersDirty, cachedDoubleBattleMode;
+    private Map<Integer, List<MoveLearnt>> cachedMovesets;
+    private boolean cachedMovesetsDirty;
+
+    @Override
+    public List<Trainer> getTrainers() {
+        if (!cachedModels().contains(CachedModel.TRAINERS)) {
+            return readTrainers();
+        }
+        if (cachedTrainers == null) {
+            cachedTrainers = readTrainers();
+        }
+        return cachedTrainers;
+    }
+
+    @Override
+    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+        if (!cachedModels().contains(CachedModel.TRAINERS)) {
+            writeTrainers(trainerData, doubleBattleMode);
+            return;
+        }
+        // Double battle mode only ever adds to what gets written, so it sticks once asked for
+        cachedDoubleBattleMode |= doubleBattleMode;
+        cachedTrainers = stageTrainers(trainerData, cachedDoubleBattleMode);
+        cachedTrainersDirty = true;
+    }
+
+    @Override
+    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
+        if (!cachedModels().contains(CachedModel.MOVESETS)) {
+            return readMovesLearnt();
+        }
+        if (cachedMovesets == null) {
+            cachedMovesets = readMovesLearnt();
+        }
+        return cachedMovesets;
+    }
+
+    @Override
+    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+        if (!cachedModels().contains(CachedModel.MOVESETS)) {
+            writeMovesLearnt(movesets);
+            return;
+        }
+        cachedMovesets = stageMovesLearnt(movesets);
+        cachedMovesetsDirty = true;
+    }
+
+    /**
+     * Writes every cached part of the data model that changed since it was read or last flushed.
+     * Called by the base handlers right before savingROM, so the handler can still patch what these wrote.
+     */
+    protected void flushModelCache() {
+        if (cachedMovesetsDirty) {
+            writeStagedMovesLearnt();
+            cachedMovesetsDirty = false;
+        }
+        if (cachedTrainersDirty) {
+            writeStagedTrainers(cachedDoubleBattleMode);
+            cachedTrainersDirty = false;
+        }
+    }
+
+    // The trainers currently held by the cache, or null if there aren't any
+    protected List<Trainer> getCachedTrainers() {
+        return cachedTrainers;
+    }
+
+    protected abstract List<Trainer> readTrainers();
+
+    protected abstract void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode);
+
+    protected abstract Map<Integer, List<MoveLearnt>> readMovesLearnt();
+
+    protected abstract void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets);
+
+    // Encodes trainerData just as writeTrainers would, keeping the result for writeStagedTrainers,
+    // and returns what readTrainers would give for it
+    protected List<Trainer> stageTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+        writeTrainers(trainerData, doubleBattleMode);
+        return readTrainers();
+    }
+
+    protected void writeStagedTrainers(boolean doubleBattleMode) {
+    }
+
+    protected Map<Integer, List<MoveLearnt>> stageMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+        writeMovesLearnt(movesets);
+        return readMovesLearnt();
+    }
+
+    protected void writeStagedMovesLearnt() {
+    }
+
     /* Helper methods used by subclasses and/or this class */
 
     void checkPokemonRestrictions() {
@@ -25,10 +25,11 @@ package com.dabomstew.pkrandom.romhandlers;
 /*----------------------------------------------------------------------------*/
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,7 +39,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.Scanner;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -144,12 +144,13 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     private static void loadROMInfo() {
-        roms = new ArrayList<>();
+        List<RomEntry> entries = new ArrayList<>();
         RomEntry current = null;
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("gen1_offsets.ini"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine().trim();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileFunctions.openConfig("gen1_offsets.ini"),
+                "UTF-8"))) {
+            String q;
+            while ((q = reader.readLine()) != null) {
+                q = q.trim();
                 if (q.contains("//")) {
                     q = q.substring(0, q.indexOf("//")).trim();
                 }
@@ -158,7 +159,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                         // New rom
                         current = new RomEntry();
                         current.name = q.substring(1, q.length() - 1);
-                        roms.add(current);
+                        entries.add(current);
                     } else {
                         String[] r = q.split("=", 2);
                         if (r.length == 1) {
@@ -215,7 +216,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                                 current.extraTypeReverse.put(theType, typeId);
                             }
                         } else if (r[0].equals("CopyFrom")) {
-                            for (RomEntry otherEntry : roms) {
+                            for (RomEntry otherEntry : entries) {
                                 if (r[1].equalsIgnoreCase(otherEntry.name)) {
                                     // copy from here
                                     boolean cSP = (current.getValue("CopyStaticPokemon") == 1);
@@ -257,11 +258,12 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                     }
                 }
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+        } catch (IOException e) {
+            System.err.println("Could not read gen1_offsets.ini");
+            e.printStackTrace();
+            entries.clear();
         }
-
+        roms = entries;
     }
 
     private static StaticPokemon parseStaticPokemon(String staticPokemonString) {
@@ -1264,7 +1266,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
         return false;
     }
 
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = Gen1Constants.trainerClassCount;
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -1336,7 +1338,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
         return new ArrayList<>();
     }
 
-    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+    protected void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = Gen1Constants.trainerClassCount;
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -1512,7 +1514,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
+    protected Map<Integer, List<MoveLearnt>> readMovesLearnt() {
         Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
         int pointersOffset = romEntry.getValue("PokemonMovesetsTableOffset");
         int pokeStatsOffset = romEntry.getValue("PokemonStatsOffset");
@@ -1563,7 +1565,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
         // new method for moves learnt
         writeEvosAndMovesLearnt(false, movesets);
     }
@@ -2077,7 +2079,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
 
     @Override
     public int internalStringLength(String string) {
-        return translateString(string).length;
+        return translatedStringLength(string);
     }
 
     @Override
@@ -25,10 +25,11 @@ package com.dabomstew.pkrandom.romhandlers;
 /*----------------------------------------------------------------------------*/
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -111,12 +112,13 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     private static void loadROMInfo() {
-        roms = new ArrayList<>();
+        List<RomEntry> entries = new ArrayList<>();
         RomEntry current = null;
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("gen2_offsets.ini"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine().trim();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileFunctions.openConfig("gen2_offsets.ini"),
+                "UTF-8"))) {
+            String q;
+            while ((q = reader.readLine()) != null) {
+                q = q.trim();
                 if (q.contains("//")) {
                     q = q.substring(0, q.indexOf("//")).trim();
                 }
@@ -125,7 +127,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
                         // New rom
                         current = new RomEntry();
                         current.name = q.substring(1, q.length() - 1);
-                        roms.add(current);
+                        entries.add(current);
                     } else {
                         String[] r = q.split("=", 2);
                         if (r.length == 1) {
@@ -167,7 +169,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
                         } else if (r[0].endsWith("Tweak")) {
                             current.codeTweaks.put(r[0], r[1]);
                         } else if (r[0].equals("CopyFrom")) {
-                            for (RomEntry otherEntry : roms) {
+                            for (RomEntry otherEntry : entries) {
                                 if (r[1].equalsIgnoreCase(otherEntry.name)) {
                                     // copy from here
                                     boolean cSP = (current.getValue("CopyStaticPokemon") == 1);
@@ -212,11 +214,12 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
                     }
                 }
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+        } catch (IOException e) {
+            System.err.println("Could not read gen2_offsets.ini");
+            e.printStackTrace();
+            entries.clear();
         }
-
+        roms = entries;
     }
 
     private static StaticPokemon parseStaticPokemon(String staticPokemonString, boolean isGameCorner) {
@@ -1150,7 +1153,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = romEntry.getValue("TrainerClassAmount");
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -1224,7 +1227,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+    protected void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = romEntry.getValue("TrainerClassAmount");
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -1322,7 +1325,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
+    protected Map<Integer, List<MoveLearnt>> readMovesLearnt() {
         Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
         int pointersOffset = romEntry.getValue("PokemonMovesetsTableOffset");
         for (int i = 1; i <= Gen2Constants.pokemonCount; i++) {
@@ -1352,7 +1355,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
         writeEvosAndMovesLearnt(false, movesets);
     }
 
@@ -2215,7 +2218,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
 
     @Override
     public int internalStringLength(String string) {
-        return translateString(string).length;
+        return translatedStringLength(string);
     }
 
     @Override
@@ -135,12 +135,13 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private static void loadROMInfo() {
-        roms = new ArrayList<>();
+        List<RomEntry> entries = new ArrayList<>();
         RomEntry current = null;
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("gen3_offsets.ini"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine().trim();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileFunctions.openConfig("gen3_offsets.ini"),
+                "UTF-8"))) {
+            String q;
+            while ((q = reader.readLine()) != null) {
+                q = q.trim();
                 if (q.contains("//")) {
                     q = q.substring(0, q.indexOf("//")).trim();
                 }
@@ -149,7 +150,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                         // New rom
                         current = new RomEntry();
                         current.name = q.substring(1, q.length() - 1);
-                        roms.add(current);
+                        entries.add(current);
                     } else {
                         String[] r = q.split("=", 2);
                         if (r.length == 1) {
@@ -217,7 +218,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                         } else if (r[0].endsWith("Tweak")) {
                             current.codeTweaks.put(r[0], r[1]);
                         } else if (r[0].equals("CopyFrom")) {
-                            for (RomEntry otherEntry : roms) {
+                            for (RomEntry otherEntry : entries) {
                                 if (r[1].equalsIgnoreCase(otherEntry.name)) {
                                     // copy from here
                                     current.arrayEntries.putAll(otherEntry.arrayEntries);
@@ -260,11 +261,12 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                     }
                 }
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+        } catch (IOException e) {
+            System.err.println("Could not read gen3_offsets.ini");
+            e.printStackTrace();
+            entries.clear();
         }
-
+        roms = entries;
     }
 
     private static int parseRIInt(String off) {
@@ -322,8 +324,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private void loadTextTable(String filename) {
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig(filename + ".tbl"), "UTF-8");
+        try (Scanner sc = new Scanner(FileFunctions.openConfig(filename + ".tbl"), "UTF-8")) {
             while (sc.hasNextLine()) {
                 String q = sc.nextLine();
                 if (!q.trim().isEmpty()) {
@@ -335,9 +336,9 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                     d.put(r[1], (byte) Integer.parseInt(r[0], 16));
                 }
             }
-            sc.close();
         } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+            System.err.println("Could not read " + filename + ".tbl");
+            e.printStackTrace();
         }
 
     }
@@ -365,6 +366,25 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     private int pickupItemsTableOffset;
     private long actualCRC32;
     private boolean effectivenessUpdated;
+    private SignatureScanner.Matches signatures;
+    private FreeSpaceAllocator freeSpace;
+    private TextTableCodec textCodec;
+
+    // What detectRom needs to see in a Gen 3 ROM
+    private static final SignatureScanner detectionScanner = new SignatureScanner(
+            Gen3Constants.wildPokemonPointerPrefix, Gen3Constants.mapBanksPointerPrefix,
+            Gen3Constants.pokedexOrderPointerPrefix);
+
+    // Everything loadedRom looks for, along with the code that later gets patched, so all of it
+    // is found in one pass over the ROM as loaded
+    private static final SignatureScanner loadScanner = new SignatureScanner(
+            Gen3Constants.wildPokemonPointerPrefix, Gen3Constants.mapBanksPointerPrefix,
+            Gen3Constants.pokedexOrderPointerPrefix, Gen3Constants.rsPokemonNamesPointerSuffix,
+            Gen3Constants.frlgMapLabelsPointerPrefix, Gen3Constants.rseMapLabelsPointerPrefix,
+            Gen3Constants.rsFrontSpritesPointerPrefix, Gen3Constants.rsFrontSpritesPointerSuffix,
+            Gen3Constants.rsPokemonPalettesPointerPrefix, Gen3Constants.rsPokemonPalettesPointerSuffix,
+            Gen3Constants.friendshipValueForEvoLocator, Gen3Constants.perfectOddsBranchLocator,
+            Gen3Constants.frlgNatDexFlagChecker);
 
     @Override
     public boolean detectRom(byte[] rom) {
@@ -384,16 +404,17 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             rom[Gen3Constants.romCodeOffset + 3] = 'T';
             rom[Gen3Constants.headerChecksumOffset] = 0x66;
         }
+        SignatureScanner.Matches headers = detectionScanner.scan(rom);
         // Wild Pokemon header
-        if (find(rom, Gen3Constants.wildPokemonPointerPrefix) == -1) {
+        if (headers.search(rom, Gen3Constants.wildPokemonPointerPrefix).isEmpty()) {
             return false;
         }
         // Map Banks header
-        if (find(rom, Gen3Constants.mapBanksPointerPrefix) == -1) {
+        if (headers.search(rom, Gen3Constants.mapBanksPointerPrefix).isEmpty()) {
             return false;
         }
         // Pokedex Order header
-        if (findMultiple(rom, Gen3Constants.pokedexOrderPointerPrefix).size() != 3) {
+        if (headers.search(rom, Gen3Constants.pokedexOrderPointerPrefix).size() != 3) {
             return false;
         }
         for (RomEntry re : roms) {
@@ -417,14 +438,16 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         d = new HashMap<>();
         isRomHack = false;
         jamboMovesetHack = false;
+        signatures = loadScanner.scan(rom);
+        freeSpace = new FreeSpaceAllocator(rom, Gen3Constants.freeSpaceByte);
 
         // Pokemon count stuff, needs to be available first
-        List<Integer> pokedexOrderPrefixes = findMultiple(rom, Gen3Constants.pokedexOrderPointerPrefix);
+        List<Integer> pokedexOrderPrefixes = findSignatureMultiple(Gen3Constants.pokedexOrderPointerPrefix);
         romEntry.entries.put("PokedexOrder", readPointer(pokedexOrderPrefixes.get(1) + 16));
 
         // Pokemon names offset
         if (romEntry.romType == Gen3Constants.RomType_Ruby || romEntry.romType == Gen3Constants.RomType_Sapp) {
-            int baseNomOffset = find(rom, Gen3Constants.rsPokemonNamesPointerSuffix);
+            int baseNomOffset = findSignature(Gen3Constants.rsPokemonNamesPointerSuffix);
             romEntry.entries.put("PokemonNames", readPointer(baseNomOffset - 4));
             romEntry.entries.put(
                     "FrontSprites",
@@ -448,6 +471,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         }
 
         loadTextTable(romEntry.tableFile);
+        textCodec = new TextTableCodec(d, 4, Gen3Constants.textVariable);
 
         if (romEntry.romCode.equals("BPRE") && romEntry.version == 0) {
             basicBPRE10HackSupport();
@@ -461,20 +485,20 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         loadMoves();
 
         // Get wild Pokemon offset
-        int baseWPOffset = findMultiple(rom, Gen3Constants.wildPokemonPointerPrefix).get(0);
+        int baseWPOffset = findSignatureMultiple(Gen3Constants.wildPokemonPointerPrefix).get(0);
         romEntry.entries.put("WildPokemon", readPointer(baseWPOffset + 12));
 
         // map banks
-        int baseMapsOffset = findMultiple(rom, Gen3Constants.mapBanksPointerPrefix).get(0);
+        int baseMapsOffset = findSignatureMultiple(Gen3Constants.mapBanksPointerPrefix).get(0);
         romEntry.entries.put("MapHeaders", readPointer(baseMapsOffset + 12));
         this.determineMapBankSizes();
 
         // map labels
         if (romEntry.romType == Gen3Constants.RomType_FRLG) {
-            int baseMLOffset = find(rom, Gen3Constants.frlgMapLabelsPointerPrefix);
+            int baseMLOffset = findSignature(Gen3Constants.frlgMapLabelsPointerPrefix);
             romEntry.entries.put("MapLabels", readPointer(baseMLOffset + 12));
         } else {
-            int baseMLOffset = find(rom, Gen3Constants.rseMapLabelsPointerPrefix);
+            int baseMLOffset = findSignature(Gen3Constants.rseMapLabelsPointerPrefix);
             romEntry.entries.put("MapLabels", readPointer(baseMLOffset + 12));
         }
 
@@ -502,7 +526,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         }
         if (searchPref.length >= searchSuff.length) {
             // Prefix first
-            List<Integer> offsets = RomFunctions.search(rom, searchPref);
+            List<Integer> offsets = signatures.search(rom, prefix);
             if (offsets.size() == 0) {
                 return -1;
             }
@@ -530,7 +554,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             return -1; // No match
         } else {
             // Suffix first
-            List<Integer> offsets = RomFunctions.search(rom, searchSuff);
+            List<Integer> offsets = signatures.search(rom, suffix);
             if (offsets.size() == 0) {
                 return -1;
             }
@@ -703,6 +727,15 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         saveMoves();
     }
 
+    @Override
+    public void printRomDiagnostics(PrintStream logStream) {
+        super.printRomDiagnostics(logStream);
+        // null if loading the ROM failed before it got that far
+        if (freeSpace != null) {
+            logStream.println(freeSpace.getStatistics());
+        }
+    }
+
     private void loadPokedex() {
         int pdOffset = romEntry.getValue("PokedexOrder");
         int numInternalPokes = romEntry.getValue("PokemonCount");
@@ -1370,33 +1403,11 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private byte[] translateString(String text) {
-        List<Byte> data = new ArrayList<>();
-        while (text.length() != 0) {
-            int i = Math.max(0, 4 - text.length());
-            if (text.charAt(0) == '\\' && text.charAt(1) == 'x') {
-                data.add((byte) Integer.parseInt(text.substring(2, 4), 16));
-                text = text.substring(4);
-            } else if (text.charAt(0) == '\\' && text.charAt(1) == 'v') {
-                data.add((byte) Gen3Constants.textVariable);
-                data.add((byte) Integer.parseInt(text.substring(2, 4), 16));
-                text = text.substring(4);
-            } else {
-                while (!(d.containsKey(text.substring(0, 4 - i)) || (i == 4))) {
-                    i++;
-                }
-                if (i == 4) {
-                    text = text.substring(1);
-                } else {
-                    data.add(d.get(text.substring(0, 4 - i)));
-                    text = text.substring(4 - i);
-                }
-            }
-        }
-        byte[] ret = new byte[data.size()];
-        for (int i = 0; i < ret.length; i++) {
-            ret[i] = data.get(i);
-        }
-        return ret;
+        return textCodec.encode(text);
+    }
+
+    private int translatedStringLength(String text) {
+        return textCodec.encodedLength(text);
     }
 
     private String readFixedLengthString(int offset, int length) {
@@ -1408,9 +1419,9 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private void writeFixedLengthString(String str, int offset, int length) {
-        byte[] translated = translateString(str);
-        int len = Math.min(translated.length, length);
-        System.arraycopy(translated, 0, rom, offset, len);
+        int translatedLength = textCodec.encodeToBuffer(str);
+        int len = Math.min(translatedLength, length);
+        System.arraycopy(textCodec.getBuffer(), 0, rom, offset, len);
         if (len < length) {
             rom[offset + len] = (byte) Gen3Constants.textTerminator;
             len++;
@@ -1422,9 +1433,9 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private void writeVariableLengthString(String str, int offset) {
-        byte[] translated = translateString(str);
-        System.arraycopy(translated, 0, rom, offset, translated.length);
-        rom[offset + translated.length] = (byte) 0xFF;
+        int translatedLength = textCodec.encodeToBuffer(str);
+        System.arraycopy(textCodec.getBuffer(), 0, rom, offset, translatedLength);
+        rom[offset + translatedLength] = (byte) 0xFF;
     }
 
     private int lengthOfStringAt(int offset) {
@@ -1797,7 +1808,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         int baseOffset = romEntry.getValue("TrainerData");
         int amount = romEntry.getValue("TrainerCount");
         int entryLen = romEntry.getValue("TrainerEntrySize");
@@ -1951,7 +1962,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
 
     @Override
-    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+    protected void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
         int baseOffset = romEntry.getValue("TrainerData");
         int amount = romEntry.getValue("TrainerCount");
         int entryLen = romEntry.getValue("TrainerEntrySize");
@@ -1984,7 +1995,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             // now, do we need to repoint?
             int pointerToPokes;
             if (newDataSize > oldDataSize) {
-                int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, newDataSize, fso, true);
+                int writeSpace = freeSpace.allocate(newDataSize, fso, true);
                 if (writeSpace < fso) {
                     throw new RandomizerIOException("ROM is full");
                 }
@@ -2107,7 +2118,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
+    protected Map<Integer, List<MoveLearnt>> readMovesLearnt() {
         Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
         int baseOffset = romEntry.getValue("PokemonMovesets");
         for (int i = 1; i <= numRealPokemon; i++) {
@@ -2144,7 +2155,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
         int baseOffset = romEntry.getValue("PokemonMovesets");
         int fso = romEntry.getValue("FreeSpace");
         for (int i = 1; i <= numRealPokemon; i++) {
@@ -2171,7 +2182,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             if (newMoveCount > currentMoveCount) {
                 // Repoint for more space
                 int newBytesNeeded = newMoveCount * entrySize + entrySize * 2;
-                int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, newBytesNeeded, fso);
+                int writeSpace = freeSpace.allocate(newBytesNeeded, fso);
                 if (writeSpace < fso) {
                     throw new RandomizerIOException("ROM is full");
                 }
@@ -2645,9 +2656,8 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 String moveDesc = readVariableLengthString(moveTextPointer);
                 String newItemDesc = RomFunctions.rewriteDescriptionForNewLineSize(moveDesc, "\\n", limitPerLine, ssd);
                 // Find freespace
-                int fsBytesNeeded = translateString(newItemDesc).length + 1;
-                int newItemDescOffset = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, fsBytesNeeded,
-                        fsOffset);
+                int fsBytesNeeded = translatedStringLength(newItemDesc) + 1;
+                int newItemDescOffset = freeSpace.allocate(fsBytesNeeded, fsOffset);
                 if (newItemDescOffset < fsOffset) {
                     String nl = System.getProperty("line.separator");
                     log("Couldn't insert new item description." + nl);
@@ -2677,8 +2687,8 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 // get rid of the underscores
                 newText = newText.replace(tmpMoveName, moveName);
                 // insert the new text into free space
-                int fsBytesNeeded = translateString(newText).length + 1;
-                int newOffset = RomFunctions.freeSpaceFinder(rom, (byte) 0xFF, fsBytesNeeded, fsOffset);
+                int fsBytesNeeded = translatedStringLength(newText) + 1;
+                int newOffset = freeSpace.allocate(fsBytesNeeded, fsOffset);
                 if (newOffset < fsOffset) {
                     String nl = System.getProperty("line.separator");
                     log("Couldn't insert new TM text." + nl);
@@ -2701,7 +2711,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         }
     }
 
-    private RomFunctions.StringSizeDeterminer ssd = encodedText -> translateString(encodedText).length;
+    private RomFunctions.StringSizeDeterminer ssd = this::translatedStringLength;
 
     @Override
     public int getTMCount() {
@@ -2794,8 +2804,8 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 // get rid of the underscores
                 newText = newText.replace(tmpMoveName, moveName);
                 // insert the new text into free space
-                int fsBytesNeeded = translateString(newText).length + 1;
-                int newOffset = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, fsBytesNeeded, fsOffset);
+                int fsBytesNeeded = translatedStringLength(newText) + 1;
+                int newOffset = freeSpace.allocate(fsBytesNeeded, fsOffset);
                 if (newOffset < fsOffset) {
                     String nl = System.getProperty("line.separator");
                     log("Couldn't insert new Move Tutor text." + nl);
@@ -2885,7 +2895,15 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         for (int i = 0; i < searchFor.length; i++) {
             searchFor[i] = (byte) Integer.parseInt(hexString.substring(i * 2, i * 2 + 2), 16);
         }
-        List<Integer> found = RomFunctions.search(haystack, searchFor);
+        return uniqueOffset(RomFunctions.search(haystack, searchFor));
+    }
+
+    // Like find, but uses what the scan made when the ROM was loaded for the signatures in loadScanner
+    private int findSignature(String hexString) {
+        return uniqueOffset(signatures.search(rom, hexString));
+    }
+
+    private static int uniqueOffset(List<Integer> found) {
         if (found.size() == 0) {
             return -1; // not found
         } else if (found.size() > 1) {
@@ -2895,19 +2913,8 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         }
     }
 
-    private List<Integer> findMultiple(String hexString) {
-        return findMultiple(rom, hexString);
-    }
-
-    private static List<Integer> findMultiple(byte[] haystack, String hexString) {
-        if (hexString.length() % 2 != 0) {
-            return new ArrayList<>(); // error
-        }
-        byte[] searchFor = new byte[hexString.length() / 2];
-        for (int i = 0; i < searchFor.length; i++) {
-            searchFor[i] = (byte) Integer.parseInt(hexString.substring(i * 2, i * 2 + 2), 16);
-        }
-        return RomFunctions.search(haystack, searchFor);
+    private List<Integer> findSignatureMultiple(String hexString) {
+        return signatures.search(rom, hexString);
     }
 
     private void writeHexString(String hexString, int offset) {
@@ -2993,7 +3000,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 return;
             }
             // Find free space for our new routine
-            int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, 44, fso);
+            int writeSpace = freeSpace.allocate(44, fso);
             if (writeSpace < fso) {
                 log("Patch unsuccessful." + nl);
                 // Somehow this ROM is full
@@ -3012,7 +3019,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 return;
             }
             // Find free space for our new routine
-            int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, 10, fso);
+            int writeSpace = freeSpace.allocate(10, fso);
             if (writeSpace < fso) {
                 // Somehow this ROM is full
                 log("Patch unsuccessful." + nl);
@@ -3026,7 +3033,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             writeHexString(Gen3Constants.frlgNatDexScript, writeSpace);
 
             // Fix people using the national dex flag
-            List<Integer> ndexChecks = findMultiple(Gen3Constants.frlgNatDexFlagChecker);
+            List<Integer> ndexChecks = findSignatureMultiple(Gen3Constants.frlgNatDexFlagChecker);
             for (int ndexCheckOffset : ndexChecks) {
                 // change to a flag-check
                 // 82C = "beaten e4/gary once"
@@ -3070,7 +3077,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 return;
             }
             // Find free space for our new routine
-            int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, 27, fso);
+            int writeSpace = freeSpace.allocate(27, fso);
             if (writeSpace < fso) {
                 // Somehow this ROM is full
                 log("Patch unsuccessful." + nl);
@@ -3239,7 +3246,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     @Override
     public void makeEvolutionsEasier(Settings settings) {
         // Reduce the amount of happiness required to evolve.
-        int offset = find(rom, Gen3Constants.friendshipValueForEvoLocator);
+        int offset = findSignature(Gen3Constants.friendshipValueForEvoLocator);
         if (offset > 0) {
             // Amount of required happiness for HAPPINESS evolutions.
             if (rom[offset] == (byte)219) {
@@ -3635,7 +3642,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
     @Override
     public int internalStringLength(String string) {
-        return translateString(string).length;
+        return translatedStringLength(string);
     }
 
     @Override
@@ -4375,7 +4382,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
     @Override
     public void enableGuaranteedPokemonCatching() {
-        int offset = find(rom, Gen3Constants.perfectOddsBranchLocator);
+        int offset = findSignature(Gen3Constants.perfectOddsBranchLocator);
         if (offset > 0) {
             // In Cmd_handleballthrow, the middle of the function checks if the odds of catching a Pokemon
             // is greater than 254; if it is, then the Pokemon is automatically caught. In ASM, this is
@@ -25,8 +25,9 @@ package com.dabomstew.pkrandom.romhandlers;
 /*----------------------------------------------------------------------------*/
 
 import java.awt.image.BufferedImage;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -122,12 +123,13 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     private static void loadROMInfo() {
-        roms = new ArrayList<>();
+        List<RomEntry> entries = new ArrayList<>();
         RomEntry current = null;
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("gen4_offsets.ini"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine().trim();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileFunctions.openConfig("gen4_offsets.ini"),
+                "UTF-8"))) {
+            String q;
+            while ((q = reader.readLine()) != null) {
+                q = q.trim();
                 if (q.contains("//")) {
                     q = q.substring(0, q.indexOf("//")).trim();
                 }
@@ -136,7 +138,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                         // New rom
                         current = new RomEntry();
                         current.name = q.substring(1, q.length() - 1);
-                        roms.add(current);
+                        entries.add(current);
                     } else {
                         String[] r = q.split("=", 2);
                         if (r.length == 1) {
@@ -162,7 +164,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                                 System.err.println("unrecognised rom type: " + r[1]);
                             }
                         } else if (r[0].equals("CopyFrom")) {
-                            for (RomEntry otherEntry : roms) {
+                            for (RomEntry otherEntry : entries) {
                                 if (r[1].equalsIgnoreCase(otherEntry.name)) {
                                     // copy from here
                                     current.arrayEntries.putAll(otherEntry.arrayEntries);
@@ -281,11 +283,12 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                     }
                 }
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+        } catch (IOException e) {
+            System.err.println("Could not read gen4_offsets.ini");
+            e.printStackTrace();
+            entries.clear();
         }
-
+        roms = entries;
     }
 
     private static int parseRIInt(String off) {
@@ -467,6 +470,8 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     private NARCArchive msgNarc;
     private NARCArchive scriptNarc;
     private NARCArchive eventNarc;
+    // Encoded by the model cache but not written to the ROM yet
+    private NARCArchive stagedTrainerData, stagedTrainerPokemon, stagedMovesets;
     private byte[] arm9;
     private List<String> abilityNames;
     private List<String> itemNames;
@@ -2798,96 +2803,163 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
-        List<Trainer> allTrainers = new ArrayList<>();
+    protected List<Trainer> readTrainers() {
         try {
             NARCArchive trainers = this.readNARC(romEntry.getFile("TrainerData"));
             NARCArchive trpokes = this.readNARC(romEntry.getFile("TrainerPokemon"));
-            List<String> tclasses = this.getTrainerClassNames();
-            List<String> tnames = this.getTrainerNames();
-            int trainernum = trainers.files.size();
-            for (int i = 1; i < trainernum; i++) {
-                // Trainer entries are 20 bytes
-                // Team flags; 1 byte; 0x01 = custom moves, 0x02 = held item
-                // Class; 1 byte
-                // 1 byte not used
-                // Number of pokemon in team; 1 byte
-                // Items; 2 bytes each, 4 item slots
-                // AI Flags; 2 byte
-                // 2 bytes not used
-                // Battle Mode; 1 byte; 0 means single, 1 means double.
-                // 3 bytes not used
-                byte[] trainer = trainers.files.get(i);
-                byte[] trpoke = trpokes.files.get(i);
-                Trainer tr = new Trainer();
-                tr.poketype = trainer[0] & 0xFF;
-                tr.trainerclass = trainer[1] & 0xFF;
-                tr.index = i;
-                int numPokes = trainer[3] & 0xFF;
-                int pokeOffs = 0;
-                tr.fullDisplayName = tclasses.get(tr.trainerclass) + " " + tnames.get(i - 1);
-                for (int poke = 0; poke < numPokes; poke++) {
-                    // Structure is
-                    // IV SB LV LV SP SP FRM FRM
-                    // (HI HI)
-                    // (M1 M1 M2 M2 M3 M3 M4 M4)
-                    // where SB = 0 0 Ab Ab 0 0 G G
-                    // IV is a "difficulty" level between 0 and 255 to represent 0 to 31 IVs.
-                    //     These IVs affect all attributes. For the vanilla games, the
-                    //     vast majority of trainers have 0 IVs; Elite Four members will
-                    //     have 30 IVs.
-                    // Ab Ab = ability number, 0 for first ability, 2 for second [HGSS only]
-                    // G G affect the gender somehow. 0 appears to mean "most common
-                    //     gender for the species".
-                    int difficulty = trpoke[pokeOffs] & 0xFF;
-                    int level = trpoke[pokeOffs + 2] & 0xFF;
-                    int species = (trpoke[pokeOffs + 4] & 0xFF) + ((trpoke[pokeOffs + 5] & 0x01) << 8);
-                    int formnum = (trpoke[pokeOffs + 5] >> 2);
-                    TrainerPokemon tpk = new TrainerPokemon();
-                    tpk.level = level;
-                    tpk.pokemon = pokes[species];
-                    tpk.IVs = (difficulty * 31) / 255;
-                    int abilitySlot = (trpoke[pokeOffs + 1] >>> 4) & 0xF;
-                    if (abilitySlot == 0) {
-                        // All Gen 4 games represent the first ability as ability 0.
-                        abilitySlot = 1;
-                    }
-                    tpk.abilitySlot = abilitySlot;
-                    tpk.forme = formnum;
-                    tpk.formeSuffix = Gen4Constants.getFormeSuffixByBaseForme(species,formnum);
-                    pokeOffs += 6;
-                    if (tr.pokemonHaveItems()) {
-                        tpk.heldItem = readWord(trpoke, pokeOffs);
-                        pokeOffs += 2;
-                    }
-                    if (tr.pokemonHaveCustomMoves()) {
-                        for (int move = 0; move < 4; move++) {
-                            tpk.moves[move] = readWord(trpoke, pokeOffs + (move*2));
-                        }
-                        pokeOffs += 8;
-                    }
-                    // Plat/HGSS have another random pokeOffs +=2 here.
-                    if (romEntry.romType != Gen4Constants.Type_DP) {
-                        pokeOffs += 2;
+            return parseTrainers(trainers, trpokes);
+        } catch (IOException ex) {
+            throw new RandomizerIOException(ex);
+        }
+    }
+
+    private List<Trainer> parseTrainers(NARCArchive trainers, NARCArchive trpokes) {
+        List<Trainer> allTrainers = new ArrayList<>();
+        List<String> tclasses = this.getTrainerClassNames();
+        List<String> tnames = this.getTrainerNames();
+        int trainernum = trainers.files.size();
+        for (int i = 1; i < trainernum; i++) {
+            // Trainer entries are 20 bytes
+            // Team flags; 1 byte; 0x01 = custom moves, 0x02 = held item
+            // Class; 1 byte
+            // 1 byte not used
+            // Number of pokemon in team; 1 byte
+            // Items; 2 bytes each, 4 item slots
+            // AI Flags; 2 byte
+            // 2 bytes not used
+            // Battle Mode; 1 byte; 0 means single, 1 means double.
+            // 3 bytes not used
+            byte[] trainer = trainers.files.get(i);
+            byte[] trpoke = trpokes.files.get(i);
+            Trainer tr = new Trainer();
+            tr.poketype = trainer[0] & 0xFF;
+            tr.trainerclass = trainer[1] & 0xFF;
+            tr.index = i;
+            int numPokes = trainer[3] & 0xFF;
+            int pokeOffs = 0;
+            tr.fullDisplayName = tclasses.get(tr.trainerclass) + " " + tnames.get(i - 1);
+            for (int poke = 0; poke < numPokes; poke++) {
+                // Structure is
+                // IV SB LV LV SP SP FRM FRM
+                // (HI HI)
+                // (M1 M1 M2 M2 M3 M3 M4 M4)
+                // where SB = 0 0 Ab Ab 0 0 G G
+                // IV is a "difficulty" level between 0 and 255 to represent 0 to 31 IVs.
+                //     These IVs affect all attributes. For the vanilla games, the
+                //     vast majority of trainers have 0 IVs; Elite Four members will
+                //     have 30 IVs.
+                // Ab Ab = ability number, 0 for first ability, 2 for second [HGSS only]
+                // G G affect the gender somehow. 0 appears to mean "most common
+                //     gender for the species".
+                int difficulty = trpoke[pokeOffs] & 0xFF;
+                int level = trpoke[pokeOffs + 2] & 0xFF;
+                int species = (trpoke[pokeOffs + 4] & 0xFF) + ((trpoke[pokeOffs + 5] & 0x01) << 8);
+                int formnum = (trpoke[pokeOffs + 5] >> 2);
+                TrainerPokemon tpk = new TrainerPokemon();
+                tpk.level = level;
+                tpk.pokemon = pokes[species];
+                tpk.IVs = (difficulty * 31) / 255;
+                int abilitySlot = (trpoke[pokeOffs + 1] >>> 4) & 0xF;
+                if (abilitySlot == 0) {
+                    // All Gen 4 games represent the first ability as ability 0.
+                    abilitySlot = 1;
+                }
+                tpk.abilitySlot = abilitySlot;
+                tpk.forme = formnum;
+                tpk.formeSuffix = Gen4Constants.getFormeSuffixByBaseForme(species,formnum);
+                pokeOffs += 6;
+                if (tr.pokemonHaveItems()) {
+                    tpk.heldItem = readWord(trpoke, pokeOffs);
+                    pokeOffs += 2;
+                }
+                if (tr.pokemonHaveCustomMoves()) {
+                    for (int move = 0; move < 4; move++) {
+                        tpk.moves[move] = readWord(trpoke, pokeOffs + (move*2));
                     }
-                    tr.pokemon.add(tpk);
+                    pokeOffs += 8;
+                }
+                // Plat/HGSS have another random pokeOffs +=2 here.
+                if (romEntry.romType != Gen4Constants.Type_DP) {
+                    pokeOffs += 2;
                 }
-                allTrainers.add(tr);
+                tr.pokemon.add(tpk);
             }
-            if (romEntry.romType == Gen4Constants.Type_DP) {
-                Gen4Constants.tagTrainersDP(allTrainers);
-                Gen4Constants.setMultiBattleStatusDP(allTrainers);
-            } else if (romEntry.romType == Gen4Constants.Type_Plat) {
-                Gen4Constants.tagTrainersPt(allTrainers);
-                Gen4Constants.setMultiBattleStatusPt(allTrainers);
-            } else {
-                Gen4Constants.tagTrainersHGSS(allTrainers);
-                Gen4Constants.setMultiBattleStatusHGSS(allTrainers);
+            allTrainers.add(tr);
+        }
+        if (romEntry.romType == Gen4Constants.Type_DP) {
+            Gen4Constants.tagTrainersDP(allTrainers);
+            Gen4Constants.setMultiBattleStatusDP(allTrainers);
+        } else if (romEntry.romType == Gen4Constants.Type_Plat) {
+            Gen4Constants.tagTrainersPt(allTrainers);
+            Gen4Constants.setMultiBattleStatusPt(allTrainers);
+        } else {
+            Gen4Constants.tagTrainersHGSS(allTrainers);
+            Gen4Constants.setMultiBattleStatusHGSS(allTrainers);
+        }
+        return allTrainers;
+    }
+
+    @Override
+    protected Set<CachedModel> cachedModels() {
+        // Both are otherwise unpacked from their NARCs again on every read
+        return EnumSet.of(CachedModel.TRAINERS, CachedModel.MOVESETS);
+    }
+
+    @Override
+    protected List<Trainer> stageTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+        try {
+            // Start from what's already staged, which may have double battle flags set
+            if (stagedTrainerData == null) {
+                stagedTrainerData = this.readNARC(romEntry.getFile("TrainerData"));
             }
+            stagedTrainerPokemon = encodeTrainers(trainerData, doubleBattleMode, stagedTrainerData);
         } catch (IOException ex) {
             throw new RandomizerIOException(ex);
         }
-        return allTrainers;
+        return parseTrainers(stagedTrainerData, stagedTrainerPokemon);
+    }
+
+    @Override
+    protected void writeStagedTrainers(boolean doubleBattleMode) {
+        try {
+            this.writeNARC(romEntry.getFile("TrainerData"), stagedTrainerData);
+            this.writeNARC(romEntry.getFile("TrainerPokemon"), stagedTrainerPokemon);
+            if (doubleBattleMode) {
+                patchDoubleBattleMode();
+            }
+        } catch (IOException ex) {
+            throw new RandomizerIOException(ex);
+        }
+        stagedTrainerData = null;
+        stagedTrainerPokemon = null;
+    }
+
+    @Override
+    protected Map<Integer, List<MoveLearnt>> stageMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+        stagedMovesets = encodeMovesLearnt(movesets);
+        return parseMovesLearnt(stagedMovesets);
+    }
+
+    @Override
+    protected void writeStagedMovesLearnt() {
+        try {
+            this.writeNARC(romEntry.getFile("PokemonMovesets"), stagedMovesets);
+        } catch (IOException e) {
+            throw new RandomizerIOException(e);
+        }
+        stagedMovesets = null;
+    }
+
+    private void refreshCachedTrainerDisplayNames() {
+        List<Trainer> trainers = getCachedTrainers();
+        if (trainers == null) {
+            return;
+        }
+        List<String> tclasses = this.getTrainerClassNames();
+        List<String> tnames = this.getTrainerNames();
+        for (Trainer tr : trainers) {
+            tr.fullDisplayName = tclasses.get(tr.trainerclass) + " " + tnames.get(tr.index - 1);
+        }
     }
 
     @Override
@@ -2906,175 +2978,183 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+    protected void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+        try {
+            NARCArchive trainers = this.readNARC(romEntry.getFile("TrainerData"));
+            NARCArchive trpokes = encodeTrainers(trainerData, doubleBattleMode, trainers);
+            this.writeNARC(romEntry.getFile("TrainerData"), trainers);
+            this.writeNARC(romEntry.getFile("TrainerPokemon"), trpokes);
+            if (doubleBattleMode) {
+                patchDoubleBattleMode();
+            }
+        } catch (IOException ex) {
+            throw new RandomizerIOException(ex);
+        }
+    }
+
+    // Writes trainerData into the trainer data NARC given and returns the trainer pokemon NARC for it
+    private NARCArchive encodeTrainers(List<Trainer> trainerData, boolean doubleBattleMode, NARCArchive trainers) {
         if (romEntry.romType == Gen4Constants.Type_HGSS) {
             fixAbilitySlotValuesForHGSS(trainerData);
         }
         Iterator<Trainer> allTrainers = trainerData.iterator();
-        try {
-            NARCArchive trainers = this.readNARC(romEntry.getFile("TrainerData"));
-            NARCArchive trpokes = new NARCArchive();
-
-            // Get current movesets in case we need to reset them for certain
-            // trainer mons.
-            Map<Integer, List<MoveLearnt>> movesets = this.getMovesLearnt();
-
-            // empty entry
-            trpokes.files.add(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0 });
-            int trainernum = trainers.files.size();
-            for (int i = 1; i < trainernum; i++) {
-                byte[] trainer = trainers.files.get(i);
-                Trainer tr = allTrainers.next();
-                // preserve original poketype
-                trainer[0] = (byte) tr.poketype;
-                int numPokes = tr.pokemon.size();
-                trainer[3] = (byte) numPokes;
-
-                if (doubleBattleMode) {
-                    if (!tr.skipImportant()) {
-                        // If we set this flag for partner trainers (e.g., Cheryl), then the double wild battles
-                        // will turn into trainer battles with glitchy trainers.
-                        boolean excludedPartnerTrainer = romEntry.romType != Gen4Constants.Type_HGSS &&
-                                Gen4Constants.partnerTrainerIndices.contains(tr.index);
-                        if (trainer[16] == 0 && !excludedPartnerTrainer) {
-                            trainer[16] |= 3;
-                        }
+        NARCArchive trpokes = new NARCArchive();
+
+        // Get current movesets in case we need to reset them for certain
+        // trainer mons.
+        Map<Integer, List<MoveLearnt>> movesets = this.getMovesLearnt();
+
+        // empty entry
+        trpokes.files.add(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0 });
+        int trainernum = trainers.files.size();
+        for (int i = 1; i < trainernum; i++) {
+            byte[] trainer = trainers.files.get(i);
+            Trainer tr = allTrainers.next();
+            // preserve original poketype
+            trainer[0] = (byte) tr.poketype;
+            int numPokes = tr.pokemon.size();
+            trainer[3] = (byte) numPokes;
+
+            if (doubleBattleMode) {
+                if (!tr.skipImportant()) {
+                    // If we set this flag for partner trainers (e.g., Cheryl), then the double wild battles
+                    // will turn into trainer battles with glitchy trainers.
+                    boolean excludedPartnerTrainer = romEntry.romType != Gen4Constants.Type_HGSS &&
+                            Gen4Constants.partnerTrainerIndices.contains(tr.index);
+                    if (trainer[16] == 0 && !excludedPartnerTrainer) {
+                        trainer[16] |= 3;
                     }
                 }
+            }
 
-                int bytesNeeded = 6 * numPokes;
-                if (romEntry.romType != Gen4Constants.Type_DP) {
-                    bytesNeeded += 2 * numPokes;
+            int bytesNeeded = 6 * numPokes;
+            if (romEntry.romType != Gen4Constants.Type_DP) {
+                bytesNeeded += 2 * numPokes;
+            }
+            if (tr.pokemonHaveCustomMoves()) {
+                bytesNeeded += 8 * numPokes; // 2 bytes * 4 moves
+            }
+            if (tr.pokemonHaveItems()) {
+                bytesNeeded += 2 * numPokes;
+            }
+            byte[] trpoke = new byte[bytesNeeded];
+            int pokeOffs = 0;
+            Iterator<TrainerPokemon> tpokes = tr.pokemon.iterator();
+            for (int poke = 0; poke < numPokes; poke++) {
+                TrainerPokemon tp = tpokes.next();
+                int ability = tp.abilitySlot << 4;
+                if (tp.abilitySlot == 1) {
+                    // All Gen 4 games represent the first ability as ability 0.
+                    ability = 0;
+                }
+                // Add 1 to offset integer division truncation
+                int difficulty = Math.min(255, 1 + (tp.IVs * 255) / 31);
+                writeWord(trpoke, pokeOffs, difficulty | ability << 8);
+                writeWord(trpoke, pokeOffs + 2, tp.level);
+                writeWord(trpoke, pokeOffs + 4, tp.pokemon.number);
+                trpoke[pokeOffs + 5] |= (tp.forme << 2);
+                pokeOffs += 6;
+                if (tr.pokemonHaveItems()) {
+                    writeWord(trpoke, pokeOffs, tp.heldItem);
+                    pokeOffs += 2;
                 }
                 if (tr.pokemonHaveCustomMoves()) {
-                    bytesNeeded += 8 * numPokes; // 2 bytes * 4 moves
-                }
-                if (tr.pokemonHaveItems()) {
-                    bytesNeeded += 2 * numPokes;
-                }
-                byte[] trpoke = new byte[bytesNeeded];
-                int pokeOffs = 0;
-                Iterator<TrainerPokemon> tpokes = tr.pokemon.iterator();
-                for (int poke = 0; poke < numPokes; poke++) {
-                    TrainerPokemon tp = tpokes.next();
-                    int ability = tp.abilitySlot << 4;
-                    if (tp.abilitySlot == 1) {
-                        // All Gen 4 games represent the first ability as ability 0.
-                        ability = 0;
-                    }
-                    // Add 1 to offset integer division truncation
-                    int difficulty = Math.min(255, 1 + (tp.IVs * 255) / 31);
-                    writeWord(trpoke, pokeOffs, difficulty | ability << 8);
-                    writeWord(trpoke, pokeOffs + 2, tp.level);
-                    writeWord(trpoke, pokeOffs + 4, tp.pokemon.number);
-                    trpoke[pokeOffs + 5] |= (tp.forme << 2);
-                    pokeOffs += 6;
-                    if (tr.pokemonHaveItems()) {
-                        writeWord(trpoke, pokeOffs, tp.heldItem);
-                        pokeOffs += 2;
-                    }
-                    if (tr.pokemonHaveCustomMoves()) {
-                        if (tp.resetMoves) {
-                            int[] pokeMoves = RomFunctions.getMovesAtLevel(getAltFormeOfPokemon(tp.pokemon, tp.forme).number, movesets, tp.level);
-                            for (int m = 0; m < 4; m++) {
-                                writeWord(trpoke, pokeOffs + m * 2, pokeMoves[m]);
-                            }
-                        } else {
-                            writeWord(trpoke, pokeOffs, tp.moves[0]);
-                            writeWord(trpoke, pokeOffs + 2, tp.moves[1]);
-                            writeWord(trpoke, pokeOffs + 4, tp.moves[2]);
-                            writeWord(trpoke, pokeOffs + 6, tp.moves[3]);
+                    if (tp.resetMoves) {
+                        int[] pokeMoves = RomFunctions.getMovesAtLevel(getAltFormeOfPokemon(tp.pokemon, tp.forme).number, movesets, tp.level);
+                        for (int m = 0; m < 4; m++) {
+                            writeWord(trpoke, pokeOffs + m * 2, pokeMoves[m]);
                         }
-                        pokeOffs += 8;
-                    }
-                    // Plat/HGSS have another random pokeOffs +=2 here.
-                    if (romEntry.romType != Gen4Constants.Type_DP) {
-                        pokeOffs += 2;
+                    } else {
+                        writeWord(trpoke, pokeOffs, tp.moves[0]);
+                        writeWord(trpoke, pokeOffs + 2, tp.moves[1]);
+                        writeWord(trpoke, pokeOffs + 4, tp.moves[2]);
+                        writeWord(trpoke, pokeOffs + 6, tp.moves[3]);
                     }
+                    pokeOffs += 8;
                 }
-                trpokes.files.add(trpoke);
-            }
-            this.writeNARC(romEntry.getFile("TrainerData"), trainers);
-            this.writeNARC(romEntry.getFile("TrainerPokemon"), trpokes);
-
-            // In Gen 4, the game prioritizes showing the special double battle intro over almost any
-            // other kind of intro. Since the trainer music is tied to the intro, this results in the
-            // vast majority of "special" trainers losing their intro and music in double battle mode.
-            // To fix this, the below code patches the executable to skip the case for the special
-            // double battle intro (by changing a beq to an unconditional branch); this slightly breaks
-            // battles that are double battles in the original game, but the trade-off is worth it.
-
-            // Then, also patch various subroutines that control the "Trainer Eye" event and text boxes
-            // related to this in order to make double battles work on all trainers
-            if (doubleBattleMode) {
-                String doubleBattleFixPrefix = Gen4Constants.getDoubleBattleFixPrefix(romEntry.romType);
-                int offset = find(arm9, doubleBattleFixPrefix);
-                if (offset > 0) {
-                    offset += doubleBattleFixPrefix.length() / 2; // because it was a prefix
-                    arm9[offset] = (byte) 0xE0;
-                } else {
-                    throw new RandomizationException("Double Battle Mode not supported for this game");
+                // Plat/HGSS have another random pokeOffs +=2 here.
+                if (romEntry.romType != Gen4Constants.Type_DP) {
+                    pokeOffs += 2;
                 }
+            }
+            trpokes.files.add(trpoke);
+        }
+        return trpokes;
+    }
 
-                String doubleBattleFlagReturnPrefix = romEntry.getString("DoubleBattleFlagReturnPrefix");
-                String doubleBattleWalkingPrefix1 = romEntry.getString("DoubleBattleWalkingPrefix1");
-                String doubleBattleWalkingPrefix2 = romEntry.getString("DoubleBattleWalkingPrefix2");
-                String doubleBattleTextBoxPrefix = romEntry.getString("DoubleBattleTextBoxPrefix");
+    // In Gen 4, the game prioritizes showing the special double battle intro over almost any
+    // other kind of intro. Since the trainer music is tied to the intro, this results in the
+    // vast majority of "special" trainers losing their intro and music in double battle mode.
+    // To fix this, the below code patches the executable to skip the case for the special
+    // double battle intro (by changing a beq to an unconditional branch); this slightly breaks
+    // battles that are double battles in the original game, but the trade-off is worth it.
 
-                // After getting the double battle flag, return immediately instead of converting it to a 1 for
-                // non-zero values/0 for zero
-                offset = find(arm9, doubleBattleFlagReturnPrefix);
-                if (offset > 0) {
-                    offset += doubleBattleFlagReturnPrefix.length() / 2; // because it was a prefix
-                    writeWord(arm9, offset, 0xBD08);
-                } else {
-                    throw new RandomizationException("Double Battle Mode not supported for this game");
-                }
+    // Then, also patch various subroutines that control the "Trainer Eye" event and text boxes
+    // related to this in order to make double battles work on all trainers
+    private void patchDoubleBattleMode() throws IOException {
+        String doubleBattleFixPrefix = Gen4Constants.getDoubleBattleFixPrefix(romEntry.romType);
+        int offset = find(arm9, doubleBattleFixPrefix);
+        if (offset > 0) {
+            offset += doubleBattleFixPrefix.length() / 2; // because it was a prefix
+            arm9[offset] = (byte) 0xE0;
+        } else {
+            throw new RandomizationException("Double Battle Mode not supported for this game");
+        }
 
-                // Instead of doing "double trainer walk" for nonzero values, do it only for value == 2
-                offset = find(arm9, doubleBattleWalkingPrefix1);
-                if (offset > 0) {
-                    offset += doubleBattleWalkingPrefix1.length() / 2; // because it was a prefix
-                    arm9[offset] = (byte) 0x2;      // cmp r0, #0x2
-                    arm9[offset+3] = (byte) 0xD0;   // beq DOUBLE_TRAINER_WALK
-                } else {
-                    throw new RandomizationException("Double Battle Mode not supported for this game");
-                }
+        String doubleBattleFlagReturnPrefix = romEntry.getString("DoubleBattleFlagReturnPrefix");
+        String doubleBattleWalkingPrefix1 = romEntry.getString("DoubleBattleWalkingPrefix1");
+        String doubleBattleWalkingPrefix2 = romEntry.getString("DoubleBattleWalkingPrefix2");
+        String doubleBattleTextBoxPrefix = romEntry.getString("DoubleBattleTextBoxPrefix");
 
-                // Instead of checking if the value was exactly 1 after checking that it was nonzero, check that it's
-                // 2 again lol
-                offset = find(arm9, doubleBattleWalkingPrefix2);
-                if (offset > 0) {
-                    offset += doubleBattleWalkingPrefix2.length() / 2; // because it was a prefix
-                    arm9[offset] = (byte) 0x2;
-                } else {
-                    throw new RandomizationException("Double Battle Mode not supported for this game");
-                }
+        // After getting the double battle flag, return immediately instead of converting it to a 1 for
+        // non-zero values/0 for zero
+        offset = find(arm9, doubleBattleFlagReturnPrefix);
+        if (offset > 0) {
+            offset += doubleBattleFlagReturnPrefix.length() / 2; // because it was a prefix
+            writeWord(arm9, offset, 0xBD08);
+        } else {
+            throw new RandomizationException("Double Battle Mode not supported for this game");
+        }
 
-                // Once again, compare a value to 2 instead of just checking that it's nonzero
-                offset = find(arm9, doubleBattleTextBoxPrefix);
-                if (offset > 0) {
-                    offset += doubleBattleTextBoxPrefix.length() / 2; // because it was a prefix
-                    writeWord(arm9, offset, 0x46C0);
-                    writeWord(arm9, offset+2, 0x2802);
-                    arm9[offset+5] = (byte) 0xD0;
-                } else {
-                    throw new RandomizationException("Double Battle Mode not supported for this game");
-                }
+        // Instead of doing "double trainer walk" for nonzero values, do it only for value == 2
+        offset = find(arm9, doubleBattleWalkingPrefix1);
+        if (offset > 0) {
+            offset += doubleBattleWalkingPrefix1.length() / 2; // because it was a prefix
+            arm9[offset] = (byte) 0x2;      // cmp r0, #0x2
+            arm9[offset+3] = (byte) 0xD0;   // beq DOUBLE_TRAINER_WALK
+        } else {
+            throw new RandomizationException("Double Battle Mode not supported for this game");
+        }
 
-                // This NARC has some data that controls how text boxes are handled at the end of a trainer battle.
-                // Changing this byte from 4 -> 0 makes it check if the "double battle" flag is exactly 2 instead of
-                // checking "flag & 2", which makes the single trainer double battles use the single battle
-                // handling (since we set their flag to 3 instead of 2)
-                NARCArchive battleSkillSubSeq = readNARC(romEntry.getFile("BattleSkillSubSeq"));
-                byte[] trainerEndFile = battleSkillSubSeq.files.get(romEntry.getInt("TrainerEndFileNumber"));
-                trainerEndFile[romEntry.getInt("TrainerEndTextBoxOffset")] = 0;
-                writeNARC(romEntry.getFile("BattleSkillSubSeq"), battleSkillSubSeq);
+        // Instead of checking if the value was exactly 1 after checking that it was nonzero, check that it's
+        // 2 again lol
+        offset = find(arm9, doubleBattleWalkingPrefix2);
+        if (offset > 0) {
+            offset += doubleBattleWalkingPrefix2.length() / 2; // because it was a prefix
+            arm9[offset] = (byte) 0x2;
+        } else {
+            throw new RandomizationException("Double Battle Mode not supported for this game");
+        }
 
-            }
-        } catch (IOException ex) {
-            throw new RandomizerIOException(ex);
+        // Once again, compare a value to 2 instead of just checking that it's nonzero
+        offset = find(arm9, doubleBattleTextBoxPrefix);
+        if (offset > 0) {
+            offset += doubleBattleTextBoxPrefix.length() / 2; // because it was a prefix
+            writeWord(arm9, offset, 0x46C0);
+            writeWord(arm9, offset+2, 0x2802);
+            arm9[offset+5] = (byte) 0xD0;
+        } else {
+            throw new RandomizationException("Double Battle Mode not supported for this game");
         }
+
+        // This NARC has some data that controls how text boxes are handled at the end of a trainer battle.
+        // Changing this byte from 4 -> 0 makes it check if the "double battle" flag is exactly 2 instead of
+        // checking "flag & 2", which makes the single trainer double battles use the single battle
+        // handling (since we set their flag to 3 instead of 2)
+        NARCArchive battleSkillSubSeq = readNARC(romEntry.getFile("BattleSkillSubSeq"));
+        byte[] trainerEndFile = battleSkillSubSeq.files.get(romEntry.getInt("TrainerEndFileNumber"));
+        trainerEndFile[romEntry.getInt("TrainerEndTextBoxOffset")] = 0;
+        writeNARC(romEntry.getFile("BattleSkillSubSeq"), battleSkillSubSeq);
     }
 
     // Note: This method is here to avoid bloating AbstractRomHandler with special-case logic.
@@ -3123,43 +3203,55 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
-        Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
+    protected Map<Integer, List<MoveLearnt>> readMovesLearnt() {
         try {
             NARCArchive movesLearnt = this.readNARC(romEntry.getFile("PokemonMovesets"));
-            int formeCount = Gen4Constants.getFormeCount(romEntry.romType);
-            for (int i = 1; i <= Gen4Constants.pokemonCount + formeCount; i++) {
-                Pokemon pkmn = pokes[i];
-                byte[] rom;
-                if (i > Gen4Constants.pokemonCount) {
-                    rom = movesLearnt.files.get(i + Gen4Constants.formeOffset);
-                } else {
-                    rom = movesLearnt.files.get(i);
-                }
-                int moveDataLoc = 0;
-                List<MoveLearnt> learnt = new ArrayList<>();
-                while ((rom[moveDataLoc] & 0xFF) != 0xFF || (rom[moveDataLoc + 1] & 0xFF) != 0xFF) {
-                    int move = (rom[moveDataLoc] & 0xFF);
-                    int level = (rom[moveDataLoc + 1] & 0xFE) >> 1;
-                    if ((rom[moveDataLoc + 1] & 0x01) == 0x01) {
-                        move += 256;
-                    }
-                    MoveLearnt ml = new MoveLearnt();
-                    ml.level = level;
-                    ml.move = move;
-                    learnt.add(ml);
-                    moveDataLoc += 2;
-                }
-                movesets.put(pkmn.number, learnt);
-            }
+            return parseMovesLearnt(movesLearnt);
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
+    }
+
+    private Map<Integer, List<MoveLearnt>> parseMovesLearnt(NARCArchive movesLearnt) {
+        Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
+        int formeCount = Gen4Constants.getFormeCount(romEntry.romType);
+        for (int i = 1; i <= Gen4Constants.pokemonCount + formeCount; i++) {
+            Pokemon pkmn = pokes[i];
+            byte[] rom;
+            if (i > Gen4Constants.pokemonCount) {
+                rom = movesLearnt.files.get(i + Gen4Constants.formeOffset);
+            } else {
+                rom = movesLearnt.files.get(i);
+            }
+            int moveDataLoc = 0;
+            List<MoveLearnt> learnt = new ArrayList<>();
+            while ((rom[moveDataLoc] & 0xFF) != 0xFF || (rom[moveDataLoc + 1] & 0xFF) != 0xFF) {
+                int move = (rom[moveDataLoc] & 0xFF);
+                int level = (rom[moveDataLoc + 1] & 0xFE) >> 1;
+                if ((rom[moveDataLoc + 1] & 0x01) == 0x01) {
+                    move += 256;
+                }
+                MoveLearnt ml = new MoveLearnt();
+                ml.level = level;
+                ml.move = move;
+                learnt.add(ml);
+                moveDataLoc += 2;
+            }
+            movesets.put(pkmn.number, learnt);
+        }
         return movesets;
     }
 
     @Override
-    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+        try {
+            this.writeNARC(romEntry.getFile("PokemonMovesets"), encodeMovesLearnt(movesets));
+        } catch (IOException e) {
+            throw new RandomizerIOException(e);
+        }
+    }
+
+    private NARCArchive encodeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
         // int[] extraLearnSets = new int[] { 7, 13, 13 };
         // Build up a new NARC
         NARCArchive movesLearnt = new NARCArchive();
@@ -3197,13 +3289,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         //for (int j = 0; j < extraLearnSets[romEntry.romType]; j++) {
         //    movesLearnt.files.add(blankSet);
         //}
-        // Save
-        try {
-            this.writeNARC(romEntry.getFile("PokemonMovesets"), movesLearnt);
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
-        }
-
+        return movesLearnt;
     }
 
     @Override
@@ -4687,6 +4773,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
 
         // rewrite, only compressed if they were compressed before
         setStrings(romEntry.getInt("TrainerNamesTextOffset"), newTNames, lastStringsCompressed);
+        refreshCachedTrainerDisplayNames();
 
     }
 
@@ -4709,6 +4796,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     @Override
     public void setTrainerClassNames(List<String> trainerClassNames) {
         setStrings(romEntry.getInt("TrainerClassesTextOffset"), trainerClassNames);
+        refreshCachedTrainerDisplayNames();
     }
 
     @Override
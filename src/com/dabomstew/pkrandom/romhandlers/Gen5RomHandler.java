@@ -26,8 +26,9 @@ package com.dabomstew.pkrandom.romhandlers;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -127,12 +128,13 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     private static void loadROMInfo() {
-        roms = new ArrayList<>();
+        List<RomEntry> entries = new ArrayList<>();
         RomEntry current = null;
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("gen5_offsets.ini"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine().trim();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileFunctions.openConfig("gen5_offsets.ini"),
+                "UTF-8"))) {
+            String q;
+            while ((q = reader.readLine()) != null) {
+                q = q.trim();
                 if (q.contains("//")) {
                     q = q.substring(0, q.indexOf("//")).trim();
                 }
@@ -141,7 +143,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
                         // New rom
                         current = new RomEntry();
                         current.name = q.substring(1, q.length() - 1);
-                        roms.add(current);
+                        entries.add(current);
                     } else {
                         String[] r = q.split("=", 2);
                         if (r.length == 1) {
@@ -163,7 +165,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
                                 current.romType = Gen5Constants.Type_BW;
                             }
                         } else if (r[0].equals("CopyFrom")) {
-                            for (RomEntry otherEntry : roms) {
+                            for (RomEntry otherEntry : entries) {
                                 if (r[1].equalsIgnoreCase(otherEntry.romCode)) {
                                     // copy from here
                                     current.arrayEntries.putAll(otherEntry.arrayEntries);
@@ -276,10 +278,12 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
                     }
                 }
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+        } catch (IOException e) {
+            System.err.println("Could not read gen5_offsets.ini");
+            e.printStackTrace();
+            entries.clear();
         }
+        roms = entries;
     }
 
     private static int parseRIInt(String off) {
@@ -436,6 +440,8 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         try {
             stringsNarc = readNARC(romEntry.getFile("TextStrings"));
             storyTextNarc = readNARC(romEntry.getFile("TextStory"));
+            stringsCache.clear();
+            storyTextCache.clear();
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
@@ -1364,7 +1370,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         List<Trainer> allTrainers = new ArrayList<>();
         try {
             NARCArchive trainers = this.readNARC(romEntry.getFile("TrainerData"));
@@ -1514,7 +1520,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+    protected void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
         Iterator<Trainer> allTrainers = trainerData.iterator();
         try {
             NARCArchive trainers = this.readNARC(romEntry.getFile("TrainerData"));
@@ -1710,7 +1716,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
+    protected Map<Integer, List<MoveLearnt>> readMovesLearnt() {
         Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
         try {
             NARCArchive movesLearnt = this.readNARC(romEntry.getFile("PokemonMovesets"));
@@ -1744,7 +1750,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
         try {
             NARCArchive movesLearnt = readNARC(romEntry.getFile("PokemonMovesets"));
             int formeCount = Gen5Constants.getFormeCount(romEntry.romType);
@@ -2969,10 +2975,20 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         }
     }
 
+    // Decoded text files, kept until they are written back
+    private final Map<Integer, List<String>> stringsCache = new HashMap<>();
+    private final Map<Integer, List<String>> storyTextCache = new HashMap<>();
+
     private List<String> getStrings(boolean isStoryText, int index) {
         NARCArchive baseNARC = isStoryText ? storyTextNarc : stringsNarc;
-        byte[] rawFile = baseNARC.files.get(index);
-        return new ArrayList<>(PPTxtHandler.readTexts(rawFile));
+        Map<Integer, List<String>> cache = isStoryText ? storyTextCache : stringsCache;
+        List<String> strings = cache.get(index);
+        if (strings == null) {
+            byte[] rawFile = baseNARC.files.get(index);
+            strings = PPTxtHandler.readTexts(rawFile);
+            cache.put(index, strings);
+        }
+        return new ArrayList<>(strings);
     }
 
     private void setStrings(boolean isStoryText, int index, List<String> strings) {
@@ -2980,6 +2996,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         byte[] oldRawFile = baseNARC.files.get(index);
         byte[] newRawFile = PPTxtHandler.saveEntry(oldRawFile, strings);
         baseNARC.files.set(index, newRawFile);
+        (isStoryText ? storyTextCache : stringsCache).remove(index);
     }
 
     @Override
@@ -34,7 +34,7 @@ import com.dabomstew.pkrandom.ctr.GARCArchive;
 import com.dabomstew.pkrandom.ctr.Mini;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
 import com.dabomstew.pkrandom.pokemon.*;
-import pptxt.N3DSTxtHandler;
+import pptxt.N3DSTextStore;
 
 import java.awt.image.BufferedImage;
 import java.io.*;
@@ -116,12 +116,13 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     private static void loadROMInfo() {
-        roms = new ArrayList<>();
+        List<RomEntry> entries = new ArrayList<>();
         RomEntry current = null;
-        try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("gen7_offsets.ini"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine().trim();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileFunctions.openConfig("gen7_offsets.ini"),
+                "UTF-8"))) {
+            String q;
+            while ((q = reader.readLine()) != null) {
+                q = q.trim();
                 if (q.contains("//")) {
                     q = q.substring(0, q.indexOf("//")).trim();
                 }
@@ -130,7 +131,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
                         // New rom
                         current = new RomEntry();
                         current.name = q.substring(1, q.length() - 1);
-                        roms.add(current);
+                        entries.add(current);
                     } else {
                         String[] r = q.split("=", 2);
                         if (r.length == 1) {
@@ -191,7 +192,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
                                 current.arrayEntries.put(r[0], offs);
                             }
                         } else if (r[0].equals("CopyFrom")) {
-                            for (RomEntry otherEntry : roms) {
+                            for (RomEntry otherEntry : entries) {
                                 if (r[1].equalsIgnoreCase(otherEntry.romCode)) {
                                     // copy from here
                                     current.linkedStaticOffsets.putAll(otherEntry.linkedStaticOffsets);
@@ -208,10 +209,12 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
                     }
                 }
             }
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found!");
+        } catch (IOException e) {
+            System.err.println("Could not read gen7_offsets.ini");
+            e.printStackTrace();
+            entries.clear();
         }
+        roms = entries;
     }
 
     private static int parseRIInt(String off) {
@@ -264,6 +267,9 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     private Map<String, Long> actualFileCRC32s;
 
     private GARCArchive pokeGarc, moveGarc, encounterGarc, stringsGarc, storyTextGarc;
+    private N3DSTextStore textStore;
+    // Other languages' text GARCs are read the first time something is written to them, and written at save time
+    private Map<String, GARCArchive> languageStringsGarcs = new LinkedHashMap<>();
 
     @Override
     protected boolean detect3DSRom(String productCode, String titleId) {
@@ -300,6 +306,8 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
         try {
             stringsGarc = readGARC(romEntry.getFile("TextStrings"), true);
             storyTextGarc = readGARC(romEntry.getFile("StoryText"), true);
+            textStore = new N3DSTextStore(true, romEntry.romType);
+            languageStringsGarcs.clear();
             areaDataList = getAreaData();
         } catch (IOException e) {
             throw new RandomizerIOException(e);
@@ -335,8 +343,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     private List<String> getStrings(GARCArchive textGARC, int index) {
-        byte[] rawFile = textGARC.files.get(index).get(0);
-        return new ArrayList<>(N3DSTxtHandler.readTexts(rawFile,true,romEntry.romType));
+        return textStore.getStrings(textGARC, index);
     }
 
     private void setStrings(boolean isStoryText, int index, List<String> strings) {
@@ -345,13 +352,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     private void setStrings(GARCArchive textGARC, int index, List<String> strings) {
-        byte[] oldRawFile = textGARC.files.get(index).get(0);
-        try {
-            byte[] newRawFile = N3DSTxtHandler.saveEntry(oldRawFile, strings, romEntry.romType);
-            textGARC.setFile(index, newRawFile);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        textStore.setStrings(textGARC, index, strings);
     }
 
     private void loadPokemonStats() {
@@ -798,9 +799,13 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
         saveMoves();
         try {
             writeCode(code);
+            textStore.flush();
             writeGARC(romEntry.getFile("WildPokemon"), encounterGarc);
             writeGARC(romEntry.getFile("TextStrings"), stringsGarc);
             writeGARC(romEntry.getFile("StoryText"), storyTextGarc);
+            for (Map.Entry<String, GARCArchive> languageGarc : languageStringsGarcs.entrySet()) {
+                writeGARC(romEntry.getFile(languageGarc.getKey()), languageGarc.getValue());
+            }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
@@ -1610,7 +1615,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         List<Trainer> allTrainers = new ArrayList<>();
         try {
             GARCArchive trainers = this.readGARC(romEntry.getFile("TrainerData"),true);
@@ -1715,7 +1720,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
+    protected void writeTrainers(List<Trainer> trainerData, boolean doubleBattleMode) {
         Iterator<Trainer> allTrainers = trainerData.iterator();
         try {
             GARCArchive trainers = this.readGARC(romEntry.getFile("TrainerData"),true);
@@ -1862,7 +1867,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     @Override
-    public Map<Integer, List<MoveLearnt>> getMovesLearnt() {
+    protected Map<Integer, List<MoveLearnt>> readMovesLearnt() {
         Map<Integer, List<MoveLearnt>> movesets = new TreeMap<>();
         try {
             GARCArchive movesLearnt = this.readGARC(romEntry.getFile("PokemonMovesets"),true);
@@ -1891,7 +1896,7 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Map<Integer, List<MoveLearnt>> movesets) {
         try {
             GARCArchive movesLearnt = readGARC(romEntry.getFile("PokemonMovesets"),true);
             int formeCount = Gen7Constants.getFormeCount(romEntry.romType);
@@ -3007,9 +3012,12 @@ public class Gen7RomHandler extends Abstract3DSRomHandler {
         List<String> nonEnglishLanguages = Arrays.asList("JaKana", "JaKanji", "Fr", "It", "De", "Es", "Ko", "ZhSimplified", "ZhTraditional");
         for (String nonEnglishLanguage : nonEnglishLanguages) {
             String key = "TextStrings" + nonEnglishLanguage;
-            GARCArchive stringsGarcForLanguage = readGARC(romEntry.getFile(key),true);
+            GARCArchive stringsGarcForLanguage = languageStringsGarcs.get(key);
+            if (stringsGarcForLanguage == null) {
+                stringsGarcForLanguage = readGARC(romEntry.getFile(key),true);
+                languageStringsGarcs.put(key, stringsGarcForLanguage);
+            }
             setStrings(stringsGarcForLanguage, index, strings);
-            writeGARC(romEntry.getFile(key), stringsGarcForLanguage);
         }
     }
 
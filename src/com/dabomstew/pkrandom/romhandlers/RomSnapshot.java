@@ -0,0 +1,138 @@
+package com.dabomstew.pkrandom.romhandlers;
+
+/*----------------------------------------------------------------------------*/
+/*--  RomSnapshot.java - a source ROM that is loaded once and then          --*/
+/*--                     copied into a fresh RomHandler per randomization.  --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import com.dabomstew.pkrandom.ctr.NCCH;
+import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
+import com.dabomstew.pkrandom.newnds.NDSRom;
+
+public class RomSnapshot {
+
+    private final RomHandler.Factory factory;
+    private final String filename;
+    private final int generation;
+    // What has been read from the ROM already, depending on the kind of game; none of it is ever written to
+    private final byte[] contents;
+    private final NDSRom ndsRom;
+    private final NCCH ncch, gameUpdate;
+
+    private RomSnapshot(RomHandler.Factory factory, String filename, int generation, byte[] contents, NDSRom ndsRom,
+                        NCCH ncch, NCCH gameUpdate) {
+        this.factory = factory;
+        this.filename = filename;
+        this.generation = generation;
+        this.contents = contents;
+        this.ndsRom = ndsRom;
+        this.ncch = ncch;
+        this.gameUpdate = gameUpdate;
+    }
+
+    /**
+     * Detects which handler can load the given ROM and loads it (and the game update, for 3DS games) once,
+     * keeping the ROM image or the file system that was read.
+     * Returns null if none of the factories can load the file.
+     */
+    public static RomSnapshot load(RomHandler.Factory[] factories, String filename, String updateFilename) {
+        for (RomHandler.Factory factory : factories) {
+            if (factory.isLoadable(filename)) {
+                RomHandler loaded = factory.create(null);
+                if (!loaded.loadRom(filename)) {
+                    return null;
+                }
+                int generation = loaded.generationOfPokemon();
+                if (updateFilename != null && (generation == 6 || generation == 7)) {
+                    loaded.loadGameUpdate(updateFilename);
+                }
+                byte[] contents = null;
+                NDSRom ndsRom = null;
+                NCCH ncch = null, gameUpdate = null;
+                try {
+                    if (loaded instanceof AbstractGBRomHandler) {
+                        contents = ((AbstractGBRomHandler) loaded).originalRom;
+                    } else if (loaded instanceof AbstractDSRomHandler) {
+                        ndsRom = ((AbstractDSRomHandler) loaded).getNDSRom();
+                        ((AbstractDSRomHandler) loaded).closeInnerRom();
+                    } else if (loaded instanceof Abstract3DSRomHandler) {
+                        ncch = ((Abstract3DSRomHandler) loaded).getNCCH();
+                        gameUpdate = ((Abstract3DSRomHandler) loaded).getGameUpdateNCCH();
+                        ((Abstract3DSRomHandler) loaded).closeInnerRom();
+                        ((Abstract3DSRomHandler) loaded).deleteTmpFolders();
+                    }
+                } catch (IOException ex) {
+                    throw new RandomizerIOException(ex);
+                }
+                return new RomSnapshot(factory, filename, generation, contents, ndsRom, ncch, gameUpdate);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new handler that loads the game from a copy of what was read before, without reading the
+     * ROM's file system again. DS and 3DS handlers open the ROM file for themselves when they first read
+     * from it, and 3DS handlers get temp folders of their own. The snapshot itself is never modified, so
+     * this can be called any number of times, including from several threads at once.
+     */
+    public RomHandler fork(Random random, PrintStream logStream) {
+        RomHandler romHandler = factory.create(random, logStream);
+        if (contents != null) {
+            ((AbstractGBRomHandler) romHandler).loadRom(filename, contents);
+        } else if (ndsRom != null) {
+            ((AbstractDSRomHandler) romHandler).loadRom(filename, ndsRom);
+        } else {
+            ((Abstract3DSRomHandler) romHandler).loadRom(filename, ncch, gameUpdate);
+        }
+        return romHandler;
+    }
+
+    /**
+     * Closes the ROM file of a handler made by fork() and deletes its temp files, once it is done with.
+     */
+    public void release(RomHandler romHandler) throws IOException {
+        if (romHandler instanceof AbstractDSRomHandler) {
+            ((AbstractDSRomHandler) romHandler).closeInnerRom();
+        } else if (romHandler instanceof Abstract3DSRomHandler) {
+            ((Abstract3DSRomHandler) romHandler).closeInnerRom();
+            ((Abstract3DSRomHandler) romHandler).deleteTmpFolders();
+        }
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public boolean hasGameUpdate() {
+        return gameUpdate != null;
+    }
+}
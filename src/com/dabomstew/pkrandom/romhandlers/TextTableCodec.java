@@ -0,0 +1,188 @@
+package com.dabomstew.pkrandom.romhandlers;
+
+/*----------------------------------------------------------------------------*/
+/*--  TextTableCodec.java - encodes text with a GB/GBA .tbl table           --*/
+/*--                        using a trie of its tokens.                     --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns text into the bytes a .tbl table gives for it, the way the GB and GBA handlers always have: at each point
+ * the longest token of at most maxTokenLength characters that matches is used, characters with no token are
+ * dropped, and \xNN writes byte NN as is. With a variable code, \vNN writes that code followed by NN.
+ *
+ * Encoding goes into a buffer that's kept between calls, and encodedLength works out the length without
+ * writing anything, so neither allocates unless the buffer has to grow.
+ */
+public class TextTableCodec {
+
+    private final int maxTokenLength;
+    private final int variableCode;
+
+    // Trie of the table's tokens: the characters leading out of each node in order, the nodes they lead to,
+    // and the code for the token ending at each node (-1 if none does)
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] codes;
+
+    private byte[] buffer = new byte[256];
+
+    public TextTableCodec(Map<String, Byte> table, int maxTokenLength) {
+        this(table, maxTokenLength, -1);
+    }
+
+    public TextTableCodec(Map<String, Byte> table, int maxTokenLength, int variableCode) {
+        this.maxTokenLength = maxTokenLength;
+        this.variableCode = variableCode;
+
+        int maxNodes = 1;
+        for (String token : table.keySet()) {
+            maxNodes += token.length();
+        }
+        List<TreeMap<Character, Integer>> children = new ArrayList<>(Collections.nCopies(maxNodes,
+                (TreeMap<Character, Integer>) null));
+        int[] tokenCodes = new int[maxNodes];
+        Arrays.fill(tokenCodes, -1);
+        int nodes = 1;
+        for (Map.Entry<String, Byte> entry : table.entrySet()) {
+            String token = entry.getKey();
+            if (token.isEmpty() || token.length() > maxTokenLength) {
+                continue; // never matched
+            }
+            int node = 0;
+            for (int i = 0; i < token.length(); i++) {
+                if (children.get(node) == null) {
+                    children.set(node, new TreeMap<>());
+                }
+                Integer next = children.get(node).get(token.charAt(i));
+                if (next == null) {
+                    next = nodes++;
+                    children.get(node).put(token.charAt(i), next);
+                }
+                node = next;
+            }
+            tokenCodes[node] = entry.getValue() & 0xFF;
+        }
+
+        edgeChars = new char[nodes][];
+        edgeTargets = new int[nodes][];
+        codes = Arrays.copyOf(tokenCodes, nodes);
+        for (int node = 0; node < nodes; node++) {
+            int count = children.get(node) == null ? 0 : children.get(node).size();
+            edgeChars[node] = new char[count];
+            edgeTargets[node] = new int[count];
+            int i = 0;
+            if (count > 0) {
+                for (Map.Entry<Character, Integer> edge : children.get(node).entrySet()) {
+                    edgeChars[node][i] = edge.getKey();
+                    edgeTargets[node][i] = edge.getValue();
+                    i++;
+                }
+            }
+        }
+    }
+
+    public byte[] encode(String text) {
+        int length = translate(text, true);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Encodes text into the buffer (see getBuffer) and returns how many bytes it took. The buffer is overwritten
+     * by the next call.
+     */
+    public int encodeToBuffer(String text) {
+        return translate(text, true);
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int encodedLength(String text) {
+        return translate(text, false);
+    }
+
+    private int translate(String text, boolean write) {
+        int length = 0;
+        int pos = 0;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '\\' && text.charAt(pos + 1) == 'x') {
+                if (write) {
+                    put(length, Integer.parseInt(text.substring(pos + 2, pos + 4), 16));
+                }
+                length++;
+                pos += 4;
+            } else if (variableCode != -1 && c == '\\' && text.charAt(pos + 1) == 'v') {
+                if (write) {
+                    put(length, variableCode);
+                    put(length + 1, Integer.parseInt(text.substring(pos + 2, pos + 4), 16));
+                }
+                length += 2;
+                pos += 4;
+            } else {
+                // longest token matching here
+                int node = 0;
+                int code = -1;
+                int tokenLength = 0;
+                int limit = Math.min(maxTokenLength, text.length() - pos);
+                for (int i = 0; i < limit; i++) {
+                    char[] chars = edgeChars[node];
+                    int edge = Arrays.binarySearch(chars, text.charAt(pos + i));
+                    if (edge < 0) {
+                        break;
+                    }
+                    node = edgeTargets[node][edge];
+                    if (codes[node] != -1) {
+                        code = codes[node];
+                        tokenLength = i + 1;
+                    }
+                }
+                if (code == -1) {
+                    pos++;
+                } else {
+                    if (write) {
+                        put(length, code);
+                    }
+                    length++;
+                    pos += tokenLength;
+                }
+            }
+        }
+        return length;
+    }
+
+    private void put(int index, int value) {
+        if (index >= buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[index] = (byte) value;
+    }
+}
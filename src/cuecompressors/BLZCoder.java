@@ -39,6 +39,7 @@ public class BLZCoder {
 
     private static final int CMD_DECODE = 0;
     private static final int CMD_ENCODE = 1;
+    private static final int CMD_TIME = 2;
 
     private static final int BLZ_NORMAL = 0;
     private static final int BLZ_BEST = 1;
@@ -79,6 +80,8 @@ public class BLZCoder {
         } else if (args[0].equalsIgnoreCase("-eo") || args[0].equalsIgnoreCase("-eo9")) {
             cmd = CMD_ENCODE;
             mode = BLZ_BEST;
+        } else if (args[0].equalsIgnoreCase("-t") || args[0].equalsIgnoreCase("-t9")) {
+            cmd = CMD_TIME;
         } else {
             EXIT("Command not supported\n");
             return;
@@ -98,6 +101,11 @@ public class BLZCoder {
             for (arg = 1; arg < args.length; arg++)
                 BLZ_Encode(args[arg], mode);
             break;
+        case CMD_TIME:
+            arm9 = (args[0].length() > 2 && args[0].charAt(2) == '9');
+            for (arg = 1; arg < args.length; arg++)
+                Time(args[arg]);
+            break;
         }
 
         System.out.print("\nDone\n");
@@ -106,10 +114,12 @@ public class BLZCoder {
     private void Usage() {
         EXIT("Usage: BLZ command filename [filename [...]]\n" + "\n" + "command:\n"
                 + "  -d ....... decode 'filename'\n" + "  -en[9] ... encode 'filename', normal mode\n"
-                + "  -eo[9] ... encode 'filename', optimal mode (LZ-CUE)\n" + "\n"
+                + "  -eo[9] ... encode 'filename', optimal mode (LZ-CUE)\n"
+                + "  -t[9] .... time encoding compressed 'filename' again in each mode\n" + "\n"
                 + "* '9' compress an ARM9 file with 0x4000 bytes decoded\n"
                 + "* multiple filenames and wildcards are permitted\n"
-                + "* the original file is overwritten with the new file\n"
+                + "* the original file is overwritten with the new file, except when timing\n"
+                + "* files to time are BLZ files, or LZSS files from a GARC if they start with 0x11\n"
                 + "* this codification is used in the DS overlay files\n");
 
     }
@@ -156,6 +166,53 @@ public class BLZCoder {
         }
     }
 
+    // Decodes a compressed file as it came from a ROM, then times encoding it again in every mode that applies,
+    // checking that the result decodes back to the same data. Sizes are compared with the original file.
+    private void Time(String filename) {
+        try {
+            System.out.printf("- timing '%s'\n", filename);
+            byte[] original = FileFunctions.readFileFullyIntoBuffer(filename);
+            if (original.length > 0 && original[0] == 0x11) {
+                byte[] decoded = LZSS_Decode(original);
+                if (decoded != null) {
+                    long startTime = System.currentTimeMillis();
+                    byte[] encoded = LZSS_Encode(decoded);
+                    long time = System.currentTimeMillis() - startTime;
+                    PrintTiming("LZSS", original.length, encoded, time, Arrays.equals(LZSS_Decode(encoded), decoded));
+                    return;
+                }
+            }
+            BLZResult result = BLZ_Decode(original);
+            if (result == null) {
+                return;
+            }
+            byte[] decoded = toBytes(result);
+            String[] modeNames = { "BLZ normal", "BLZ best" };
+            for (int mode = BLZ_NORMAL; mode <= BLZ_BEST; mode++) {
+                long startTime = System.currentTimeMillis();
+                byte[] encoded = toBytes(BLZ_Encode(decoded, mode));
+                long time = System.currentTimeMillis() - startTime;
+                PrintTiming(modeNames[mode], original.length, encoded, time,
+                        Arrays.equals(toBytes(BLZ_Decode(encoded)), decoded));
+            }
+        } catch (IOException e) {
+            EXIT("\nFile read error\n");
+        }
+    }
+
+    private void PrintTiming(String mode, int originalLength, byte[] encoded, long time, boolean roundTrips) {
+        System.out.printf("  %-10s original=%d, new=%d, time=%dms%s\n", mode, originalLength, encoded.length, time,
+                roundTrips ? "" : ", WARNING: does not decode to the same data!");
+    }
+
+    private byte[] toBytes(BLZResult result) {
+        byte[] retbuf = new byte[result.length];
+        for (int i = 0; i < result.length; i++) {
+            retbuf[i] = (byte) result.buffer[i];
+        }
+        return retbuf;
+    }
+
     public byte[] BLZ_DecodePub(byte[] data, String reference) {
         if (reference.equals("GARC")) {
             return LZSS_Decode(data);
@@ -432,13 +489,15 @@ public class BLZCoder {
     }
 
     private BLZResult BLZ_Encode(byte[] data, int mode) {
-        int[] raw_buffer, pak_buffer, new_buffer;
+        byte[] raw_buffer;
+        int[] pak_buffer, new_buffer;
         int raw_len, pak_len;
 
         new_len = 0;
 
-        raw_buffer = prepareData(data);
-        raw_len = raw_buffer.length - 3;
+        // a copy, since it is inverted while encoding
+        raw_buffer = Arrays.copyOf(data, data.length);
+        raw_len = raw_buffer.length;
 
         pak_buffer = null;
         pak_len = BLZ_MAXIM + 1;
@@ -452,7 +511,7 @@ public class BLZCoder {
         return new BLZResult(pak_buffer, pak_len);
     }
 
-    private int[] BLZ_Code(int[] raw_buffer, int raw_len, int best) {
+    private int[] BLZ_Code(byte[] raw_buffer, int raw_len, int best) {
         int[] pak_buffer, tmp;
         int pak, raw, raw_end, flg = 0;
         int pak_len, inc_len, hdr_len, enc_len, len;
@@ -479,6 +538,7 @@ public class BLZCoder {
         pak = 0;
         raw = 0;
         raw_end = raw_new;
+        HashChain chain = new HashChain(raw_buffer, raw_end);
 
         mask = 0;
         while (raw < raw_end) {
@@ -487,7 +547,7 @@ public class BLZCoder {
                 mask = BLZ_MASK;
             }
 
-            SearchPair sl1 = SEARCH(pos_best, raw_buffer, raw, raw_end);
+            SearchPair sl1 = SEARCH(pos_best, raw_buffer, raw, raw_end, chain);
             len_best = sl1.l;
             pos_best = sl1.p;
 
@@ -496,11 +556,11 @@ public class BLZCoder {
                 if (len_best > BLZ_THRESHOLD) {
                     if (raw + len_best < raw_end) {
                         raw += len_best;
-                        SearchPair sl2 = SEARCH(pos_next, raw_buffer, raw, raw_end);
+                        SearchPair sl2 = SEARCH(pos_next, raw_buffer, raw, raw_end, chain);
                         len_next = sl2.l;
                         pos_next = sl2.p;
                         raw -= (len_best - 1);
-                        SearchPair sl3 = SEARCH(pos_post, raw_buffer, raw, raw_end);
+                        SearchPair sl3 = SEARCH(pos_post, raw_buffer, raw, raw_end, chain);
                         len_post = sl3.l;
                         pos_post = sl3.p;
                         raw--;
@@ -525,7 +585,7 @@ public class BLZCoder {
                 pak_buffer[pak++] = ((len_best - (BLZ_THRESHOLD + 1)) << 4) | ((pos_best - 3) >>> 8);
                 pak_buffer[pak++] = (pos_best - 3) & 0xFF;
             } else {
-                pak_buffer[pak++] = raw_buffer[raw++];
+                pak_buffer[pak++] = raw_buffer[raw++] & 0xFF;
             }
 
             if (pak + raw_len - raw < pak_tmp + raw_tmp) {
@@ -550,7 +610,7 @@ public class BLZCoder {
             raw_end = raw_len;
 
             while (raw < raw_end) {
-                pak_buffer[pak] = raw_buffer[raw];
+                pak_buffer[pak++] = raw_buffer[raw++] & 0xFF;
             }
 
             while ((pak & 3) > 0) {
@@ -564,7 +624,7 @@ public class BLZCoder {
         } else {
             tmp = new int[raw_tmp + pak_tmp + 11];
             for (len = 0; len < raw_tmp; len++) {
-                tmp[len] = raw_buffer[len];
+                tmp[len] = raw_buffer[len] & 0xFF;
             }
             for (len = 0; len < pak_tmp; len++) {
                 tmp[raw_tmp + len] = pak_buffer[len + pak_len - pak_tmp];
@@ -613,6 +673,8 @@ public class BLZCoder {
             return Arrays.copyOfRange(outBuf.array(),0,outBuf.position());
         }
 
+        HashChain chain = new HashChain(data, data.length);
+        int[] candidates = new int[0x1000];
         ByteBuffer blockBuf = ByteBuffer.allocate((8 * 4) + 1);
         blockBuf.put((byte)0);
         int bufferedBlocks = 0;
@@ -627,11 +689,12 @@ public class BLZCoder {
             int oldLength = Math.min(inBuf.position(),0x1000);
             LengthDispPair pair =
                     getOccurrenceLength(
-                            inBuf,
+                            data,
                             inBuf.position(),
                             Math.min(data.length - inBuf.position(), 0x10110),
                             inBuf.position() - oldLength,
-                            oldLength);
+                            chain,
+                            candidates);
             int length = pair.length;
             int disp = pair.disp;
 
@@ -668,25 +731,36 @@ public class BLZCoder {
         return Arrays.copyOfRange(outBuf.array(),0,outBuf.position());
     }
 
-    private LengthDispPair getOccurrenceLength(ByteBuffer buf, int newIndex, int newLength, int oldIndex, int oldLength) {
-        int disp = 0;
-        if (newLength == 0) {
+    // Finds the longest match for newIndex that starts between oldIndex and two bytes back, taking the one
+    // furthest back if several are just as long. Only positions with the same three byte hash can match at
+    // least three bytes, and shorter matches are never used, so only those are compared.
+    private LengthDispPair getOccurrenceLength(byte[] data, int newIndex, int newLength, int oldIndex,
+                                               HashChain chain, int[] candidates) {
+        if (newLength < 3) {
             return new LengthDispPair(0,0);
         }
-        int maxLength = 0;
 
-        for (int i = 0; i < oldLength - 1; i++) {
-            int currentOldStart = oldIndex + i;
-            int currentLength = 0;
+        // The chain runs from the nearest position back; collect it so the furthest can be tried first
+        int count = 0;
+        for (int q = chain.previous(newIndex); q >= oldIndex; q = chain.previous(q)) {
+            if (q <= newIndex - 2) {
+                candidates[count++] = q;
+            }
+        }
 
-            for (int j = 0; j < newLength; j++) {
-                if (buf.get(currentOldStart + j) != buf.get(newIndex + j)) break;
+        int disp = 0;
+        int maxLength = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            int currentOldStart = candidates[i];
+            int currentLength = 0;
+            while (currentLength < newLength
+                    && data[currentOldStart + currentLength] == data[newIndex + currentLength]) {
                 currentLength++;
             }
 
             if (currentLength > maxLength) {
                 maxLength = currentLength;
-                disp = oldLength - i;
+                disp = newIndex - currentOldStart;
 
                 if (maxLength == newLength) {
                     break;
@@ -716,26 +790,30 @@ public class BLZCoder {
         }
     }
 
-    private SearchPair SEARCH(int p, int[] raw_buffer, int raw, int raw_end) {
+    // Finds the longest match of up to BLZ_F bytes for raw at a distance of 3 to BLZ_N, taking the nearest if
+    // several are just as long. As in getOccurrenceLength, only positions with the same three byte hash are
+    // compared, nearest first.
+    private SearchPair SEARCH(int p, byte[] raw_buffer, int raw, int raw_end, HashChain chain) {
         int l = BLZ_THRESHOLD;
+        if (raw_end - raw <= BLZ_THRESHOLD) {
+            return new SearchPair(l, p);
+        }
         int max = (raw >= BLZ_N) ? BLZ_N : raw;
-        for (int pos = 3; pos <= max; pos++) {
-            int len;
-            for (len = 0; len < BLZ_F; len++) {
-                if (raw + len == raw_end) {
-                    break;
-                }
-                if (len >= pos) {
-                    break;
-                }
-                if (raw_buffer[raw + len] != raw_buffer[raw + len - pos]) {
-                    break;
-                }
+        int longest = Math.min(BLZ_F, raw_end - raw);
+        for (int q = chain.previous(raw); q >= raw - max; q = chain.previous(q)) {
+            int pos = raw - q;
+            if (pos < 3) {
+                continue;
+            }
+            int limit = Math.min(longest, pos);
+            int len = 0;
+            while (len < limit && raw_buffer[raw + len] == raw_buffer[q + len]) {
+                len++;
             }
 
             if (len > l) {
                 p = pos;
-                if ((l = len) == BLZ_F) {
+                if ((l = len) == longest) {
                     break;
                 }
             }
@@ -743,6 +821,29 @@ public class BLZCoder {
         return new SearchPair(l, p);
     }
 
+    // For every position, the previous position whose next three bytes hash the same (or -1)
+    private static class HashChain {
+        private static final int HASH_BITS = 16;
+
+        private final int[] prev;
+
+        public HashChain(byte[] data, int length) {
+            prev = new int[Math.max(length - 2, 0)];
+            int[] head = new int[1 << HASH_BITS];
+            Arrays.fill(head, -1);
+            for (int q = 0; q < prev.length; q++) {
+                int key = (data[q] & 0xFF) << 16 | (data[q + 1] & 0xFF) << 8 | (data[q + 2] & 0xFF);
+                int hash = (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+                prev[q] = head[hash];
+                head[hash] = q;
+            }
+        }
+
+        public int previous(int position) {
+            return prev[position];
+        }
+    }
+
     private class BLZResult {
         public BLZResult(int[] raw_buffer, int raw_len) {
             this.buffer = raw_buffer;
@@ -753,6 +854,19 @@ public class BLZCoder {
         int length;
     }
 
+    private void BLZ_Invert(byte[] buffer, int offset, int length) {
+        int bottom;
+        byte ch;
+
+        bottom = offset + length - 1;
+
+        while (offset < bottom) {
+            ch = buffer[offset];
+            buffer[offset++] = buffer[bottom];
+            buffer[bottom--] = ch;
+        }
+    }
+
     private void BLZ_Invert(int[] buffer, int offset, int length) {
         int bottom, ch;
 
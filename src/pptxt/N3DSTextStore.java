@@ -0,0 +1,87 @@
+package pptxt;
+
+/*----------------------------------------------------------------------------*/
+/*--  N3DSTextStore.java - decoded text files for the 3DS games,            --*/
+/*--                       which are encoded again once when saving         --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer ZX" by the UPR-ZX team          --*/
+/*--  Originally part of "Universal Pokemon Randomizer" by Dabomstew        --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2020.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import com.dabomstew.pkrandom.ctr.GARCArchive;
+
+import java.io.IOException;
+import java.util.*;
+
+// Each text file is decoded the first time it is read, and edits are only encoded back into the GARC when
+// the store is flushed, so a file edited many times during randomization is encoded once.
+public class N3DSTextStore {
+
+    private final boolean remapChars;
+    private final int romType;
+    private final Map<GARCArchive, Map<Integer, List<String>>> decoded = new IdentityHashMap<>();
+    private final Map<GARCArchive, Map<Integer, List<String>>> pending = new IdentityHashMap<>();
+
+    public N3DSTextStore(boolean remapChars, int romType) {
+        this.remapChars = remapChars;
+        this.romType = romType;
+    }
+
+    public List<String> getStrings(GARCArchive textGARC, int index) {
+        Map<Integer, List<String>> pendingFiles = pending.get(textGARC);
+        if (pendingFiles != null && pendingFiles.containsKey(index)) {
+            // Give back what the edited file reads as, not the list that was set
+            encode(textGARC, index, pendingFiles.remove(index));
+        }
+        List<String> strings = decoded.computeIfAbsent(textGARC, k -> new HashMap<>()).get(index);
+        if (strings == null) {
+            strings = N3DSTxtHandler.readTexts(textGARC.files.get(index).get(0), remapChars, romType);
+            decoded.get(textGARC).put(index, strings);
+        }
+        return new ArrayList<>(strings);
+    }
+
+    public void setStrings(GARCArchive textGARC, int index, List<String> strings) {
+        Map<Integer, List<String>> decodedFiles = decoded.get(textGARC);
+        if (decodedFiles != null) {
+            decodedFiles.remove(index);
+        }
+        pending.computeIfAbsent(textGARC, k -> new TreeMap<>()).put(index, new ArrayList<>(strings));
+    }
+
+    public void flush() {
+        for (Map.Entry<GARCArchive, Map<Integer, List<String>>> garcEntry : pending.entrySet()) {
+            for (Map.Entry<Integer, List<String>> fileEntry : garcEntry.getValue().entrySet()) {
+                encode(garcEntry.getKey(), fileEntry.getKey(), fileEntry.getValue());
+            }
+        }
+        pending.clear();
+    }
+
+    private void encode(GARCArchive textGARC, int index, List<String> strings) {
+        byte[] oldRawFile = textGARC.files.get(index).get(0);
+        try {
+            byte[] newRawFile = N3DSTxtHandler.saveEntry(oldRawFile, strings, remapChars, romType);
+            textGARC.setFile(index, newRawFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -20,16 +20,13 @@ package pptxt;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
-import com.dabomstew.pkrandom.constants.Gen7Constants;
 import com.dabomstew.pkrandom.constants.N3DSConstants;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.*;
-import java.util.stream.Collectors;
 
+// Keeps no state between calls; everything a file needs is passed in, so files can be read and written from
+// several threads at once.
 public class N3DSTxtHandler {
 
     private static final int KEY_BASE = 0x7C89;
@@ -40,13 +37,9 @@ public class N3DSTxtHandler {
     private static final int KEY_TEXTCLEAR = 0xBE01;
     private static final int KEY_TEXTWAIT = 0xBE02;
     private static final int KEY_TEXTNULL = 0xBDFF;
-    private static boolean remapChars = false;
-    private static boolean setEmptyText = false;
-    private static int romType;
+    private static final boolean setEmptyText = false;
 
     public static List<String> readTexts(byte[] ds, boolean remapChars, int romType) {
-        N3DSTxtHandler.remapChars = remapChars;
-        N3DSTxtHandler.romType = romType;
         List<String> strings = new ArrayList<>();
         int numSections, numEntries, totalLength, initialKey, sectionDataOffset, sectionLength;
 
@@ -62,87 +55,77 @@ public class N3DSTxtHandler {
             return new ArrayList<>();
         }
 
-        int[] entryOffsets = new int[numEntries];
-        int[] entryLengths = new int[numEntries];
-
+        StringBuilder sb = new StringBuilder();
+        int key = KEY_BASE;
         for (int i = 0; i < numEntries; i++) {
-            entryOffsets[i] = readLong(ds, (i * 8) + sectionDataOffset + 4) + sectionDataOffset;
-            entryLengths[i] = readShort(ds, (i * 8) + sectionDataOffset + 8);
-            byte[] encEntryData = Arrays.copyOfRange(ds, entryOffsets[i], entryOffsets[i] + entryLengths[i]*2);
-            strings.add(getEntryString(cryptEntryData(encEntryData,getEntryKey(i))));
+            int entryOffset = readLong(ds, (i * 8) + sectionDataOffset + 4) + sectionDataOffset;
+            int entryLength = readShort(ds, (i * 8) + sectionDataOffset + 8);
+            sb.setLength(0);
+            appendEntryString(sb, decryptEntry(ds, entryOffset, entryLength, key), remapChars, romType);
+            strings.add(sb.toString());
+            key = (key + KEY_ADVANCE) & 0xFFFF;
         }
 
         return strings;
     }
 
-    public static byte[] saveEntry(byte[] originalData, List<String> values, int romType) throws IOException {
-        int key = KEY_BASE;
-
-        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
-        ByteBuffer offsetsBuf = ByteBuffer.allocate(values.size() * 8);
-        offsetsBuf.order(ByteOrder.LITTLE_ENDIAN);
-        int dataOffset = 4 + values.size() * 8;
+    public static byte[] saveEntry(byte[] originalData, List<String> values, boolean remapChars, int romType)
+            throws IOException {
+        int[][] entries = new int[values.size()][];
+        int dataSize = 0;
         for (int i = 0; i < values.size(); i++) {
             String text = values.get(i).trim();
             if (text.length() == 0 && setEmptyText) {
                 text = String.format("[~ %d]",i);
             }
-            byte[] decEntryData = getEntryData(text,romType);
-            byte[] encEntryData = cryptEntryData(decEntryData,key);
-            offsetsBuf.putInt(dataOffset + dataStream.size());
-            offsetsBuf.putShort((short)(encEntryData.length / 2));
-            offsetsBuf.position(offsetsBuf.position()+2);
-            dataStream.write(encEntryData);
-            if (encEntryData.length % 4 == 2) {
-                dataStream.write(0);
-                dataStream.write(0);
-            }
-            key = (key + KEY_ADVANCE) & 0xFFFF;
+            entries[i] = getEntryData(text, remapChars, romType);
+            dataSize += (entries[i].length + 1) / 2 * 4;
         }
 
         int sectionDataOffset = 0x10;
-        ByteBuffer headerBuf = ByteBuffer.allocate(0x14);
-        headerBuf.order(ByteOrder.LITTLE_ENDIAN);
-        headerBuf.putShort((short)1);
-        headerBuf.putShort((short)values.size());
-        headerBuf.putInt(4 + values.size()*8 + dataStream.size());
-        headerBuf.putInt(0);
-        headerBuf.putInt(sectionDataOffset);
-        headerBuf.putInt(4 + values.size()*8 + dataStream.size());
-
-        headerBuf.flip();
-        offsetsBuf.flip();
-
-        byte[] fullArray = new byte[headerBuf.limit() + offsetsBuf.limit() + dataStream.size()];
-        System.arraycopy(headerBuf.array(),
-                0,
-                fullArray,
-                0,
-                headerBuf.limit());
-        System.arraycopy(offsetsBuf.array(),
-                0,
-                fullArray,
-                headerBuf.limit(),
-                offsetsBuf.limit());
-        System.arraycopy(dataStream.toByteArray(),
-                0,
-                fullArray,
-                headerBuf.limit()+offsetsBuf.limit(),
-                dataStream.size());
+        int sectionLength = 4 + values.size() * 8 + dataSize;
+        byte[] fullArray = new byte[0x14 + values.size() * 8 + dataSize];
+        writeShort(fullArray, 0, 1);
+        writeShort(fullArray, 2, values.size());
+        writeLong(fullArray, 4, sectionLength);
+        writeLong(fullArray, 8, 0);
+        writeLong(fullArray, 0xC, sectionDataOffset);
+        writeLong(fullArray, 0x10, sectionLength);
+
+        int key = KEY_BASE;
+        int dataOffset = 4 + values.size() * 8;
+        int offsetsPos = 0x14;
+        int dataPos = 0x14 + values.size() * 8;
+        for (int[] entry : entries) {
+            writeLong(fullArray, offsetsPos, dataOffset);
+            writeShort(fullArray, offsetsPos + 4, entry.length);
+            offsetsPos += 8;
+            int wordKey = key;
+            for (int word : entry) {
+                writeShort(fullArray, dataPos, word ^ wordKey);
+                dataPos += 2;
+                wordKey = (wordKey << 3 | wordKey >>> 13) & 0xFFFF;
+            }
+            // Entries are padded to a multiple of 4 bytes
+            int paddedLength = (entry.length + 1) / 2 * 4;
+            dataPos += paddedLength - entry.length * 2;
+            dataOffset += paddedLength;
+            key = (key + KEY_ADVANCE) & 0xFFFF;
+        }
 
         return fullArray;
     }
 
-    private static byte[] getEntryData(String entry, int romType) throws IOException {
+    private static int[] getEntryData(String entry, boolean remapChars, int romType) throws IOException {
         if (entry == null) {
-            return new byte[2];
+            return new int[1];
         }
 
-        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+        WordBuffer data = new WordBuffer(entry.length() + 1);
         int i = 0;
         while (i < entry.length()) {
             int val = entry.charAt(i++);
-            val = tryRemapChar(val);
+            val = tryRemapChar(val, remapChars);
 
             if (val == '[') {
                 int bracket = entry.indexOf("]",i);
@@ -150,65 +133,41 @@ public class N3DSTxtHandler {
                     throw new IOException("Variable text is not capped properly: " + entry);
                 }
                 String varText = entry.substring(i,bracket);
-                List<Integer> varValues = getVariableValues(varText,romType);
-                for (int v: varValues) {
-                    dataStream.write(v & 0xFF);
-                    dataStream.write((v >>> 8) & 0xFF);
-                }
+                addVariableValues(data, varText, romType);
                 i += 1 + varText.length();
             } else if (val == '\\') {
-                List<Integer> escapeValues = getEscapeValues(entry.charAt(i++));
-                for (int escVal: escapeValues) {
-                    dataStream.write(escVal & 0xFF);
-                    dataStream.write((escVal >>> 8) & 0xFF);
-                }
+                addEscapeValues(data, entry.charAt(i++));
             } else {
-                dataStream.write(val & 0xFF);
-                dataStream.write((val >>> 8) & 0xFF);
+                data.add(val);
             }
         }
-        dataStream.write(KEY_TERMINATOR & 0xFF);
-        dataStream.write((KEY_TERMINATOR >>> 8) & 0xFF);
-        return dataStream.toByteArray();
+        data.add(KEY_TERMINATOR);
+        return data.toArray();
     }
 
-    private static byte[] cryptEntryData(byte[] data, int key) {
-        byte[] result = new byte[data.length];
-        for (int i = 0; i < result.length; i+= 2) {
-            int sh = (readShort(data, i) & 0xFFFF) ^ (key & 0xFFFF);
-            result[i] = (byte)(sh & 0xFF);
-            result[i+1] = (byte)((sh >> 8) & 0xFF);
+    // Decrypts an entry's words. Words past the end of the file read as zero.
+    private static int[] decryptEntry(byte[] ds, int offset, int length, int key) {
+        int[] words = new int[length];
+        for (int i = 0; i < length; i++) {
+            int pos = offset + i * 2;
+            int word = (pos < ds.length ? ds[pos] & 0xFF : 0) | (pos + 1 < ds.length ? (ds[pos + 1] & 0xFF) << 8 : 0);
+            words[i] = word ^ key;
             key = (key << 3 | key >>> 13) & 0xFFFF;
         }
-        return result;
-    }
-
-    private static int getEntryKey(int index) {
-        int key = KEY_BASE;
-        for (int i = 0; i < index; i++) {
-            key = (key + KEY_ADVANCE) & 0xFFFF;
-        }
-        return key;
+        return words;
     }
 
-    private static String getEntryString(byte[] data) {
-        if (data == null) {
-            return "";
-        }
-
-        StringBuilder sb = new StringBuilder();
+    private static void appendEntryString(StringBuilder sb, int[] data, boolean remapChars, int romType) {
         int i = 0;
 
         while (i < data.length) {
-            int val = readShort(data, i);
+            int val = data[i];
             if (val == KEY_TERMINATOR) break;
-            i += 2;
+            i++;
 
             switch (val) {
                 case KEY_VARIABLE:
-                    RefInt refI = new RefInt(i);
-                    sb.append(getVariableString(data,refI));
-                    i = refI.val;
+                    i = appendVariableString(sb, data, i, romType);
                     break;
                 case '\n':
                     sb.append("\\n");
@@ -220,87 +179,85 @@ public class N3DSTxtHandler {
                     sb.append("\\[");
                     break;
                 default:
-                    sb.append((char)tryUnmapChar(val));
+                    sb.append((char)tryUnmapChar(val, remapChars));
             }
         }
-        return sb.toString();
     }
 
-    private static List<Integer> getEscapeValues(char esc) throws IOException {
-        List<Integer> vals = new ArrayList<>();
+    private static void addEscapeValues(WordBuffer data, char esc) throws IOException {
         switch (esc) {
             case 'n':
-                vals.add((int) '\n');
-                return vals;
+                data.add('\n');
+                return;
             case '\\':
-                vals.add((int) '\\');
-                return vals;
+                data.add('\\');
+                return;
             case '[':
-                vals.add((int) '[');
-                return vals;
+                data.add('[');
+                return;
             case 'r':
-                vals.add(KEY_VARIABLE);
-                vals.add(1);
-                vals.add(KEY_TEXTRETURN);
-                return vals;
+                data.add(KEY_VARIABLE);
+                data.add(1);
+                data.add(KEY_TEXTRETURN);
+                return;
             case 'c':
-                vals.add(KEY_VARIABLE);
-                vals.add(1);
-                vals.add(KEY_TEXTCLEAR);
-                return vals;
+                data.add(KEY_VARIABLE);
+                data.add(1);
+                data.add(KEY_TEXTCLEAR);
+                return;
             default:
                 throw new IOException("Invalid terminated line: \\" + esc);
         }
     }
 
-    private static List<Integer> getVariableValues(String variable, int romType) throws IOException {
+    private static void addVariableValues(WordBuffer data, String variable, int romType) throws IOException {
         String[] splitString = variable.split(" ");
         if (splitString.length < 2) {
             throw new IOException("Incorrectly formatted variable text: " + variable);
         }
 
-        List<Integer> vals = new ArrayList<>();
-        vals.add(KEY_VARIABLE);
         switch (splitString[0]) {
             case "~":
-                vals.add(1);
-                vals.add(KEY_TEXTNULL);
-                vals.add(Integer.parseInt(splitString[1]));
+                data.add(KEY_VARIABLE);
+                data.add(1);
+                data.add(KEY_TEXTNULL);
+                data.add(Integer.parseInt(splitString[1]));
                 break;
             case "WAIT":
-                vals.add(1);
-                vals.add(KEY_TEXTWAIT);
-                vals.add(Integer.parseInt(splitString[1]));
+                data.add(KEY_VARIABLE);
+                data.add(1);
+                data.add(KEY_TEXTWAIT);
+                data.add(Integer.parseInt(splitString[1]));
                 break;
             case "VAR":
-                vals.addAll(getVariableParameters(splitString[1],romType));
+                data.add(KEY_VARIABLE);
+                addVariableParameters(data, splitString[1], romType);
                 break;
             default:
                 throw new IOException("Unknown variable method type: " + variable);
         }
-        return vals;
     }
 
-    private static List<Integer> getVariableParameters(String text, int romType) throws IOException {
-        List<Integer> vals = new ArrayList<>();
+    private static void addVariableParameters(WordBuffer data, String text, int romType) throws IOException {
         int bracket = text.indexOf("(");
         boolean noArgs = bracket < 0;
         String variable = noArgs ? text : text.substring(0,bracket);
         int varVal = getVariableNumber(variable,romType);
         if (!noArgs) {
             String[] args = text.substring(bracket + 1, text.length() - 1).split(",");
-            vals.add(1 + args.length);
-            vals.add(varVal);
-            vals.addAll(Arrays.stream(args)
-                    .mapToInt(s -> Integer.parseInt(s,16))
-                    .boxed()
-                    .collect(Collectors.toList()));
-
+            int[] argVals = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argVals[i] = Integer.parseInt(args[i], 16);
+            }
+            data.add(1 + args.length);
+            data.add(varVal);
+            for (int arg : argVals) {
+                data.add(arg);
+            }
         } else {
-            vals.add(1);
-            vals.add(varVal);
+            data.add(1);
+            data.add(varVal);
         }
-        return vals;
     }
 
     private static int getVariableNumber(String variable, int romType) throws IOException {
@@ -315,46 +272,58 @@ public class N3DSTxtHandler {
         }
     }
 
-    private static String getVariableString(byte[] data, RefInt refI) {
-        StringBuilder sb = new StringBuilder();
-        int count = readShort(data,refI.val);
-        refI.val += 2;
-        int variable = readShort(data,refI.val);
-        refI.val += 2;
+    // Appends the variable starting at data[i] (just after KEY_VARIABLE) and returns where the next word is
+    private static int appendVariableString(StringBuilder sb, int[] data, int i, int romType) {
+        int count = data[i++];
+        int variable = data[i++];
 
         switch (variable) {
             case KEY_TEXTRETURN:
-                return "\\r";
+                sb.append("\\r");
+                return i;
             case KEY_TEXTCLEAR:
-                return "\\c";
+                sb.append("\\c");
+                return i;
             case KEY_TEXTWAIT:
-                int time = readShort(data, refI.val);
-                refI.val += 2;
-                return String.format("[WAIT %d]", time);
+                int time = data[i++];
+                sb.append("[WAIT ").append(time).append("]");
+                return i;
             case KEY_TEXTNULL:
-                int line = readShort(data,refI.val);
-                refI.val += 2;
-                return String.format("[~ %d]",line);
+                int line = data[i++];
+                sb.append("[~ ").append(line).append("]");
+                return i;
         }
 
-        String varName = N3DSConstants.getTextVariableCodes(romType).getOrDefault(variable,String.format("%04X",variable));
-        sb.append("[VAR ").append(varName);
+        String varName = N3DSConstants.getTextVariableCodes(romType).get(variable);
+        sb.append("[VAR ");
+        if (varName != null) {
+            sb.append(varName);
+        } else {
+            appendHex(sb, variable);
+        }
         if (count > 1) {
             sb.append("(");
-            while (count > 1 && refI.val < data.length) {
-                int arg = readShort(data,refI.val);
-                refI.val += 2;
-                sb.append(String.format("%04X",arg));
-                if (--count == 1 || refI.val >= data.length) break;
+            while (count > 1 && i < data.length) {
+                int arg = data[i++];
+                appendHex(sb, arg);
+                if (--count == 1 || i >= data.length) break;
                 sb.append(",");
             }
             sb.append(")");
         }
         sb.append("]");
-        return sb.toString();
+        return i;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static void appendHex(StringBuilder sb, int value) {
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(value >> shift) & 0xF]);
+        }
     }
 
-    private static int tryRemapChar(int val) {
+    private static int tryRemapChar(int val, boolean remapChars) {
         if (!remapChars) {
             return val;
         }
@@ -372,7 +341,7 @@ public class N3DSTxtHandler {
         }
     }
 
-    private static int tryUnmapChar(int val) {
+    private static int tryUnmapChar(int val, boolean remapChars) {
         if (!remapChars) {
             return val;
         }
@@ -399,11 +368,35 @@ public class N3DSTxtHandler {
                 + ((data[offset + 3] & 0xFF) << 24);
     }
 
-    private static class RefInt {
-        int val;
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value & 0xFF);
+        data[offset + 1] = (byte) ((value >> 8) & 0xFF);
+    }
+
+    private static void writeLong(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value & 0xFF);
+        data[offset + 1] = (byte) ((value >> 8) & 0xFF);
+        data[offset + 2] = (byte) ((value >> 16) & 0xFF);
+        data[offset + 3] = (byte) ((value >> 24) & 0xFF);
+    }
+
+    private static class WordBuffer {
+        private int[] words;
+        private int size;
+
+        WordBuffer(int capacity) {
+            words = new int[Math.max(capacity, 4)];
+        }
+
+        void add(int word) {
+            if (size == words.length) {
+                words = Arrays.copyOf(words, size * 2);
+            }
+            words[size++] = word;
+        }
 
-        RefInt(int val) {
-            this.val = val;
+        int[] toArray() {
+            return Arrays.copyOf(words, size);
         }
     }
 }
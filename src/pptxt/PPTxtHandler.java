@@ -8,21 +8,22 @@ package pptxt;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.dabomstew.pkrandom.FileFunctions;
 
+// All state is the character table, which is filled in once when the class loads and only read after that, so
+// files can be read and written from several threads at once.
 public class PPTxtHandler {
 
-    private static Map<String, String> pokeToText = new HashMap<>();
-    private static Map<String, String> textToPoke = new HashMap<>();
-
-    private static Pattern pokeToTextPattern, textToPokePattern;
+    private static final Map<Character, String> pokeToText = new HashMap<>();
+    private static final BitSet pokeToTextChars = new BitSet();
+    private static final TextTrie textToPoke = new TextTrie();
 
     static {
         try {
@@ -34,206 +35,218 @@ public class PPTxtHandler {
                     if (r[1].endsWith("\r\n")) {
                         r[1] = r[1].substring(0, r[1].length() - 2);
                     }
-                    pokeToText.put(Character.toString((char) Integer.parseInt(r[0], 16)), r[1].replace("\\", "\\\\")
-                            .replace("$", "\\$"));
-                    textToPoke.put(r[1], "\\\\x" + r[0]);
+                    char pokeChar = (char) Integer.parseInt(r[0], 16);
+                    pokeToText.put(pokeChar, r[1]);
+                    pokeToTextChars.set(pokeChar);
+                    textToPoke.put(r[1], "\\x" + r[0]);
                 }
             }
             sc.close();
-            pokeToTextPattern = makePattern(pokeToText.keySet());
-            textToPokePattern = makePattern(textToPoke.keySet());
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
     }
 
-    private static Pattern makePattern(Iterable<String> tokens) {
-        String patternStr = "("
-                + implode(tokens, "|").replace("\\", "\\\\").replace("[", "\\[").replace("]", "\\]")
-                        .replace("(", "\\(").replace(")", "\\)") + ")";
-        return Pattern.compile(patternStr);
-    }
+    /**
+     * The text side of the character table as a trie, so text can be turned back into escapes in one pass. No
+     * token is a prefix of another one, so the token found at a position is the only one that could match there.
+     */
+    private static class TextTrie {
+        private final Map<Character, TextTrie> next = new HashMap<>();
+        private final BitSet firstChars = new BitSet();
+        private String replacement;
+
+        void put(String token, String replacement) {
+            firstChars.set(token.charAt(0));
+            TextTrie node = this;
+            for (int i = 0; i < token.length(); i++) {
+                node = node.next.computeIfAbsent(token.charAt(i), c -> new TextTrie());
+            }
+            node.replacement = replacement;
+        }
 
-    private static String implode(Iterable<String> tokens, String sep) {
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        for (String token : tokens) {
-            if (!first) {
-                sb.append(sep);
+        String replaceAll(String string) {
+            StringBuilder sb = null;
+            int copied = 0;
+            for (int i = 0; i < string.length(); i++) {
+                if (!firstChars.get(string.charAt(i))) {
+                    continue;
+                }
+                TextTrie node = this;
+                int end = i;
+                while (end < string.length() && node.replacement == null) {
+                    node = node.next.get(string.charAt(end));
+                    if (node == null) {
+                        break;
+                    }
+                    end++;
+                }
+                if (node != null && node.replacement != null) {
+                    if (sb == null) {
+                        sb = new StringBuilder(string.length() + 16);
+                    }
+                    sb.append(string, copied, i).append(node.replacement);
+                    copied = end;
+                    i = end - 1;
+                }
+            }
+            if (sb == null) {
+                return string;
             }
-            sb.append(token);
-            first = false;
+            return sb.append(string, copied, string.length()).toString();
         }
-        return sb.toString();
     }
 
     /**
      * Decompress the words given into chars according to 9bits per char format
      * Based off poketext's implementation of the same in gen4, but uses all 16
      * bits per word as opposed to 15
-     * 
+     *
      * @param chars
-     *            List of words, beginning with [F100] which is skipped.
-     * @return Decompressed list of integers corresponding to characters
+     *            Words, beginning with [F100] which is skipped.
+     * @return Decompressed integers corresponding to characters
      */
-    private static List<Integer> decompress(List<Integer> chars) {
-        List<Integer> uncomp = new ArrayList<>();
+    private static int[] decompress(int[] chars) {
+        int[] uncomp = new int[chars.length * 16 / 9 + 1];
+        int count = 0;
         int j = 1;
         int shift1 = 0;
         int trans = 0;
         while (true) {
-            int tmp = chars.get(j);
-            tmp = tmp >> shift1;
-            int tmp1 = tmp;
+            int tmp1;
             if (shift1 >= 0x10) {
                 shift1 -= 0x10;
                 if (shift1 > 0) {
-                    tmp1 = (trans | ((chars.get(j) << (9 - shift1)) & 0x1FF));
+                    tmp1 = (trans | ((chars[j] << (9 - shift1)) & 0x1FF));
                     if ((tmp1 & 0xFF) == 0xFF) {
                         break;
                     }
                     if (tmp1 != 0x0 && tmp1 != 0x1) {
-                        uncomp.add(tmp1);
+                        uncomp[count++] = tmp1;
                     }
                 }
             } else {
-                tmp1 = ((chars.get(j) >> shift1) & 0x1FF);
+                tmp1 = ((chars[j] >> shift1) & 0x1FF);
                 if ((tmp1 & 0xFF) == 0xFF) {
                     break;
                 }
                 if (tmp1 != 0x0 && tmp1 != 0x1) {
-                    uncomp.add(tmp1);
+                    uncomp[count++] = tmp1;
                 }
                 shift1 += 9;
                 if (shift1 < 0x10) {
-                    trans = ((chars.get(j) >> shift1) & 0x1FF);
+                    trans = ((chars[j] >> shift1) & 0x1FF);
                     shift1 += 9;
                 }
                 j += 1;
             }
         }
-        return uncomp;
+        return Arrays.copyOf(uncomp, count);
     }
 
-    private static List<Integer> lastKeys;
-    private static List<Integer> lastUnknowns;
+    /**
+     * The entry table of a file's first section: where each entry's words
+     * start, how many words it has, and the unknown value stored with it.
+     */
+    private static class EntryTable {
+        private final int sectionOffset;
+        private final int[] offsets;
+        private final int[] counts;
+        private final int[] unknowns;
+
+        EntryTable(byte[] ds) {
+            int numSections = readWord(ds, 0);
+            int numEntries = readWord(ds, 2);
+            if (numSections == 0) {
+                numEntries = 0;
+            }
+            sectionOffset = numSections == 0 ? 0 : readLong(ds, 12);
+            offsets = new int[numEntries];
+            counts = new int[numEntries];
+            unknowns = new int[numEntries];
+            int pos = sectionOffset + 4;
+            for (int j = 0; j < numEntries; j++) {
+                offsets[j] = readLong(ds, pos);
+                counts[j] = readWord(ds, pos + 4);
+                unknowns[j] = readWord(ds, pos + 6);
+                pos += 8;
+            }
+        }
+
+        int size() {
+            return counts.length;
+        }
+
+        int wordOffset(int entry, int word) {
+            return sectionOffset + offsets[entry] + word * 2;
+        }
+
+        // The key the first word of an entry is encrypted with. The last word
+        // always decrypts to 0xFFFF, so the key can be worked back from it.
+        int key(byte[] ds, int entry) {
+            int last = counts[entry] - 1;
+            if (last < 0) {
+                throw new IndexOutOfBoundsException("Text entry " + entry + " has no characters");
+            }
+            int key = readWord(ds, wordOffset(entry, last)) ^ 0xFFFF;
+            for (int k = last; k > 0; k--) {
+                key = ((key >>> 3) | (key << 13)) & 0xffff;
+            }
+            return key;
+        }
+    }
 
     /**
      * Take a byte-array corresponding to a NARC entry and build a list of
      * strings against the gen5 text encryption. Decompresses as appropriate.
-     * 
+     *
      * @param ds
      *            The data from this msg.narc entry
      * @return The list of strings
      */
 
     public static List<String> readTexts(byte[] ds) {
-        int pos = 0;
-        int i = 0;
-        lastKeys = new ArrayList<>();
-        lastUnknowns = new ArrayList<>();
-        List<String> strings = new ArrayList<>();
-        int numSections, numEntries, tmpCharCount, tmpUnknown, tmpChar;
-        int tmpOffset;
-        int[] sizeSections = new int[] { 0, 0, 0 };
-        int[] sectionOffset = new int[] { 0, 0, 0 };
-        Map<Integer, List<Integer>> tableOffsets = new HashMap<>();
-        Map<Integer, List<Integer>> characterCount = new HashMap<>();
-        Map<Integer, List<Integer>> unknown = new HashMap<>();
-        Map<Integer, List<List<Integer>>> encText = new HashMap<>();
-        Map<Integer, List<List<String>>> decText = new HashMap<>();
-        StringBuilder sb;
-        int key;
-
-        numSections = readWord(ds, 0);
-        numEntries = readWord(ds, 2);
-        sizeSections[0] = readLong(ds, 4);
-        // unk1 = readLong(ds, 8);
-        pos += 12;
-        if (numSections > i) {
-            for (int z = 0; z < numSections; z++) {
-                sectionOffset[z] = readLong(ds, pos);
-                pos += 4;
+        EntryTable table = new EntryTable(ds);
+        List<String> strings = new ArrayList<>(table.size());
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < table.size(); j++) {
+            int count = table.counts[j];
+            int[] chars = new int[count];
+            int key = table.key(ds, j);
+            for (int k = 0; k < count; k++) {
+                chars[k] = readWord(ds, table.wordOffset(j, k)) ^ key;
+                key = ((key << 3) | (key >>> 13)) & 0xffff;
             }
-            pos = sectionOffset[i];
-            sizeSections[i] = readLong(ds, pos);
-            pos += 4;
-            tableOffsets.put(i, new ArrayList<>());
-            characterCount.put(i, new ArrayList<>());
-            unknown.put(i, new ArrayList<>());
-            encText.put(i, new ArrayList<>());
-            decText.put(i, new ArrayList<>());
-            for (int j = 0; j < numEntries; j++) {
-                tmpOffset = readLong(ds, pos);
-                pos += 4;
-                tmpCharCount = readWord(ds, pos);
-                pos += 2;
-                tmpUnknown = readWord(ds, pos);
-                pos += 2;
-                tableOffsets.get(i).add(tmpOffset);
-                characterCount.get(i).add(tmpCharCount);
-                unknown.get(i).add(tmpUnknown);
-                lastUnknowns.add(tmpUnknown);
+            if (chars[0] == 0xF100) {
+                chars = decompress(chars);
             }
-            for (int j = 0; j < numEntries; j++) {
-                List<Integer> tmpEncChars = new ArrayList<>();
-                pos = sectionOffset[i] + tableOffsets.get(i).get(j);
-                for (int k = 0; k < characterCount.get(i).get(j); k++) {
-                    tmpChar = readWord(ds, pos);
-                    pos += 2;
-                    tmpEncChars.add(tmpChar);
-                }
-                encText.get(i).add(tmpEncChars);
-                key = encText.get(i).get(j).get(characterCount.get(i).get(j) - 1) ^ 0xFFFF;
-                for (int k = characterCount.get(i).get(j) - 1; k >= 0; k--) {
-                    encText.get(i).get(j).set(k, (encText.get(i).get(j).get(k)) ^ key);
-                    if (k == 0) {
-                        lastKeys.add(key);
-                    }
-                    key = ((key >>> 3) | (key << 13)) & 0xffff;
-                }
-                if (encText.get(i).get(j).get(0) == 0xF100) {
-                    encText.get(i).set(j, decompress(encText.get(i).get(j)));
-                    characterCount.get(i).set(j, encText.get(i).get(j).size());
+            sb.setLength(0);
+            for (int c : chars) {
+                if (c == 0xFFFF) {
+                    continue;
                 }
-                List<String> chars = new ArrayList<>();
-                sb = new StringBuilder();
-                for (int k = 0; k < characterCount.get(i).get(j); k++) {
-                    if (encText.get(i).get(j).get(k) == 0xFFFF) {
-                        chars.add("\\xFFFF");
+                if (c > 20 && c <= 0xFFF0 && Character.UnicodeBlock.of(c) != null) {
+                    if (pokeToTextChars.get(c)) {
+                        sb.append(pokeToText.get((char) c));
                     } else {
-                        if (encText.get(i).get(j).get(k) > 20 && encText.get(i).get(j).get(k) <= 0xFFF0
-                                && Character.UnicodeBlock.of(encText.get(i).get(j).get(k)) != null) {
-                            chars.add("" + ((char) encText.get(i).get(j).get(k).intValue()));
-                        } else {
-                            String num = String.format("%04X", encText.get(i).get(j).get(k));
-                            chars.add("\\x" + num);
-                        }
-                        sb.append(chars.get(k));
+                        sb.append((char) c);
                     }
+                } else {
+                    appendEscape(sb, c);
                 }
-                strings.add(sb.toString());
-                decText.get(i).add(chars);
             }
-        }
-
-        // Parse strings against the table
-        for (int sn = 0; sn < strings.size(); sn++) {
-            strings.set(sn, bulkReplace(strings.get(sn), pokeToTextPattern, pokeToText));
+            strings.add(sb.toString());
         }
         return strings;
     }
 
-    private static String bulkReplace(String string, Pattern pattern, Map<String, String> replacements) {
-        Matcher matcher = pattern.matcher(string);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            matcher.appendReplacement(sb, replacements.get(matcher.group(1)));
+    private static void appendEscape(StringBuilder sb, int c) {
+        sb.append("\\x");
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(c >> shift) & 0xF]);
         }
-        matcher.appendTail(sb);
-
-        return sb.toString();
     }
 
     /**
@@ -241,7 +254,7 @@ public class PPTxtHandler {
      * only one in most releases BUT japanese). Return the resulting binary as a
      * byte-array. Will never use the [F100] compression, even if the original
      * file used it.
-     * 
+     *
      * @param originalData
      *            The original file, to copy stuff like unknowns.
      * @param text
@@ -250,14 +263,6 @@ public class PPTxtHandler {
      */
     public static byte[] saveEntry(byte[] originalData, List<String> text) {
 
-        // Parse strings against the reverse table
-        for (int sn = 0; sn < text.size(); sn++) {
-            text.set(sn, bulkReplace(text.get(sn), textToPokePattern, textToPoke));
-        }
-
-        // Make sure we have the original unknowns etc
-        readTexts(originalData);
-
         // Start getting stuff
         int numSections, numEntries;
         int[] sizeSections = new int[] { 0, 0, 0 };
@@ -278,7 +283,8 @@ public class PPTxtHandler {
             System.err.println("Can't do anything due to too few lines");
             return originalData;
         } else {
-            byte[] newEntry = makeSection(text, numEntries);
+            // Make sure we have the original unknowns etc
+            byte[] newEntry = makeSection(text, numEntries, originalData, new EntryTable(originalData));
             for (int z = 0; z < numSections; z++) {
                 sectionOffset[z] = readLong(originalData, pos);
                 pos += 4;
@@ -304,22 +310,24 @@ public class PPTxtHandler {
         }
     }
 
-    private static byte[] makeSection(List<String> strings, int numEntries) {
-        List<List<Integer>> data = new ArrayList<>();
+    private static byte[] makeSection(List<String> strings, int numEntries, byte[] originalData, EntryTable table) {
+        int[][] data = new int[numEntries][];
         int size = 0;
         int offset = 4 + 8 * numEntries;
         int charCount;
         for (int i = 0; i < numEntries; i++) {
-            data.add(parseString(strings.get(i), i));
-            size += (data.get(i).size() * 2);
+            data[i] = parseString(textToPoke.replaceAll(strings.get(i)), table.key(originalData, i));
+            size += (data[i].length * 2);
         }
         if (size % 4 == 2) {
             size += 2;
-            int tmpKey = lastKeys.get(numEntries - 1);
-            for (int i = 0; i < data.get(numEntries - 1).size(); i++) {
+            int last = numEntries - 1;
+            int tmpKey = table.key(originalData, last);
+            for (int i = 0; i < data[last].length; i++) {
                 tmpKey = ((tmpKey << 3) | (tmpKey >> 13)) & 0xFFFF;
             }
-            data.get(numEntries - 1).add(0xFFFF ^ tmpKey);
+            data[last] = Arrays.copyOf(data[last], data[last].length + 1);
+            data[last][data[last].length - 1] = 0xFFFF ^ tmpKey;
         }
         size += offset;
         byte[] section = new byte[size];
@@ -327,17 +335,17 @@ public class PPTxtHandler {
         writeLong(section, pos, size);
         pos += 4;
         for (int i = 0; i < numEntries; i++) {
-            charCount = data.get(i).size();
+            charCount = data[i].length;
             writeLong(section, pos, offset);
             pos += 4;
             writeWord(section, pos, charCount);
             pos += 2;
-            writeWord(section, pos, lastUnknowns.get(i));
+            writeWord(section, pos, table.unknowns[i]);
             pos += 2;
             offset += (charCount * 2);
         }
         for (int i = 0; i < numEntries; i++) {
-            for (int word : data.get(i)) {
+            for (int word : data[i]) {
                 writeWord(section, pos, word);
                 pos += 2;
             }
@@ -345,27 +353,43 @@ public class PPTxtHandler {
         return section;
     }
 
-    private static List<Integer> parseString(String string, int entry_id) {
-        List<Integer> chars = new ArrayList<>();
+    private static int[] parseString(String string, int key) {
+        int[] chars = new int[string.length() + 1];
+        int count = 0;
         for (int i = 0; i < string.length(); i++) {
             if (string.charAt(i) != '\\') {
-                chars.add((int) string.charAt(i));
+                chars[count++] = string.charAt(i);
             } else {
                 if (((i + 2) < string.length()) && string.charAt(i + 2) == '{') {
-                    chars.add((int) string.charAt(i));
+                    chars[count++] = string.charAt(i);
                 } else {
-                    chars.add(Integer.parseInt(string.substring(i + 2, i + 6), 16));
+                    chars[count++] = parseHex(string, i + 2);
                     i += 5;
                 }
             }
         }
-        chars.add(0xFFFF);
-        int key = lastKeys.get(entry_id);
-        for (int i = 0; i < chars.size(); i++) {
-            chars.set(i, (chars.get(i) ^ key) & 0xFFFF);
+        chars[count++] = 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            chars[i] = (chars[i] ^ key) & 0xFFFF;
             key = ((key << 3) | (key >>> 13)) & 0xFFFF;
         }
-        return chars;
+        return count == chars.length ? chars : Arrays.copyOf(chars, count);
+    }
+
+    // Reads the four hex digits of an escape, leaving anything unusual to Integer.parseInt
+    private static int parseHex(String string, int start) {
+        if (start + 4 <= string.length()) {
+            int value = 0;
+            for (int i = start; i < start + 4; i++) {
+                int digit = Character.digit(string.charAt(i), 16);
+                if (digit < 0) {
+                    return Integer.parseInt(string.substring(start, start + 4), 16);
+                }
+                value = (value << 4) | digit;
+            }
+            return value;
+        }
+        return Integer.parseInt(string.substring(start, start + 4), 16);
     }
 
     private static int readWord(byte[] data, int offset) {